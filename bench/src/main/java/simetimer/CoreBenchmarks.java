@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * JMH benchmarks of the hot paths of the {@link SimeTimerProject}: sorting, the project total,
+ * the table rows and the time and date formatting, for projects of different sizes with short
+ * or long comments. Saving and loading are measured by {@link FileBenchmarks}.
+ * <p>
+ * Build with {@code mvn install} in the project directory and {@code mvn package} in {@code bench},
+ * then run {@code java -jar bench/target/benchmarks.jar -prof gc}. The profiler adds
+ * the allocation rate to throughput and latency. The largest projects need a heap of
+ * several gigabytes, like {@code -jvmArgsAppend -Xmx8g}, a subset is chosen with
+ * {@code -p size=1k,100k}.
+ *
+ * @author Simon Vetter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoreBenchmarks {
+	
+	/**
+	 * the rows a table page shows, the number of operations of the row benchmarks per call
+	 */
+	static final int ROWS = 1000;
+	/**
+	 * mean length and share of empty comments for short and long comments
+	 */
+	private static final int SHORT_COMMENT_LENGTH = 12;
+	private static final double SHORT_EMPTY_COMMENTS = 0.3;
+	private static final int LONG_COMMENT_LENGTH = 250;
+	private static final double LONG_EMPTY_COMMENTS = 0.05;
+	
+	@Param({"1k", "100k", "1m", "10m"})
+	public String size;
+	
+	@Param({"short", "long"})
+	public String comments;
+	
+	private SimeTimerProject project;
+	private SimeTimerProject unsorted;
+	/**
+	 * the first row of the next page of the row benchmarks
+	 */
+	private int nextRow;
+	
+	
+	
+	@Setup(Level.Trial)
+	public void createProjects() {
+		ProjectGenerator generator = generator(comments);
+		project = generator.createProject(ProjectGenerator.parseSize(size));
+		unsorted = generator.shuffle(project);
+		nextRow = 0;
+	}
+	
+	/**
+	 * returns a generator for projects with the given kind of comments
+	 * @param comments short or long
+	 * @return the {@link ProjectGenerator}
+	 */
+	static ProjectGenerator generator(String comments) {
+		return comments.equals("long")
+				? new ProjectGenerator(42, LONG_COMMENT_LENGTH, LONG_EMPTY_COMMENTS, 1024)
+				: new ProjectGenerator(42, SHORT_COMMENT_LENGTH, SHORT_EMPTY_COMMENTS, 1024);
+	}
+	
+	
+	
+	// SORTING
+	
+	/**
+	 * a shuffled copy of the project, made before every call, outside the timing
+	 */
+	@State(Scope.Thread)
+	public static class Unsorted {
+		SimeTimerProject copy;
+		
+		@Setup(Level.Invocation)
+		public void copy(CoreBenchmarks benchmarks) {
+			copy = null;
+			copy = benchmarks.unsorted.copy();
+		}
+	}
+	
+	@Benchmark
+	public long sortTimes(Unsorted unsorted) {
+		unsorted.copy.sortTimes();
+		return unsorted.copy.getStartDateMillis(0);
+	}
+	
+	
+	
+	// ROWS
+	
+	@Benchmark
+	public long getProjectTime() {
+		return project.getProjectTime();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void getStringArray(Blackhole blackhole) {
+		int index = nextRow;
+		for (int i = 0; i < ROWS; i++) {
+			blackhole.consume(project.getStringArray(index));
+			index = nextIndex(index);
+		}
+		nextRow = index;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void timeToString(Blackhole blackhole) {
+		int index = nextRow;
+		for (int i = 0; i < ROWS; i++) {
+			blackhole.consume(TimeFormatter.timeToString(project.getStoppedTime(index)));
+			index = nextIndex(index);
+		}
+		nextRow = index;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void dateToString(Blackhole blackhole) {
+		int index = nextRow;
+		for (int i = 0; i < ROWS; i++) {
+			blackhole.consume(TimeFormatter.dateToString(project.getStartDateMillis(index)));
+			index = nextIndex(index);
+		}
+		nextRow = index;
+	}
+	
+	/**
+	 * moves on to the next row like scrolling down the table, starting over at the end
+	 */
+	private int nextIndex(int index) {
+		return index + 1 == project.size() ? 0 : index + 1;
+	}
+	
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+
+
+/**
+ * JMH benchmarks of saving and loading projects in every file format of the {@link SaveManager},
+ * for projects of different sizes with short or long comments. Run like the {@link CoreBenchmarks},
+ * a subset of the formats is chosen with {@code -p format=plain,byte}.
+ *
+ * @author Simon Vetter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBenchmarks {
+	
+	@Param({"1k", "100k", "1m", "10m"})
+	public String size;
+	
+	@Param({"short", "long"})
+	public String comments;
+	
+	@Param({"plain", "byte", "mapped", "dictionary", "delta", "block"})
+	public String format;
+	
+	private SimeTimerProject project;
+	private int fileFormat;
+	/**
+	 * the file saved to, holding the project in the format for the load benchmark
+	 */
+	private File file;
+	
+	
+	
+	@Setup(Level.Trial)
+	public void createProject() throws IOException {
+		fileFormat = HeadlessTimer.fileFormatByName(format);
+		if (fileFormat == 0) {
+			throw new IllegalArgumentException("Unknown file format: " + format);
+		}
+		project = CoreBenchmarks.generator(comments).createProject(ProjectGenerator.parseSize(size));
+		file = Files.createTempFile("simetimer-bench", ".stp").toFile();
+		SaveManager.writeProject(project, file, fileFormat);
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+	}
+	
+	@Benchmark
+	public long save() throws IOException {
+		SaveManager.writeProject(project, file, fileFormat);
+		return file.length();
+	}
+	
+	@Benchmark
+	public int load() throws IOException {
+		return SaveManager.readProject(file, fileFormat).size();
+	}
+	
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import javax.swing.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+
+
+/**
+ * Loads a project file and replays a timer trace against it end to end, the way the
+ * window uses the {@link TimerEngine}: commands are executed on the event thread,
+ * every stored chunk is autosaved through the {@link SaveService} and shown in a
+ * table, and a {@link DisplayRefresher} ticks while the timer is running.
+ * The trace is replayed faster than it was recorded, by the given speed factor,
+ * on a {@link ManualClock}, so recorded chunks keep their lengths.
+ * <p>
+ * Measures the load time of the file, which is taken first, while the JIT compiler
+ * is still cold, the heap used per loaded chunk, the autosave latency from a change
+ * to it being written, the time the table takes to follow a change, and the jitter
+ * of the display refresh ticks. The results are written as a JSON object.
+ * Each run should get a fresh JVM, so the load is really a cold start.
+ * The project file itself is not changed, autosave goes to a temporary copy.
+ * <p>
+ * Usage: {@code java -cp bench/target/benchmarks.jar simetimer.LoadTest [--format plain|byte|mapped|dictionary|delta|block] [--trace file | --trace-commands n]
+ * [--speed factor] [--no-journal] [--table-rows n] [--report file] <project file>}.
+ * Traces are described in {@link ProjectGenerator}, without one, a trace is generated.
+ *
+ * @author Simon Vetter
+ */
+public class LoadTest implements TimerEngine.SaveSettings {
+	
+	/**
+	 * time between two looks at the saved version of the {@link SaveService}
+	 */
+	private static final long SAVE_POLL_NANOS = 20_000;
+	
+	private final int fileFormat;
+	private final boolean journalAutosave;
+	private final File workFile;
+	private final int tableRows;
+	
+	// event thread state
+	private TimerEngine engine;
+	private ProjectTableModel tableModel;
+	private JTable table;
+	private DisplayRefresher displayRefresher;
+	private long lastTickNanos;
+	private int saveFailures;
+	private int commandErrors;
+	/**
+	 * the number of changes to the project so far, which is the version of the engine
+	 */
+	private int changes;
+	/**
+	 * consumes the rendered rows, so the JIT compiler can't remove the rendering
+	 */
+	private long renderedLength;
+	
+	// results, written on the event thread
+	private final LongList tickIntervals = new LongList();
+	private final LongList tableRefreshes = new LongList();
+	/**
+	 * the time of every change by version, written before the change is made
+	 */
+	private long[] changeNanos;
+	
+	// save watcher state
+	private final LongList autosaveLatencies = new LongList();
+	private volatile boolean replayDone;
+	/**
+	 * the number of changes to wait for once the replay is done
+	 */
+	private volatile long savedTarget;
+	
+	
+	
+	/**
+	 * constructor
+	 * @param fileFormat the file format of the project file
+	 * @param journalAutosave true if autosave may use the journal
+	 * @param workFile the copy of the project file to autosave to
+	 * @param tableRows the number of table rows visible at once
+	 */
+	LoadTest(int fileFormat, boolean journalAutosave, File workFile, int tableRows) {
+		this.fileFormat = fileFormat;
+		this.journalAutosave = journalAutosave;
+		this.workFile = workFile;
+		this.tableRows = tableRows;
+	}
+	
+	@Override
+	public File getSaveFile() {
+		return workFile;
+	}
+	
+	@Override
+	public int getFileFormat() {
+		return fileFormat;
+	}
+	
+	@Override
+	public boolean isAutosave() {
+		return true;
+	}
+	
+	@Override
+	public boolean isJournalAutosave() {
+		return journalAutosave;
+	}
+	
+	
+	
+	// COMMAND LINE
+	
+	public static void main(String[] args) throws Exception {
+		String format = "plain";
+		File traceFile = null;
+		int traceCommands = 1000;
+		double speed = 100_000;
+		boolean journalAutosave = true;
+		int tableRows = ConfigManager.DEFAULT_TABLE_SIZE;
+		File reportFile = null;
+		File file = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("--no-journal")) {
+					journalAutosave = false;
+					continue;
+				} else if (!args[i].startsWith("--") && file == null) {
+					file = new File(args[i]);
+					continue;
+				} else if (i + 1 == args.length) {
+					usage();
+				}
+				switch (args[i]) {
+					case "--format":
+						format = args[++i].toLowerCase(Locale.ROOT);
+						break;
+					case "--trace":
+						traceFile = new File(args[++i]);
+						break;
+					case "--trace-commands":
+						traceCommands = ProjectGenerator.parseSize(args[++i]);
+						break;
+					case "--speed":
+						speed = Double.parseDouble(args[++i]);
+						break;
+					case "--table-rows":
+						tableRows = Integer.parseInt(args[++i]);
+						break;
+					case "--report":
+						reportFile = new File(args[++i]);
+						break;
+					default:
+						usage();
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		int fileFormat = HeadlessTimer.fileFormatByName(format);
+		if (file == null || fileFormat == 0 || speed <= 0) {
+			usage();
+		}
+		
+		// cold start, before anything else has warmed up the JIT compiler
+		long heapBefore = usedHeap();
+		long loadStart = System.nanoTime();
+		SimeTimerProject project = SaveManager.readProject(file, fileFormat);
+		long loadNanos = System.nanoTime() - loadStart;
+		int chunks = project.size();
+		long heapPerChunk = chunks == 0 ? 0 : (usedHeap() - heapBefore) / chunks;
+		
+		Trace trace;
+		if (traceFile != null) {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(traceFile), StandardCharsets.UTF_8))) {
+				trace = Trace.read(in);
+			}
+		} else {
+			StringWriter generated = new StringWriter();
+			new ProjectGenerator(7, 20, 0.3, 1024).writeTrace(generated, traceCommands);
+			trace = Trace.read(new BufferedReader(new StringReader(generated.toString())));
+		}
+		
+		File workFile = Files.createTempFile("simetimer-loadtest", ".stp").toFile();
+		workFile.deleteOnExit();
+		File journalFile = ProjectJournal.journalFileOf(workFile);
+		journalFile.deleteOnExit();
+		Files.copy(file.toPath(), workFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		LoadTest test = new LoadTest(fileFormat, journalAutosave, workFile, tableRows);
+		String report;
+		try {
+			long replayNanos = test.replay(project, trace, speed);
+			report = test.report(file, format, chunks, loadNanos, heapPerChunk, trace, speed, replayNanos);
+		} finally {
+			workFile.delete();
+			journalFile.delete();
+		}
+		if (reportFile != null) {
+			Files.write(reportFile.toPath(), report.getBytes(StandardCharsets.UTF_8));
+		} else {
+			System.out.println(report);
+		}
+		System.exit(0);
+	}
+	
+	private static void usage() {
+		System.err.println("usage: LoadTest [--format plain|byte|mapped|dictionary|delta|block] [--trace file | --trace-commands n] [--speed factor]"
+				+ " [--no-journal] [--table-rows n] [--report file] <project file>");
+		System.exit(2);
+	}
+	
+	/**
+	 * @return the heap in use after collecting garbage, in bytes
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	
+	
+	// REPLAY
+	
+	/**
+	 * replays a trace against the loaded project and waits until everything is saved
+	 * @param project the loaded project
+	 * @param trace the trace
+	 * @param speed how many times faster than recorded to replay
+	 * @return the time the replay took in nanoseconds, including the final saves
+	 * @throws Exception if the event thread failed
+	 */
+	private long replay(SimeTimerProject project, Trace trace, double speed) throws Exception {
+		// the trace starts a minute after the end of the project, so its chunks are appended
+		long startDate = ProjectGenerator.START_DATE_MILLIS;
+		if (project.size() > 0) {
+			int last = project.size() - 1;
+			startDate = project.getStartDateMillis(last) + project.getStoppedTime(last) + 60_000;
+		}
+		ManualClock clock = new ManualClock(startDate);
+		SaveService saveService = new SaveService(e -> saveFailures++);
+		// one more for the final stop
+		changeNanos = new long[trace.size() + 2];
+		SwingUtilities.invokeAndWait(() -> {
+			engine = new TimerEngine(clock, this, saveService);
+			engine.projectLoaded(project);
+			tableModel = new ProjectTableModel(project);
+			table = new JTable(tableModel);
+			displayRefresher = new DisplayRefresher(this::tick);
+			engine.addListener(new TimerEngine.Listener() {
+				@Override
+				public void runningChanged(boolean running) {
+					lastTickNanos = 0;
+					displayRefresher.setRunning(running);
+				}
+				@Override
+				public void chunksAdded(int fromIndex, int toIndex) {
+					long start = System.nanoTime();
+					tableModel.chunksAdded(fromIndex, toIndex);
+					renderVisibleRows();
+					tableRefreshes.add(System.nanoTime() - start);
+				}
+				@Override
+				public void commentChanged(int index) {
+					tableModel.commentSet(index);
+				}
+			});
+		});
+		
+		replayDone = false;
+		Thread watcher = new Thread(() -> watchSaves(saveService), "SimeTimer save watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+		long replayStart = System.nanoTime();
+		for (int i = 0; i < trace.size(); i++) {
+			long due = replayStart + (long) (trace.millis[i] * TimeChunk.NANOS_PER_MILLI / speed);
+			for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+				LockSupport.parkNanos(wait);
+			}
+			long traceNanos = trace.millis[i] * TimeChunk.NANOS_PER_MILLI;
+			if (traceNanos > clock.nanoTime()) {
+				clock.advance(traceNanos - clock.nanoTime());
+			}
+			long callNanos = clock.nanoTime();
+			String command = trace.commands[i];
+			SwingUtilities.invokeLater(() -> execute(command, callNanos));
+		}
+		SwingUtilities.invokeAndWait(() -> {
+			if (engine.isRunning()) {
+				execute("stop", clock.nanoTime());
+			}
+			displayRefresher.setRunning(false);
+			savedTarget = saveFailures == 0 ? changes : 0;
+		});
+		saveService.flush();
+		long replayNanos = System.nanoTime() - replayStart;
+		// failures reported after the flush are posted to the event thread
+		SwingUtilities.invokeAndWait(() -> savedTarget = Math.min(savedTarget, saveFailures == 0 ? changes : 0));
+		replayDone = true;
+		watcher.join();
+		return replayNanos;
+	}
+	
+	/**
+	 * executes a command of the trace. Runs on the event thread.
+	 * @param command the command
+	 * @param callNanos the clock reading at which the command was given
+	 */
+	private void execute(String command, long callNanos) {
+		// noted before the change is requested, so the writer thread sees it
+		changeNanos[changes + 1] = System.nanoTime();
+		String reply = TimerCommands.execute(engine, command, callNanos);
+		if (reply == null) {
+			return;
+		} else if (TimerCommands.isError(reply)) {
+			commandErrors++;
+		} else if (!command.startsWith("start") && !command.startsWith("save") && !command.startsWith("total")) {
+			changes++;
+		}
+	}
+	
+	/**
+	 * formats the table rows which would be visible after scrolling down, like painting them would.
+	 * Runs on the event thread.
+	 */
+	private void renderVisibleRows() {
+		int rows = table.getRowCount();
+		for (int row = Math.max(0, rows - tableRows); row < rows; row++) {
+			for (int column = 0; column < table.getColumnCount(); column++) {
+				Object value = table.getValueAt(row, column);
+				renderedLength += value == null ? 0 : value.toString().length();
+			}
+		}
+	}
+	
+	/**
+	 * refreshes the time labels like the window does and notes the interval since the previous tick.
+	 * Runs on the event thread.
+	 */
+	private void tick() {
+		long now = System.nanoTime();
+		renderedLength += TimeFormatter.timeToString(
+				(engine.getProject().getProjectNanos() + engine.getRunningNanos()) / TimeChunk.NANOS_PER_MILLI).length();
+		if (lastTickNanos != 0) {
+			tickIntervals.add(now - lastTickNanos);
+		}
+		lastTickNanos = now;
+	}
+	
+	/**
+	 * notes the autosave latency of every change once its version has been written.
+	 * The {@link SaveService} writes in order, so all versions up to the saved one are on disk.
+	 * Runs on its own thread until the given number of changes is saved.
+	 * @param saveService the save service of the replay
+	 */
+	private void watchSaves(SaveService saveService) {
+		long seen = 0;
+		while (!replayDone || seen < savedTarget) {
+			long saved = saveService.getSavedVersion();
+			if (saved > seen) {
+				long now = System.nanoTime();
+				for (long version = seen + 1; version <= saved; version++) {
+					autosaveLatencies.add(now - changeNanos[(int) version]);
+				}
+				seen = saved;
+			} else {
+				LockSupport.parkNanos(SAVE_POLL_NANOS);
+			}
+		}
+	}
+	
+	
+	
+	// REPORT
+	
+	/**
+	 * creates the JSON report of a run
+	 * @param file the project file
+	 * @param format the name of its file format
+	 * @param chunks the number of loaded chunks
+	 * @param loadNanos the time loading took
+	 * @param heapPerChunk the heap used per loaded chunk in bytes
+	 * @param trace the replayed trace
+	 * @param speed the speed factor of the replay
+	 * @param replayNanos the time the replay took
+	 * @return the report
+	 */
+	private String report(File file, String format, int chunks, long loadNanos, long heapPerChunk,
+			Trace trace, double speed, long replayNanos) {
+		StringBuilder report = new StringBuilder(1024);
+		report.append("{\n");
+		report.append("  \"file\": \"").append(file.getPath().replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+		report.append("  \"format\": \"").append(format).append("\",\n");
+		report.append("  \"chunks\": ").append(chunks).append(",\n");
+		report.append("  \"fileBytes\": ").append(file.length()).append(",\n");
+		report.append("  \"coldLoadMillis\": ").append(String.format(Locale.ROOT, "%.3f", loadNanos / 1e6)).append(",\n");
+		report.append("  \"heapBytesPerChunk\": ").append(heapPerChunk).append(",\n");
+		report.append("  \"replay\": {\"commands\": ").append(trace.size())
+				.append(", \"speed\": ").append(speed)
+				.append(", \"journal\": ").append(journalAutosave)
+				.append(", \"wallMillis\": ").append(String.format(Locale.ROOT, "%.3f", replayNanos / 1e6))
+				.append(", \"changes\": ").append(changes)
+				.append(", \"commandErrors\": ").append(commandErrors)
+				.append(", \"saveFailures\": ").append(saveFailures).append("},\n");
+		report.append("  \"autosaveLatencyMicros\": ").append(autosaveLatencies.statistics(0)).append(",\n");
+		report.append("  \"tableRefreshMicros\": ").append(tableRefreshes.statistics(0)).append(",\n");
+		report.append("  \"refreshIntervalMicros\": ").append(tickIntervals.statistics(0)).append(",\n");
+		report.append("  \"refreshJitterMicros\": ").append(tickIntervals.statistics(
+				DisplayRefresher.REFRESH_INTERVAL * TimeChunk.NANOS_PER_MILLI)).append("\n");
+		report.append("}");
+		return report.toString();
+	}
+	
+	
+	
+	/**
+	 * a growing list of longs, for measurements
+	 */
+	private static class LongList {
+		private long[] values = new long[1024];
+		private int size = 0;
+		
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+		
+		/**
+		 * formats count, mean, percentiles and maximum of the distances of the values
+		 * to a given one, in microseconds, as a JSON object
+		 * @param target the value to take the distances to, 0 for the values themselves
+		 * @return the JSON object
+		 */
+		String statistics(long target) {
+			long[] sorted = new long[size];
+			double sum = 0;
+			for (int i = 0; i < size; i++) {
+				sorted[i] = Math.abs(values[i] - target);
+				sum += sorted[i];
+			}
+			Arrays.sort(sorted);
+			if (size == 0) {
+				return "{\"count\": 0}";
+			}
+			return String.format(Locale.ROOT, "{\"count\": %d, \"mean\": %.1f, \"p50\": %.1f, \"p90\": %.1f,"
+					+ " \"p99\": %.1f, \"max\": %.1f}", size, sum / size / 1e3, sorted[size / 2] / 1e3,
+					sorted[(int) ((long) size * 90 / 100)] / 1e3, sorted[(int) ((long) size * 99 / 100)] / 1e3,
+					sorted[size - 1] / 1e3);
+		}
+	}
+	
+	/**
+	 * a timer trace, see {@link ProjectGenerator}
+	 */
+	private static class Trace {
+		final long[] millis;
+		final String[] commands;
+		
+		Trace(long[] millis, String[] commands) {
+			this.millis = millis;
+			this.commands = commands;
+		}
+		
+		int size() {
+			return commands.length;
+		}
+		
+		/**
+		 * reads a trace, skipping empty lines and comments starting with #
+		 * @param in the reader to read from
+		 * @return the trace
+		 * @throws IOException if reading failed or a line is invalid
+		 */
+		static Trace read(BufferedReader in) throws IOException {
+			List<String> commands = new ArrayList<>();
+			LongList millis = new LongList();
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.isBlank() || line.startsWith("#")) {
+					continue;
+				}
+				int space = line.indexOf(' ');
+				try {
+					long time = Long.parseLong(space < 0 ? line : line.substring(0, space));
+					if (millis.size > 0 && time < millis.values[millis.size - 1]) {
+						throw new IOException("line " + lineNumber + ": time goes backwards");
+					}
+					millis.add(time);
+				} catch (NumberFormatException e) {
+					throw new IOException("line " + lineNumber + ": invalid time");
+				}
+				commands.add(space < 0 ? "" : line.substring(space + 1));
+			}
+			return new Trace(Arrays.copyOf(millis.values, millis.size), commands.toArray(new String[0]));
+		}
+	}
+	
+}
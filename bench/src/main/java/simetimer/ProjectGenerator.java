@@ -0,0 +1,298 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+
+
+/**
+ * Generates synthetic projects like long-term users have them: chunks of a few seconds
+ * to a few hours with breaks in between, comments repeating for a few chunks in a row.
+ * Projects can be written in every file format of the {@link SaveManager}, and timer
+ * traces for the {@link LoadTest} can be generated as well.
+ * Everything is derived from a seed, so the same options always give the same files.
+ * <p>
+ * Usage: {@code java -cp bench/target/benchmarks.jar simetimer.ProjectGenerator [--chunks 100k] [--comment-length 20]
+ * [--empty-comments 0.3] [--distinct-comments 1024] [--order sorted|shuffled]
+ * [--format plain|byte|mapped|dictionary|delta|block|all] [--seed n] [--trace-commands n] <file>}.
+ * With {@code --format all}, the name of each format is put in front of the file extension.
+ * With {@code --trace-commands}, a trace with about that many commands is written instead of a project.
+ * <p>
+ * A trace has one command of {@link TimerCommands} per line, preceded by the time
+ * in milliseconds since the start of the trace at which it was given, like {@code 1500 cut Meeting}.
+ *
+ * @author Simon Vetter
+ */
+public class ProjectGenerator {
+	
+	/**
+	 * the start date of generated projects, the first of January 2015
+	 */
+	static final long START_DATE_MILLIS = 1_420_070_400_000L;
+	private static final String[] WORDS = {"refactored", "the", "save", "path", "after", "review", "with", "team",
+			"discussed", "release", "plan", "and", "fixed", "flaky", "layout", "of", "table", "for", "customer", "call",
+			"meeting", "mails", "bugfix", "docs", "support", "ticket", "deploy", "tests"};
+	
+	private final Random random;
+	/**
+	 * the distinct non-empty comments to choose from, so large projects still fit in memory
+	 */
+	private final String[] comments;
+	private final double emptyComments;
+	
+	
+	
+	/**
+	 * constructor
+	 * @param seed the seed of the random numbers
+	 * @param meanCommentLength the mean length of non-empty comments, exponentially distributed, 0 for no comments
+	 * @param emptyComments the share of empty comments, from 0 to 1
+	 * @param distinctComments the number of distinct non-empty comments
+	 */
+	public ProjectGenerator(long seed, int meanCommentLength, double emptyComments, int distinctComments) {
+		random = new Random(seed);
+		this.emptyComments = meanCommentLength > 0 ? emptyComments : 1;
+		comments = new String[Math.max(1, distinctComments)];
+		for (int i = 0; i < comments.length; i++) {
+			int length = 1 + (int) (-Math.log(1 - random.nextDouble()) * meanCommentLength);
+			StringBuilder comment = new StringBuilder(length + 16);
+			while (comment.length() < length) {
+				comment.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			comment.setLength(length);
+			comments[i] = comment.toString().trim();
+		}
+	}
+	
+	/**
+	 * creates a project sorted by start date
+	 * @param size the number of chunks
+	 * @return the project
+	 */
+	public SimeTimerProject createProject(int size) {
+		SimeTimerProject project = new SimeTimerProject(size);
+		long startDate = START_DATE_MILLIS;
+		String comment = "";
+		for (int i = 0; i < size; i++) {
+			long stoppedNanos = nextChunkNanos();
+			// comments often repeat for a few chunks in a row
+			if (i == 0 || random.nextInt(4) == 0) {
+				comment = nextComment();
+			}
+			project.appendTimeChunk(startDate, stoppedNanos, comment);
+			startDate += stoppedNanos / TimeChunk.NANOS_PER_MILLI + nextBreakMillis();
+		}
+		return project;
+	}
+	
+	/**
+	 * creates a copy of a project with its chunks in random order
+	 * @param project the project
+	 * @return the unsorted copy
+	 */
+	public SimeTimerProject shuffle(SimeTimerProject project) {
+		int size = project.size();
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		SimeTimerProject result = new SimeTimerProject(size);
+		for (int index : order) {
+			result.appendTimeChunk(project.getStartDateMillis(index), project.getStoppedNanos(index), project.getComment(index));
+		}
+		return result;
+	}
+	
+	/**
+	 * writes a trace of a timer being started, cut and stopped again in sessions of a few dozen chunks
+	 * @param out the {@link Writer} to write the trace to
+	 * @param commands the number of commands to write, at least
+	 * @throws IOException if writing failed
+	 */
+	public void writeTrace(Writer out, int commands) throws IOException {
+		long millis = 0;
+		for (int written = 0; written < commands; ) {
+			out.write(millis + " start\n");
+			written++;
+			int cuts = 1 + random.nextInt(40);
+			for (int i = 0; i < cuts; i++) {
+				millis += nextChunkNanos() / TimeChunk.NANOS_PER_MILLI;
+				String comment = nextComment();
+				out.write(millis + (i + 1 < cuts ? " cut" : " stop") + (comment.isEmpty() ? "" : " " + comment) + "\n");
+				written++;
+			}
+			millis += nextBreakMillis() * 10;
+		}
+	}
+	
+	/**
+	 * @return the length of a chunk, from a second to two hours, mostly short ones
+	 */
+	private long nextChunkNanos() {
+		return (1_000 + (long) (random.nextDouble() * random.nextDouble() * 7_200_000)) * TimeChunk.NANOS_PER_MILLI
+				+ random.nextInt(1_000_000);
+	}
+	
+	/**
+	 * @return the break between two chunks, up to a quarter of an hour
+	 */
+	private long nextBreakMillis() {
+		return random.nextInt(900_000);
+	}
+	
+	private String nextComment() {
+		return random.nextDouble() < emptyComments ? "" : comments[random.nextInt(comments.length)];
+	}
+	
+	
+	
+	// COMMAND LINE
+	
+	public static void main(String[] args) throws IOException {
+		int chunks = 100_000;
+		int commentLength = 20;
+		double emptyComments = 0.3;
+		int distinctComments = 1024;
+		boolean shuffled = false;
+		String format = "plain";
+		long seed = 42;
+		int traceCommands = 0;
+		File file = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].startsWith("--") && file == null) {
+					file = new File(args[i]);
+					continue;
+				} else if (i + 1 == args.length) {
+					usage();
+				}
+				switch (args[i]) {
+					case "--chunks":
+						chunks = ProjectGenerator.parseSize(args[++i]);
+						break;
+					case "--comment-length":
+						commentLength = Integer.parseInt(args[++i]);
+						break;
+					case "--empty-comments":
+						emptyComments = Double.parseDouble(args[++i]);
+						break;
+					case "--distinct-comments":
+						distinctComments = Integer.parseInt(args[++i]);
+						break;
+					case "--order":
+						shuffled = args[++i].equals("shuffled");
+						break;
+					case "--format":
+						format = args[++i].toLowerCase(Locale.ROOT);
+						break;
+					case "--seed":
+						seed = Long.parseLong(args[++i]);
+						break;
+					case "--trace-commands":
+						traceCommands = ProjectGenerator.parseSize(args[++i]);
+						break;
+					default:
+						usage();
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		if (file == null) {
+			usage();
+		}
+		
+		ProjectGenerator generator = new ProjectGenerator(seed, commentLength, emptyComments, distinctComments);
+		if (traceCommands > 0) {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+				generator.writeTrace(out, traceCommands);
+			}
+			System.out.println(file);
+			return;
+		}
+		SimeTimerProject project = generator.createProject(chunks);
+		if (shuffled) {
+			project = generator.shuffle(project);
+		}
+		if (format.equals("all")) {
+			for (int i = 0; i < SaveManager.FILE_FORMATS.length; i++) {
+				String name = SaveManager.FILE_FORMAT_NAMES[i].split(" ")[0].toLowerCase(Locale.ROOT);
+				File formatFile = withFormatName(file, name);
+				SaveManager.writeProject(project, formatFile, SaveManager.FILE_FORMATS[i]);
+				System.out.println(formatFile);
+			}
+		} else {
+			int fileFormat = HeadlessTimer.fileFormatByName(format);
+			if (fileFormat == 0) {
+				System.err.println("Unknown file format: " + format);
+				System.exit(2);
+			}
+			SaveManager.writeProject(project, file, fileFormat);
+			System.out.println(file);
+		}
+	}
+	
+	/**
+	 * parses a number of chunks with an optional k or m suffix
+	 * @param size the number, like 100k
+	 * @return the number of chunks
+	 * @throws NumberFormatException if the number can't be parsed
+	 */
+	static int parseSize(String size) throws NumberFormatException {
+		String lower = size.trim().toLowerCase(Locale.ROOT);
+		if (lower.endsWith("k")) {
+			return Integer.parseInt(lower.substring(0, lower.length() - 1)) * 1_000;
+		} else if (lower.endsWith("m")) {
+			return Integer.parseInt(lower.substring(0, lower.length() - 1)) * 1_000_000;
+		}
+		return Integer.parseInt(lower);
+	}
+	
+	/**
+	 * puts the name of a file format in front of the extension of a file name,
+	 * like {@code project.stp} to {@code project.plain.stp}
+	 * @param file the file
+	 * @param formatName the name of the file format
+	 * @return the file with the format name
+	 */
+	static File withFormatName(File file, String formatName) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String formatted = dot > 0 ? name.substring(0, dot) + "." + formatName + name.substring(dot)
+				: name + "." + formatName;
+		return new File(file.getAbsoluteFile().getParentFile(), formatted);
+	}
+	
+	private static void usage() {
+		System.err.println("usage: ProjectGenerator [--chunks n] [--comment-length n] [--empty-comments share]"
+				+ " [--distinct-comments n] [--order sorted|shuffled] [--format plain|byte|mapped|dictionary|delta|block|all] [--seed n]"
+				+ " [--trace-commands n] <file>");
+		System.exit(2);
+	}
+	
+}
@@ -0,0 +1,587 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+
+/**
+ * Access to a project file written in the {@link SaveManager#FILE_FORMAT_BLOCK} format.
+ * The {@link TimeChunk}s are stored in order of their start dates, in blocks of
+ * {@link #BLOCK_SIZE} which are compressed independently, so loading a date range or the
+ * latest {@link TimeChunk}s only decompresses the blocks involved. Only the index is read
+ * on opening. Blocks are compressed and decompressed in parallel on a {@link ForkJoinPool}.
+ * <p>
+ * File layout (all numbers big endian):
+ * <ul>
+ * <li>header: format constant (int), version (int)</li>
+ * <li>the blocks: each one {@link TimeChunk}s in the {@link DeltaCoder} format, compressed with
+ * 		{@link Deflater}</li>
+ * <li>the index: for every block the start date of its first {@link TimeChunk} and the latest
+ * 		end date of its {@link TimeChunk}s in milliseconds (long each), its offset in the file (long),
+ * 		its compressed and uncompressed length in bytes and its number of {@link TimeChunk}s (int each)</li>
+ * <li>trailer: offset of the index (long), number of blocks (int), format constant (int)</li>
+ * </ul>
+ *
+ * @author Simon Vetter
+ */
+public class BlockProjectFile implements Closeable {
+	
+	/**
+	 * the version of the layout written by {@link #write(SimeTimerProject, File)}
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * the number of {@link TimeChunk}s per block, except for the last one
+	 */
+	public static final int BLOCK_SIZE = 1 << 12;
+	
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+	private static final int INDEX_ENTRY_SIZE = 3 * Long.BYTES + 3 * Integer.BYTES;
+	private static final int TRAILER_SIZE = Long.BYTES + 2 * Integer.BYTES;
+	
+	private final FileChannel channel;
+	private final ForkJoinPool pool;
+	private final int size;
+	/**
+	 * the index, one entry per block
+	 */
+	private final long[] firstStartDates;
+	private final long[] lastEndDates;
+	private final long[] offsets;
+	private final int[] compressedLengths;
+	private final int[] lengths;
+	private final int[] counts;
+	
+	
+	
+	/**
+	 * opens the given file and reads its index. Decompresses on the common {@link ForkJoinPool}.
+	 * @param file the file to open
+	 * @throws IOException when the file could not be opened
+	 * @throws IllegalArgumentException when the file is not in the expected format
+	 */
+	public BlockProjectFile(File file) throws IOException {
+		this(file, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * opens the given file and reads its index
+	 * @param file the file to open
+	 * @param pool the {@link ForkJoinPool} to decompress blocks on
+	 * @throws IOException when the file could not be opened
+	 * @throws IllegalArgumentException when the file is not in the expected format
+	 */
+	public BlockProjectFile(File file, ForkJoinPool pool) throws IOException {
+		this.pool = pool;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long fileSize = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			if (fileSize < HEADER_SIZE + TRAILER_SIZE || readFully(header, 0).getInt() != SaveManager.FILE_FORMAT_BLOCK) {
+				throw new IllegalArgumentException("Not a block compressed project file");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unknown block compressed project file version " + version);
+			}
+			ByteBuffer trailer = readFully(ByteBuffer.allocate(TRAILER_SIZE), fileSize - TRAILER_SIZE);
+			long indexOffset = trailer.getLong();
+			int blockCount = trailer.getInt();
+			if (trailer.getInt() != SaveManager.FILE_FORMAT_BLOCK || blockCount < 0
+					|| indexOffset < HEADER_SIZE || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != fileSize - TRAILER_SIZE) {
+				throw new IllegalArgumentException("Block compressed project file index corrupted");
+			}
+			firstStartDates = new long[blockCount];
+			lastEndDates = new long[blockCount];
+			offsets = new long[blockCount];
+			compressedLengths = new int[blockCount];
+			lengths = new int[blockCount];
+			counts = new int[blockCount];
+			ByteBuffer index = readFully(ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE), indexOffset);
+			long total = 0;
+			long end = HEADER_SIZE;
+			for (int i = 0; i < blockCount; i++) {
+				firstStartDates[i] = index.getLong();
+				lastEndDates[i] = index.getLong();
+				offsets[i] = index.getLong();
+				compressedLengths[i] = index.getInt();
+				lengths[i] = index.getInt();
+				counts[i] = index.getInt();
+				if (offsets[i] != end || compressedLengths[i] < 0 || lengths[i] < 0 || counts[i] <= 0 || counts[i] > BLOCK_SIZE
+						|| (i > 0 && firstStartDates[i] < firstStartDates[i - 1])) {
+					throw new IllegalArgumentException("Block compressed project file index corrupted");
+				}
+				end += compressedLengths[i];
+				total += counts[i];
+			}
+			if (end != indexOffset || total > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Block compressed project file index corrupted");
+			}
+			size = (int) total;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * returns the number of {@link TimeChunk}s in the file
+	 * @return the number of {@link TimeChunk}s in the file
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * returns the number of blocks in the file
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return counts.length;
+	}
+	
+	
+	
+	// READ
+	
+	/**
+	 * reads all {@link TimeChunk}s in the file into a new {@link SimeTimerProject}
+	 * @return a new {@link SimeTimerProject} with the data from the file, sorted
+	 * @throws IOException when the file could not be read
+	 * @throws IllegalArgumentException when a block is corrupted
+	 */
+	public SimeTimerProject toProject() throws IOException {
+		SimeTimerProject result = new SimeTimerProject(size);
+		appendBlocks(0, counts.length, result, null);
+		return result;
+	}
+	
+	/**
+	 * reads the {@link TimeChunk}s overlapping the given date range, as seen by
+	 * {@link SimeTimerProject#forEachInRange(long, long, SimeTimerProject.RangeVisitor)},
+	 * decompressing only the blocks which hold any of them
+	 * @param fromMillis the start of the range in milliseconds, inclusive
+	 * @param toMillis the end of the range in milliseconds, exclusive
+	 * @return a new {@link SimeTimerProject} with the {@link TimeChunk}s, sorted
+	 * @throws IOException when the file could not be read
+	 * @throws IllegalArgumentException when a block is corrupted
+	 */
+	public SimeTimerProject readRange(long fromMillis, long toMillis) throws IOException {
+		List<Integer> touched = new ArrayList<>();
+		for (int i = 0; i < counts.length && firstStartDates[i] < toMillis; i++) {
+			if (lastEndDates[i] >= fromMillis) {
+				touched.add(i);
+			}
+		}
+		SimeTimerProject blocks = new SimeTimerProject();
+		for (Block block : decode(touched)) {
+			block.appendTo(blocks, 0, null);
+		}
+		SimeTimerProject result = new SimeTimerProject();
+		blocks.forEachInRange(fromMillis, toMillis, (index, startDateMillis, nanosInRange) ->
+				result.appendTimeChunk(startDateMillis, blocks.getStoppedNanos(index), blocks.getComment(index)));
+		return result;
+	}
+	
+	/**
+	 * reads the latest {@link TimeChunk}s, decompressing only the last blocks
+	 * @param count the number of {@link TimeChunk}s to read, all if there are less
+	 * @return a new {@link SimeTimerProject} with the {@link TimeChunk}s, sorted
+	 * @throws IOException when the file could not be read
+	 * @throws IllegalArgumentException when a block is corrupted
+	 */
+	public SimeTimerProject readTail(int count) throws IOException {
+		count = Math.max(0, Math.min(count, size));
+		List<Integer> touched = new ArrayList<>();
+		// the number of chunks of the first touched block before the tail
+		int skip = -count;
+		for (int i = counts.length - 1; skip < 0; i--) {
+			touched.add(0, i);
+			skip += counts[i];
+		}
+		SimeTimerProject result = new SimeTimerProject(count);
+		for (Block block : decode(touched)) {
+			block.appendTo(result, skip, null);
+			skip = 0;
+		}
+		return result;
+	}
+	
+	/**
+	 * appends the {@link TimeChunk}s of a range of blocks to a project, in order.
+	 * Decompresses up to a few blocks per thread of the pool ahead of the one
+	 * being appended, to keep the memory needed constant.
+	 * @param fromBlock the first block to read
+	 * @param toBlock the block after the last one to read
+	 * @param project the {@link SimeTimerProject} to append to, not shared yet
+	 * @param chunkAppended called after every appended {@link TimeChunk}, or null
+	 * @throws IOException when the file could not be read
+	 * @throws IllegalArgumentException when a block is corrupted
+	 */
+	void appendBlocks(int fromBlock, int toBlock, SimeTimerProject project, Runnable chunkAppended)
+			throws IOException {
+		int window = 4 * pool.getParallelism();
+		ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+		int next = fromBlock;
+		try {
+			while (next < toBlock || !pending.isEmpty()) {
+				while (next < toBlock && pending.size() < window) {
+					int block = next++;
+					pending.add(pool.submit(() -> decode(block)));
+				}
+				get(pending.remove()).appendTo(project, 0, chunkAppended);
+			}
+		} finally {
+			for (Future<Block> future : pending) {
+				future.cancel(false);
+			}
+		}
+	}
+	
+	/**
+	 * decompresses and decodes blocks in parallel
+	 * @param blocks the indexes of the blocks
+	 * @return the {@link Block}s, in the given order
+	 */
+	private List<Block> decode(List<Integer> blocks) throws IOException {
+		List<Callable<Block>> tasks = new ArrayList<>(blocks.size());
+		for (int block : blocks) {
+			tasks.add(() -> decode(block));
+		}
+		return invokeAll(pool, tasks);
+	}
+	
+	/**
+	 * decompresses and decodes a block
+	 * @param block the index of the block
+	 * @return the {@link Block}
+	 */
+	private Block decode(int block) throws IOException {
+		ByteBuffer compressed = readFully(ByteBuffer.allocate(compressedLengths[block]), offsets[block]);
+		// grown as the block inflates, so a corrupted length fails when the data runs out
+		// instead of allocating all of it up front
+		byte[] bytes = new byte[Math.min(lengths[block], Math.max(1 << 13, 4 * compressed.capacity()))];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array());
+			int length = 0;
+			while (!inflater.finished() && length < lengths[block]) {
+				if (length == bytes.length) {
+					bytes = Arrays.copyOf(bytes, (int) Math.min(lengths[block], 2L * bytes.length));
+				}
+				int inflated = inflater.inflate(bytes, length, bytes.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalArgumentException("Block compressed project file corrupted");
+				}
+				length += inflated;
+			}
+			if (length != lengths[block]) {
+				throw new IllegalArgumentException("Block compressed project file corrupted");
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Block compressed project file corrupted", e);
+		} finally {
+			inflater.end();
+		}
+		Block result = new Block(counts[block]);
+		try (DeltaCoder.Decoder input = new DeltaCoder.Decoder(new ByteArrayInputStream(bytes))) {
+			for (int i = 0; i < result.count; i++) {
+				if (!input.next()) {
+					throw new IllegalArgumentException("Block compressed project file corrupted");
+				}
+				result.startDates[i] = input.getStartDateMillis();
+				result.stoppedTimes[i] = input.getStoppedNanos();
+				result.comments[i] = input.getComment();
+			}
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("Block compressed project file corrupted", e);
+		}
+		return result;
+	}
+	
+	/**
+	 * reads the given buffer full from the given position
+	 * @param buffer the buffer to fill
+	 * @param position the position in the file
+	 * @return the buffer, flipped
+	 * @throws EOFException when the file ends before
+	 */
+	private ByteBuffer readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Block compressed project file ends within a block");
+			}
+			position += read;
+		}
+		return buffer.flip();
+	}
+	
+	/**
+	 * closes the underlying file
+	 * @throws IOException when the file could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	
+	
+	// WRITE
+	
+	/**
+	 * writes the given {@link SimeTimerProject} to the given file, compressing on the common {@link ForkJoinPool}
+	 * @param project the {@link SimeTimerProject} to write
+	 * @param file the {@link File} to write to
+	 * @throws IOException when the file could not be written
+	 */
+	public static void write(SimeTimerProject project, File file) throws IOException {
+		write(project, file, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * writes the given {@link SimeTimerProject} to the given file.
+	 * A project with {@link TimeChunk}s out of order is written sorted.
+	 * Blocks are compressed a few per thread of the pool at a time and written in order.
+	 * @param project the {@link SimeTimerProject} to write
+	 * @param file the {@link File} to write to
+	 * @param pool the {@link ForkJoinPool} to compress blocks on
+	 * @throws IOException when the file could not be written
+	 */
+	public static void write(SimeTimerProject project, File file, ForkJoinPool pool) throws IOException {
+		SimeTimerProject view = project.snapshot();
+		if (!view.isSorted()) {
+			view = view.copy();
+			view.sortTimes();
+		}
+		SimeTimerProject chunks = view;
+		int blockCount = (chunks.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ByteBuffer index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+		try (FileChannel output = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(SaveManager.FILE_FORMAT_BLOCK);
+			header.putInt(VERSION);
+			long position = writeFully(output, header.flip(), 0);
+			int window = 4 * pool.getParallelism();
+			for (int from = 0; from < blockCount; from += window) {
+				List<Callable<EncodedBlock>> tasks = new ArrayList<>();
+				for (int block = from; block < Math.min(blockCount, from + window); block++) {
+					int fromIndex = block * BLOCK_SIZE;
+					int toIndex = Math.min(chunks.size(), fromIndex + BLOCK_SIZE);
+					tasks.add(() -> encode(chunks, fromIndex, toIndex));
+				}
+				int block = from;
+				for (EncodedBlock encoded : invokeAll(pool, tasks)) {
+					int fromIndex = block * BLOCK_SIZE;
+					int toIndex = Math.min(chunks.size(), fromIndex + BLOCK_SIZE);
+					long lastEndDate = Long.MIN_VALUE;
+					for (int i = fromIndex; i < toIndex; i++) {
+						lastEndDate = Math.max(lastEndDate, endDate(chunks.getStartDateMillis(i), chunks.getStoppedNanos(i)));
+					}
+					index.putLong(chunks.getStartDateMillis(fromIndex));
+					index.putLong(lastEndDate);
+					index.putLong(position);
+					index.putInt(encoded.compressed.length);
+					index.putInt(encoded.length);
+					index.putInt(toIndex - fromIndex);
+					position = writeFully(output, ByteBuffer.wrap(encoded.compressed), position);
+					block++;
+				}
+			}
+			index.putLong(position);
+			index.putInt(blockCount);
+			index.putInt(SaveManager.FILE_FORMAT_BLOCK);
+			writeFully(output, index.flip(), position);
+		}
+	}
+	
+	/**
+	 * codes and compresses a block
+	 * @param project the {@link SimeTimerProject} to take the {@link TimeChunk}s from
+	 * @param fromIndex the index of the first {@link TimeChunk} of the block
+	 * @param toIndex the index after the last {@link TimeChunk} of the block
+	 * @return the {@link EncodedBlock}
+	 */
+	private static EncodedBlock encode(SimeTimerProject project, int fromIndex, int toIndex) throws IOException {
+		ByteArrayOutputStream coded = new ByteArrayOutputStream();
+		try (DeltaCoder.Encoder output = new DeltaCoder.Encoder(coded)) {
+			for (int i = fromIndex; i < toIndex; i++) {
+				output.write(project.getStartDateMillis(i), project.getStoppedNanos(i), project.getComment(i));
+			}
+		}
+		byte[] bytes = coded.toByteArray();
+		Deflater deflater = new Deflater();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte[] buffer = new byte[1 << 13];
+			while (!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} finally {
+			deflater.end();
+		}
+		return new EncodedBlock(compressed.toByteArray(), bytes.length);
+	}
+	
+	/**
+	 * returns the end date of a {@link TimeChunk}, rounded up to the next millisecond
+	 * @param startDateMillis the start date in milliseconds
+	 * @param stoppedNanos the stopped time in nanoseconds
+	 * @return the end date in milliseconds, at least the start date
+	 */
+	private static long endDate(long startDateMillis, long stoppedNanos) {
+		long millis = Math.max(0, (stoppedNanos + TimeChunk.NANOS_PER_MILLI - 1) / TimeChunk.NANOS_PER_MILLI);
+		return startDateMillis > Long.MAX_VALUE - millis ? Long.MAX_VALUE : startDateMillis + millis;
+	}
+	
+	/**
+	 * writes the remaining content of the given buffer to the given position
+	 * @param output the channel to write to
+	 * @param buffer the buffer to write
+	 * @param position the position in the file
+	 * @return the position after the written bytes
+	 * @throws IOException when writing failed
+	 */
+	private static long writeFully(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += output.write(buffer, position);
+		}
+		return position;
+	}
+	
+	
+	
+	/**
+	 * runs tasks on a pool and waits for all of them
+	 * @param pool the {@link ForkJoinPool} to run the tasks on
+	 * @param tasks the tasks
+	 * @return their results, in the order of the tasks
+	 * @throws IOException the first exception a task has thrown, in the order of the tasks
+	 */
+	private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+		List<T> result = new ArrayList<>(tasks.size());
+		for (Future<T> future : pool.invokeAll(tasks)) {
+			result.add(get(future));
+		}
+		return result;
+	}
+	
+	/**
+	 * waits for a task and returns its result
+	 * @param future the {@link Future} of the task
+	 * @return the result
+	 * @throws IOException the exception the task has thrown
+	 */
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// the pool rethrows copies with the original exception as cause
+			if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+	
+	/**
+	 * a compressed block, ready to be written
+	 */
+	private static class EncodedBlock {
+		private final byte[] compressed;
+		/**
+		 * the length of the block before compression
+		 */
+		private final int length;
+		
+		EncodedBlock(byte[] compressed, int length) {
+			this.compressed = compressed;
+			this.length = length;
+		}
+	}
+	
+	/**
+	 * the decoded {@link TimeChunk}s of a block
+	 */
+	private static class Block {
+		private final int count;
+		private final long[] startDates;
+		private final long[] stoppedTimes;
+		private final String[] comments;
+		
+		Block(int count) {
+			this.count = count;
+			startDates = new long[count];
+			stoppedTimes = new long[count];
+			comments = new String[count];
+		}
+		
+		/**
+		 * appends the {@link TimeChunk}s from the given one on to a project
+		 * @param project the {@link SimeTimerProject} to append to
+		 * @param fromIndex the index of the first {@link TimeChunk} to append
+		 * @param chunkAppended called after every appended {@link TimeChunk}, or null
+		 */
+		void appendTo(SimeTimerProject project, int fromIndex, Runnable chunkAppended) {
+			for (int i = fromIndex; i < count; i++) {
+				project.appendTimeChunk(startDates[i], stoppedTimes[i], comments[i]);
+				if (chunkAppended != null) {
+					chunkAppended.run();
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+
+/**
+ * Totals the time of a {@link SimeTimerProject} by day, ISO week and month in a given time zone.
+ * {@link TimeChunk}s running over midnight are split between the days they touch,
+ * taking daylight saving time changes into account.
+ * <p>
+ * Only daily totals are kept, weeks and months are summed up from them when asked for,
+ * which takes time linear in the number of days, not chunks.
+ * A new project is counted once, in parallel on a {@link ForkJoinPool} and in the background,
+ * so replacing the project never blocks the caller. Its totals are empty until the count is done.
+ * After that, {@link #chunksAdded(SimeTimerProject, int, int)}, called from the
+ * {@link TimerEngine.Listener} added by {@link #follow(TimerEngine)}, keeps the totals
+ * up to date: appended chunks are simply added, while for chunks inserted in between
+ * only the days from the first inserted one on are counted again, with a date range
+ * query of the project.
+ * All methods can be called from any thread.
+ *
+ * @author Simon Vetter
+ */
+public class CalendarRollup {
+	
+	/**
+	 * the periods totals are available for
+	 */
+	public enum Period {
+		DAY,
+		/**
+		 * ISO week, from Monday to Sunday
+		 */
+		WEEK,
+		MONTH
+	}
+	
+	/**
+	 * the number of {@link TimeChunk}s below which counting isn't split up any further
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 16;
+	
+	private final ZoneId zone;
+	private final ForkJoinPool pool;
+	
+	/**
+	 * the counted project, null before the first one
+	 */
+	private SimeTimerProject project;
+	/**
+	 * the number of the project's {@link TimeChunk}s contained in the totals
+	 */
+	private int counted;
+	/**
+	 * the total time per day in nanoseconds, by epoch day
+	 */
+	private TreeMap<Long, Long> days;
+	/**
+	 * the view of the project being counted in the background, null while none is
+	 */
+	private SimeTimerProject counting;
+	/**
+	 * the index of the first {@link TimeChunk} added to the project while it is counted
+	 */
+	private int firstAdded;
+	
+	
+	
+	/**
+	 * constructor. Counts on the common {@link ForkJoinPool}.
+	 * @param zone the time zone whose days to count in
+	 */
+	public CalendarRollup(ZoneId zone) {
+		this(zone, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * constructor
+	 * @param zone the time zone whose days to count in
+	 * @param pool the {@link ForkJoinPool} to count new projects on
+	 */
+	public CalendarRollup(ZoneId zone, ForkJoinPool pool) {
+		this.zone = zone;
+		this.pool = pool;
+		project = null;
+		counted = 0;
+		days = new TreeMap<>();
+		counting = null;
+	}
+	
+	/**
+	 * returns the time zone the days are counted in
+	 * @return the {@link ZoneId}
+	 */
+	public ZoneId getZone() {
+		return zone;
+	}
+	
+	
+	
+	// COUNTING
+	
+	/**
+	 * counts the engine's current project and follows the engine from now on:
+	 * added {@link TimeChunk}s are counted as they come, a replaced project from scratch.
+	 * To be called on the engine's thread.
+	 * @param engine the {@link TimerEngine} to follow
+	 */
+	public void follow(TimerEngine engine) {
+		setProject(engine.getProject());
+		engine.addListener(new TimerEngine.Listener() {
+			@Override
+			public void runningChanged(boolean running) {}
+			@Override
+			public void chunksAdded(int fromIndex, int toIndex) {
+				CalendarRollup.this.chunksAdded(engine.getProject(), fromIndex, toIndex);
+			}
+			@Override
+			public void commentChanged(int index) {}
+			@Override
+			public void projectReplaced(SimeTimerProject project) {
+				setProject(project);
+			}
+		});
+	}
+	
+	/**
+	 * starts counting a new project from scratch, in parallel in the background.
+	 * The totals are empty until the count is done.
+	 * @param project the {@link SimeTimerProject} to count
+	 */
+	public synchronized void setProject(SimeTimerProject project) {
+		SimeTimerProject view = project.snapshot();
+		this.project = project;
+		counted = 0;
+		days = new TreeMap<>();
+		counting = view;
+		firstAdded = view.size();
+		pool.execute(() -> counted(project, view, new CountTask(view, 0, view.size()).invoke()));
+	}
+	
+	/**
+	 * takes over the totals of a counted project, unless another one has been set in the meantime,
+	 * and adds the {@link TimeChunk}s added to it while it was counted
+	 * @param project the counted {@link SimeTimerProject}
+	 * @param view the counted view of it
+	 * @param totals the total time per day in nanoseconds, by epoch day
+	 */
+	private synchronized void counted(SimeTimerProject project, SimeTimerProject view, Map<Long, Long> totals) {
+		if (view != counting) {
+			return;
+		}
+		counting = null;
+		days = new TreeMap<>(totals);
+		counted = view.size();
+		notifyAll();
+		int size = project.size();
+		if (firstAdded < counted || size > counted) {
+			chunksAdded(project, firstAdded, size);
+		}
+	}
+	
+	/**
+	 * waits until the project is counted, see {@link #setProject(SimeTimerProject)}
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	synchronized void awaitCount() throws InterruptedException {
+		while (counting != null) {
+			wait();
+		}
+	}
+	
+	/**
+	 * updates the totals to {@link TimeChunk}s added to the project, see {@link TimerEngine.Listener#chunksAdded(int, int)}.
+	 * A project other than the counted one is counted from scratch.
+	 * @param project the project the {@link TimeChunk}s have been added to
+	 * @param fromIndex the index the first new {@link TimeChunk} has been stored at
+	 * @param toIndex fromIndex plus the number of new {@link TimeChunk}s
+	 */
+	public synchronized void chunksAdded(SimeTimerProject project, int fromIndex, int toIndex) {
+		SimeTimerProject view = project.snapshot();
+		if (project != this.project || !view.isSorted()) {
+			setProject(project);
+			return;
+		}
+		if (counting != null) {
+			// added once the count is done
+			firstAdded = Math.min(firstAdded, fromIndex);
+			return;
+		}
+		if (fromIndex == counted && toIndex == view.size()) {
+			// appended
+			DaySplitter splitter = new DaySplitter(days);
+			for (int i = fromIndex; i < toIndex; i++) {
+				splitter.add(view.getStartDateMillis(i), view.getStoppedNanos(i));
+			}
+			splitter.flush();
+		} else if (fromIndex < view.size()) {
+			// inserted in between, count the days from the first changed chunk on again
+			LocalDate firstDay = toDate(view.getStartDateMillis(fromIndex));
+			long firstMillis = firstDay.atStartOfDay(zone).toInstant().toEpochMilli();
+			days.tailMap(firstDay.toEpochDay(), true).clear();
+			DaySplitter splitter = new DaySplitter(days);
+			view.forEachInRange(firstMillis, Long.MAX_VALUE, (index, startDateMillis, nanosInRange) ->
+					splitter.add(Math.max(startDateMillis, firstMillis), nanosInRange));
+			splitter.flush();
+		}
+		counted = view.size();
+	}
+	
+	/**
+	 * returns the date of an instant in the counted time zone
+	 * @param millis the instant in milliseconds
+	 * @return the {@link LocalDate}
+	 */
+	private LocalDate toDate(long millis) {
+		return Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+	}
+	
+	
+	
+	// TOTALS
+	
+	/**
+	 * returns the totals of all periods with time in them
+	 * @param period the {@link Period} to total by
+	 * @return the total time in nanoseconds by the first day of each period, in order
+	 */
+	public synchronized SortedMap<LocalDate, Long> getTotals(Period period) {
+		SortedMap<LocalDate, Long> result = new TreeMap<>();
+		for (Map.Entry<Long, Long> day : days.entrySet()) {
+			result.merge(periodStart(LocalDate.ofEpochDay(day.getKey()), period), day.getValue(), Long::sum);
+		}
+		return result;
+	}
+	
+	/**
+	 * returns the total of a single period
+	 * @param date any day of the period
+	 * @param period the {@link Period} to total
+	 * @return the total time in nanoseconds
+	 */
+	public synchronized long getTotalNanos(LocalDate date, Period period) {
+		LocalDate start = periodStart(date, period);
+		LocalDate end = period == Period.DAY ? start.plusDays(1)
+				: period == Period.WEEK ? start.plusWeeks(1) : start.plusMonths(1);
+		long result = 0;
+		for (long nanos : days.subMap(start.toEpochDay(), end.toEpochDay()).values()) {
+			result += nanos;
+		}
+		return result;
+	}
+	
+	/**
+	 * returns the first day of the period containing the given date
+	 * @param date the date
+	 * @param period the {@link Period}
+	 * @return the first day of the period
+	 */
+	private static LocalDate periodStart(LocalDate date, Period period) {
+		switch (period) {
+			case WEEK:
+				return date.with(DayOfWeek.MONDAY);
+			case MONTH:
+				return date.withDayOfMonth(1);
+			default:
+				return date;
+		}
+	}
+	
+	
+	
+	/**
+	 * counts a range of {@link TimeChunk}s, split in halves which are counted in parallel
+	 * until they are below {@link #PARALLEL_THRESHOLD}
+	 */
+	private class CountTask extends RecursiveTask<Map<Long, Long>> {
+		private static final long serialVersionUID = 1L;
+		private final SimeTimerProject view;
+		private final int fromIndex;
+		private final int toIndex;
+		
+		CountTask(SimeTimerProject view, int fromIndex, int toIndex) {
+			this.view = view;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+		
+		@Override
+		protected Map<Long, Long> compute() {
+			if (toIndex - fromIndex <= PARALLEL_THRESHOLD) {
+				Map<Long, Long> result = new HashMap<>();
+				DaySplitter splitter = new DaySplitter(result);
+				for (int i = fromIndex; i < toIndex; i++) {
+					splitter.add(view.getStartDateMillis(i), view.getStoppedNanos(i));
+				}
+				splitter.flush();
+				return result;
+			}
+			int middle = (fromIndex + toIndex) >>> 1;
+			CountTask second = new CountTask(view, middle, toIndex);
+			second.fork();
+			Map<Long, Long> result = new CountTask(view, fromIndex, middle).compute();
+			Map<Long, Long> other = second.join();
+			// merge the smaller one into the larger one
+			if (other.size() > result.size()) {
+				Map<Long, Long> swap = result;
+				result = other;
+				other = swap;
+			}
+			for (Map.Entry<Long, Long> day : other.entrySet()) {
+				result.merge(day.getKey(), day.getValue(), Long::sum);
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * splits {@link TimeChunk}s at midnight and adds the parts to daily totals.
+	 * Remembers the bounds of the last day, so chunks following each other
+	 * within a day cost no time zone calculations.
+	 */
+	private class DaySplitter {
+		private final Map<Long, Long> totals;
+		private long epochDay;
+		/**
+		 * the bounds of the remembered day in milliseconds, empty at first
+		 */
+		private long dayStartMillis = Long.MAX_VALUE;
+		private long dayEndMillis = Long.MIN_VALUE;
+		/**
+		 * the time added to the remembered day, not yet in the totals
+		 */
+		private long dayNanos = 0;
+		
+		DaySplitter(Map<Long, Long> totals) {
+			this.totals = totals;
+		}
+		
+		/**
+		 * adds a {@link TimeChunk}, split between the days it touches
+		 * @param startDateMillis the start date in milliseconds
+		 * @param stoppedNanos the stopped time in nanoseconds
+		 */
+		void add(long startDateMillis, long stoppedNanos) {
+			long millis = startDateMillis;
+			// the part of the chunk added so far
+			long offset = 0;
+			while (offset < stoppedNanos) {
+				if (millis < dayStartMillis || millis >= dayEndMillis) {
+					enterDay(millis);
+				}
+				long end = Math.min(stoppedNanos, (dayEndMillis - startDateMillis) * TimeChunk.NANOS_PER_MILLI);
+				dayNanos += end - offset;
+				offset = end;
+				millis = dayEndMillis;
+			}
+		}
+		
+		/**
+		 * moves on to the day containing the given instant, adding the time of the remembered one to the totals
+		 * @param millis the instant in milliseconds
+		 */
+		private void enterDay(long millis) {
+			flush();
+			LocalDate date = toDate(millis);
+			epochDay = date.toEpochDay();
+			dayStartMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+			dayEndMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+		}
+		
+		/**
+		 * adds the time of the remembered day to the totals
+		 */
+		void flush() {
+			if (dayNanos > 0) {
+				totals.merge(epochDay, dayNanos, Long::sum);
+				dayNanos = 0;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+
+/**
+ * Records {@link TimeChunk}s measured by many threads at once into the project of
+ * a {@link TimerEngine}. Producers only put their chunks into a {@link ChunkRing}.
+ * A single consumer thread drains the ring in batches, sorts each batch by start date
+ * and hands it to the owner thread of the engine, which adds it to the project and
+ * autosaves it as a whole, in a single journal write where possible.
+ * Only one batch is handed over at a time, the ring fills up in the meantime,
+ * so a slow owner thread leads to larger batches instead of a growing backlog.
+ *
+ * @author Simon Vetter
+ */
+public class ChunkRecorder implements Closeable {
+	
+	/**
+	 * how the consumer thread waits for chunks while the ring is empty
+	 */
+	public enum WaitStrategy {
+		/**
+		 * keeps a core busy polling, for the lowest latency
+		 */
+		BUSY_SPIN,
+		/**
+		 * yields to other threads between polls
+		 */
+		YIELD,
+		/**
+		 * sleeps for the configured park time between polls, for the least CPU use
+		 */
+		PARK
+	}
+	
+	/**
+	 * what a producer does when the ring is full
+	 */
+	public enum Backpressure {
+		/**
+		 * waits until the consumer has freed a slot, spinning first, then yielding, then parking
+		 */
+		BLOCK,
+		/**
+		 * drops the chunk and counts it, see {@link #getDroppedCount()}
+		 */
+		DROP
+	}
+	
+	/**
+	 * default number of slots in the ring
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	/**
+	 * default most chunks handed to the owner thread at once
+	 */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1 << 12;
+	/**
+	 * default time the consumer sleeps with {@link WaitStrategy#PARK}, in nanoseconds
+	 */
+	public static final long DEFAULT_PARK_NANOS = 100_000;
+	
+	/**
+	 * spins of a blocked producer before it starts yielding, and then parking
+	 */
+	private static final int PRODUCER_SPINS = 100;
+	private static final int PRODUCER_YIELDS = 200;
+	private static final long PRODUCER_PARK_NANOS = 10_000;
+	
+	private final TimerEngine engine;
+	private final TimerClock clock;
+	private final Executor ownerExecutor;
+	private final ChunkRing ring;
+	private final WaitStrategy waitStrategy;
+	private final Backpressure backpressure;
+	private final int maxBatchSize;
+	private final long parkNanos;
+	private final Thread consumer;
+	
+	/**
+	 * the running start of every producer thread using {@link #cut(String)}
+	 */
+	private final ThreadLocal<long[]> cutStart = ThreadLocal.withInitial(() -> new long[] {Long.MIN_VALUE});
+	private final LongAdder droppedCount = new LongAdder();
+	/**
+	 * true while a batch has been handed to the owner thread and not been added yet
+	 */
+	private volatile boolean batchPending;
+	private volatile boolean closed;
+	
+	
+	
+	/**
+	 * constructor with default capacity, batch size and park time
+	 * @param engine the {@link TimerEngine} to record into
+	 * @param ownerExecutor runs tasks on the owner thread of the engine
+	 * @param waitStrategy how the consumer waits for chunks
+	 * @param backpressure what producers do when the ring is full
+	 */
+	public ChunkRecorder(TimerEngine engine, Executor ownerExecutor,
+			WaitStrategy waitStrategy, Backpressure backpressure) {
+		this(engine, ownerExecutor, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE, waitStrategy, DEFAULT_PARK_NANOS, backpressure);
+	}
+	
+	/**
+	 * constructor. Starts the consumer thread right away.
+	 * @param engine the {@link TimerEngine} to record into
+	 * @param ownerExecutor runs tasks on the owner thread of the engine
+	 * @param capacity the number of slots in the ring, rounded up to a power of two
+	 * @param maxBatchSize the most chunks handed to the owner thread at once
+	 * @param waitStrategy how the consumer waits for chunks
+	 * @param parkNanos how long the consumer sleeps with {@link WaitStrategy#PARK}
+	 * @param backpressure what producers do when the ring is full
+	 */
+	public ChunkRecorder(TimerEngine engine, Executor ownerExecutor, int capacity, int maxBatchSize,
+			WaitStrategy waitStrategy, long parkNanos, Backpressure backpressure) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+		}
+		this.engine = engine;
+		this.clock = engine.getClock();
+		this.ownerExecutor = ownerExecutor;
+		this.ring = new ChunkRing(capacity);
+		this.waitStrategy = waitStrategy;
+		this.backpressure = backpressure;
+		this.maxBatchSize = maxBatchSize;
+		this.parkNanos = parkNanos;
+		batchPending = false;
+		closed = false;
+		consumer = new Thread(this::consume, "SimeTimer chunk recorder");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+	
+	
+	
+	// PRODUCERS
+	
+	/**
+	 * returns the current reading of the engine's clock, to measure chunks with
+	 * @return the current reading in nanoseconds
+	 */
+	public long nanoTime() {
+		return clock.nanoTime();
+	}
+	
+	/**
+	 * records a {@link TimeChunk} measured by the calling thread. Can be called from any thread.
+	 * @param startNanos the clock reading at which the chunk started, see {@link #nanoTime()}
+	 * @param endNanos the clock reading at which the chunk ended
+	 * @param comment the comment for the chunk
+	 * @return true if the chunk will be recorded, false if it has been dropped
+	 * 				 or the recorder is closed
+	 */
+	public boolean record(long startNanos, long endNanos, String comment) {
+		long stoppedNanos = Math.max(endNanos - startNanos, 0);
+		for (int attempt = 0; !closed; attempt++) {
+			if (ring.offer(startNanos, stoppedNanos, comment)) {
+				return true;
+			}
+			if (backpressure == Backpressure.DROP) {
+				droppedCount.increment();
+				return false;
+			}
+			if (attempt < PRODUCER_SPINS) {
+				Thread.onSpinWait();
+			} else if (attempt < PRODUCER_SPINS + PRODUCER_YIELDS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * ends the calling thread's running chunk now and starts its next one, so the cuts
+	 * of every thread divide its own time. The first cut of a thread only starts measuring.
+	 * Can be called from any thread.
+	 * @param comment the comment for the ended chunk
+	 * @return true if a chunk will be recorded, false for a thread's first cut,
+	 * 				 a dropped chunk or a closed recorder
+	 */
+	public boolean cut(String comment) {
+		long now = clock.nanoTime();
+		long[] start = cutStart.get();
+		long previous = start[0];
+		start[0] = now;
+		return previous != Long.MIN_VALUE && record(previous, now, comment);
+	}
+	
+	/**
+	 * returns the number of chunks dropped because the ring was full
+	 * @return the number of dropped chunks
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+	
+	/**
+	 * stops accepting chunks and waits until the consumer has handed the remaining ones
+	 * to the owner thread. They are added to the project once the owner thread gets to them.
+	 * Producers blocked on a full ring give up, chunks recorded while closing may be lost.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	
+	// CONSUMER THREAD
+	
+	/**
+	 * drains the ring until the recorder is closed and the ring is empty
+	 */
+	private void consume() {
+		while (true) {
+			boolean closing = closed;
+			// the last batch is handed over without waiting, close() may be called on the owner thread
+			if (ring.size() == 0 || batchPending && !closing) {
+				if (closing) {
+					return;
+				}
+				idle();
+				continue;
+			}
+			int count = closing ? ring.size() : Math.min(ring.size(), maxBatchSize);
+			SimeTimerProject batch = new SimeTimerProject(count);
+			if (ring.drainTo(batch, clock, count) == 0) {
+				// the next chunk has been claimed but not published yet
+				idle();
+				continue;
+			}
+			batch.sortTimes();
+			batchPending = true;
+			ownerExecutor.execute(() -> {
+				engine.addTimeChunks(batch);
+				batchPending = false;
+			});
+		}
+	}
+	
+	/**
+	 * waits a moment according to the {@link WaitStrategy}
+	 */
+	private void idle() {
+		switch (waitStrategy) {
+			case BUSY_SPIN:
+				Thread.onSpinWait();
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			case PARK:
+				LockSupport.parkNanos(parkNanos);
+				break;
+		}
+	}
+	
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+/**
+ * A bounded, lock-free ring of measured {@link TimeChunk}s, written by any number of
+ * threads and read by a single one. The slots are allocated once, column by column
+ * like in the {@link SimeTimerProject}, so offering a chunk allocates nothing.
+ * <p>
+ * Every slot carries a sequence number telling whose turn it is: a producer claims
+ * the next position with a compare-and-set on the tail, fills the slot and then
+ * publishes it by advancing the slot's sequence, which the consumer waits for.
+ * Once the consumer has read a slot, it advances the sequence by one lap to
+ * hand it back to the producers. A full ring is detected from the slot alone,
+ * producers never read the consumer's position.
+ *
+ * @author Simon Vetter
+ */
+public class ChunkRing {
+	
+	private final int mask;
+	/**
+	 * per slot: its position while free for producers, position + 1 once published
+	 */
+	private final AtomicLongArray sequences;
+	// slot columns, only accessed by the thread the slot's sequence hands it to
+	private final long[] startNanos;
+	private final long[] stoppedNanos;
+	private final String[] comments;
+	
+	/**
+	 * the next position to be claimed by a producer
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * the next position to be read, only written by the consumer
+	 */
+	private volatile long head;
+	
+	
+	
+	/**
+	 * constructor
+	 * @param capacity the number of slots, rounded up to the next power of two
+	 */
+	public ChunkRing(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		int slots = Integer.highestOneBit(capacity);
+		if (slots < capacity) {
+			slots <<= 1;
+		}
+		mask = slots - 1;
+		sequences = new AtomicLongArray(slots);
+		for (int i = 0; i < slots; i++) {
+			sequences.set(i, i);
+		}
+		startNanos = new long[slots];
+		stoppedNanos = new long[slots];
+		comments = new String[slots];
+		head = 0;
+	}
+	
+	/**
+	 * returns the number of slots
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+	
+	/**
+	 * returns the number of chunks offered but not taken yet. Only a snapshot
+	 * while producers are active, exact on the consumer thread as a lower bound.
+	 * @return the number of waiting chunks
+	 */
+	public int size() {
+		long size = tail.get() - head;
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+	
+	
+	
+	// PRODUCERS
+	
+	/**
+	 * puts a measured {@link TimeChunk} into the ring, if there is a free slot.
+	 * Can be called from any thread.
+	 * @param startNanos the clock reading at which the {@link TimeChunk} started
+	 * @param stoppedNanos the stopped time in nanoseconds
+	 * @param comment the comment
+	 * @return true if the chunk has been put, false if the ring is full
+	 */
+	public boolean offer(long startNanos, long stoppedNanos, String comment) {
+		long position = tail.get();
+		int slot;
+		while (true) {
+			slot = (int) position & mask;
+			long difference = sequences.getAcquire(slot) - position;
+			if (difference == 0) {
+				if (tail.weakCompareAndSetVolatile(position, position + 1)) {
+					break;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				// the slot still holds the chunk from one lap ago
+				return false;
+			} else {
+				// another producer claimed this position first
+				position = tail.get();
+			}
+		}
+		this.startNanos[slot] = startNanos;
+		this.stoppedNanos[slot] = stoppedNanos;
+		comments[slot] = comment;
+		sequences.setRelease(slot, position + 1);
+		return true;
+	}
+	
+	
+	
+	// CONSUMER
+	
+	/**
+	 * takes up to the given number of published chunks out of the ring, in the order
+	 * their positions were claimed. Stops early at a slot which has been claimed
+	 * but not published yet. Must only be called from one thread at a time.
+	 * @param project the {@link SimeTimerProject} to append the chunks to
+	 * @param clock the {@link TimerClock} the start readings were taken with
+	 * @param maxCount the most chunks to take
+	 * @return the number of chunks taken
+	 */
+	public int drainTo(SimeTimerProject project, TimerClock clock, int maxCount) {
+		long position = head;
+		int count = 0;
+		while (count < maxCount) {
+			int slot = (int) position & mask;
+			if (sequences.getAcquire(slot) != position + 1) {
+				break;
+			}
+			project.appendTimeChunk(clock.toEpochMillis(startNanos[slot]), stoppedNanos[slot], comments[slot]);
+			comments[slot] = null;
+			sequences.setRelease(slot, position + mask + 1);
+			position++;
+			count++;
+		}
+		head = position;
+		return count;
+	}
+	
+}
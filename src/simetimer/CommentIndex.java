@@ -0,0 +1,581 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+
+/**
+ * An inverted index over the comments of a {@link SimeTimerProject}: for every token,
+ * the sorted indices of the {@link TimeChunk}s whose comment contains it.
+ * Comments are split into lower case tokens of letters and digits, which may contain
+ * the joining characters {@value #JOINERS} in between, so ticket IDs like {@code ABC-123}
+ * stay whole.
+ * <p>
+ * Queries are made of terms, a term ending with {@code *} matching every token starting
+ * with it. Terms separated by spaces must all match, groups of terms separated by
+ * {@code OR} are alternatives, like {@code abc-12* review OR meeting}.
+ * <p>
+ * A new project is indexed in parallel on a {@link ForkJoinPool} and in the background,
+ * so replacing the project never blocks the caller. Nothing is found in it until it is indexed.
+ * After that, the index
+ * follows the project: {@link #chunksAdded(SimeTimerProject, int, int)}, called from the
+ * {@link TimerEngine.Listener} added by {@link #follow(TimerEngine)}, adds new chunks,
+ * and as the index listens to the project's
+ * comments, comments set anywhere, in the table or through a {@link TimeChunk}, are
+ * indexed again right away.
+ * All methods can be called from any thread.
+ *
+ * @author Simon Vetter
+ */
+public class CommentIndex implements SimeTimerProject.CommentListener {
+	
+	/**
+	 * the characters which are part of a token when between letters or digits
+	 */
+	public static final String JOINERS = "-_#./";
+	/**
+	 * separates alternative groups of terms in a query
+	 */
+	public static final String OR = "OR";
+	/**
+	 * marks a term as a prefix
+	 */
+	public static final char PREFIX = '*';
+	
+	/**
+	 * the number of {@link TimeChunk}s below which indexing isn't split up any further
+	 */
+	static final int PARALLEL_THRESHOLD = 1 << 16;
+	
+	private final ForkJoinPool pool;
+	
+	/**
+	 * the indexed project, null before the first one
+	 */
+	private SimeTimerProject project;
+	/**
+	 * the number of the project's {@link TimeChunk}s contained in the index
+	 */
+	private int indexed;
+	/**
+	 * the postings of every token, sorted by token for prefix queries
+	 */
+	private TreeMap<String, Postings> postings;
+	/**
+	 * the view of the project being indexed in the background, null while none is
+	 */
+	private SimeTimerProject indexing;
+	/**
+	 * the index of the first {@link TimeChunk} added to the project while it is indexed
+	 */
+	private int firstAdded;
+	/**
+	 * the indices of the {@link TimeChunk}s whose comment has been set while the project is indexed
+	 */
+	private BitSet changedWhileIndexing;
+	
+	
+	
+	/**
+	 * constructor. Indexes on the common {@link ForkJoinPool}.
+	 */
+	public CommentIndex() {
+		this(ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * constructor
+	 * @param pool the {@link ForkJoinPool} to index new projects on
+	 */
+	public CommentIndex(ForkJoinPool pool) {
+		this.pool = pool;
+		project = null;
+		indexed = 0;
+		postings = new TreeMap<>();
+		indexing = null;
+	}
+	
+	
+	
+	// INDEXING
+	
+	/**
+	 * indexes the engine's current project and follows the engine from now on: added
+	 * {@link TimeChunk}s are indexed as they come, a replaced project from scratch.
+	 * The chunks shown while a project is loaded in the background are not indexed,
+	 * the loaded project is once it replaces them.
+	 * To be called on the engine's thread.
+	 * @param engine the {@link TimerEngine} to follow
+	 */
+	public void follow(TimerEngine engine) {
+		setProject(engine.getProject());
+		engine.addListener(new TimerEngine.Listener() {
+			@Override
+			public void runningChanged(boolean running) {}
+			@Override
+			public void chunksAdded(int fromIndex, int toIndex) {
+				if (!engine.isLoading()) {
+					CommentIndex.this.chunksAdded(engine.getProject(), fromIndex, toIndex);
+				}
+			}
+			@Override
+			public void commentChanged(int index) {}
+			@Override
+			public void projectReplaced(SimeTimerProject project) {
+				setProject(project);
+			}
+		});
+	}
+	
+	/**
+	 * starts indexing a new project from scratch, in parallel in the background,
+	 * and follows its comments from now on. Nothing is found until it is indexed.
+	 * @param project the {@link SimeTimerProject} to index
+	 */
+	public synchronized void setProject(SimeTimerProject project) {
+		if (this.project != null && this.project != project) {
+			this.project.setCommentListener(null);
+		}
+		project.setCommentListener(this);
+		SimeTimerProject view = project.snapshot();
+		this.project = project;
+		indexed = 0;
+		postings = new TreeMap<>();
+		indexing = view;
+		firstAdded = view.size();
+		changedWhileIndexing = new BitSet();
+		pool.execute(() -> indexed(project, view, new IndexTask(view, 0, view.size()).invoke()));
+	}
+	
+	/**
+	 * takes over the postings of an indexed project, unless another one has been set in the meantime,
+	 * and indexes the {@link TimeChunk}s added to it and the comments set while it was indexed
+	 * @param project the indexed {@link SimeTimerProject}
+	 * @param view the indexed view of it
+	 * @param tokens the postings of every token
+	 */
+	private synchronized void indexed(SimeTimerProject project, SimeTimerProject view, Map<String, Postings> tokens) {
+		if (view != indexing) {
+			return;
+		}
+		indexing = null;
+		postings = new TreeMap<>(tokens);
+		indexed = view.size();
+		notifyAll();
+		int size = project.size();
+		if (firstAdded < indexed || size > indexed) {
+			chunksAdded(project, firstAdded, size);
+		}
+		// the chunks from the first added one on have just been indexed with their current comments
+		BitSet changed = changedWhileIndexing;
+		changedWhileIndexing = null;
+		for (int index = changed.nextSetBit(0); index >= 0 && index < firstAdded; index = changed.nextSetBit(index + 1)) {
+			commentChanged(index);
+		}
+	}
+	
+	/**
+	 * waits until the project is indexed, see {@link #setProject(SimeTimerProject)}
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	synchronized void awaitIndex() throws InterruptedException {
+		while (indexing != null) {
+			wait();
+		}
+	}
+	
+	/**
+	 * adds {@link TimeChunk}s added to the project to the index, see {@link TimerEngine.Listener#chunksAdded(int, int)}.
+	 * Chunks inserted in between move all following ones, which are indexed again.
+	 * A project other than the indexed one is indexed from scratch.
+	 * @param project the project the {@link TimeChunk}s have been added to
+	 * @param fromIndex the index the first new {@link TimeChunk} has been stored at
+	 * @param toIndex fromIndex plus the number of new {@link TimeChunk}s
+	 */
+	public synchronized void chunksAdded(SimeTimerProject project, int fromIndex, int toIndex) {
+		if (project != this.project) {
+			setProject(project);
+			return;
+		}
+		if (indexing != null) {
+			// indexed once the project is
+			firstAdded = Math.min(firstAdded, fromIndex);
+			return;
+		}
+		SimeTimerProject view = project.snapshot();
+		if (fromIndex < indexed) {
+			// inserted in between, the following chunks have moved
+			Iterator<Postings> iterator = postings.values().iterator();
+			while (iterator.hasNext()) {
+				Postings tokenPostings = iterator.next();
+				tokenPostings.truncate(fromIndex);
+				if (tokenPostings.size == 0) {
+					iterator.remove();
+				}
+			}
+			indexed = fromIndex;
+		}
+		Tokenizer tokenizer = new Tokenizer();
+		for (int i = indexed; i < view.size(); i++) {
+			for (String token : tokenizer.tokens(view.getComment(i))) {
+				postings.computeIfAbsent(token, t -> new Postings()).add(i);
+			}
+		}
+		indexed = view.size();
+	}
+	
+	/**
+	 * indexes a changed comment again. Called by the project.
+	 * @param index the index of the {@link TimeChunk} whose comment has been set
+	 */
+	@Override
+	public synchronized void commentChanged(int index) {
+		if (indexing != null) {
+			changedWhileIndexing.set(index);
+			return;
+		}
+		if (index >= indexed) {
+			// indexed once it is reported as added
+			return;
+		}
+		// the old comment is gone, so look for the index in every token's postings
+		Iterator<Postings> iterator = postings.values().iterator();
+		while (iterator.hasNext()) {
+			Postings tokenPostings = iterator.next();
+			if (tokenPostings.remove(index) && tokenPostings.size == 0) {
+				iterator.remove();
+			}
+		}
+		for (String token : tokenize(project.getComment(index))) {
+			postings.computeIfAbsent(token, t -> new Postings()).insert(index);
+		}
+	}
+	
+	/**
+	 * returns the number of distinct tokens in the index
+	 * @return the number of tokens
+	 */
+	public synchronized int getTokenCount() {
+		return postings.size();
+	}
+	
+	
+	
+	// QUERIES
+	
+	/**
+	 * finds the {@link TimeChunk}s matching a query, see the class description
+	 * @param query the query
+	 * @return the indices of the matching {@link TimeChunk}s, in ascending order
+	 */
+	public synchronized int[] find(String query) {
+		int[] result = new int[0];
+		for (String group : query.trim().split("\\s+" + OR + "\\s+")) {
+			result = union(result, findAll(group));
+		}
+		return result;
+	}
+	
+	/**
+	 * returns the total time of the {@link TimeChunk}s matching a query, see the class description
+	 * @param query the query
+	 * @return the total time in milliseconds
+	 */
+	public synchronized long getTime(String query) {
+		if (project == null) {
+			return 0;
+		}
+		SimeTimerProject view = project.snapshot();
+		long nanos = 0;
+		for (int index : find(query)) {
+			nanos += view.getStoppedNanos(index);
+		}
+		return nanos / TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * finds the {@link TimeChunk}s matching all terms of a group
+	 * @param group the terms, separated by white space
+	 * @return the indices of the matching {@link TimeChunk}s, in ascending order
+	 */
+	private int[] findAll(String group) {
+		List<int[]> matches = new ArrayList<>();
+		for (String term : group.trim().split("\\s+")) {
+			boolean prefix = term.length() > 1 && term.charAt(term.length() - 1) == PREFIX;
+			String[] tokens = tokenize(prefix ? term.substring(0, term.length() - 1) : term);
+			for (int i = 0; i < tokens.length; i++) {
+				matches.add(prefix && i == tokens.length - 1 ? findPrefix(tokens[i]) : findToken(tokens[i]));
+			}
+		}
+		if (matches.isEmpty()) {
+			return new int[0];
+		}
+		// intersect the shortest ones first, the result never grows
+		matches.sort((a, b) -> Integer.compare(a.length, b.length));
+		int[] result = matches.get(0);
+		for (int i = 1; i < matches.size() && result.length > 0; i++) {
+			result = intersection(result, matches.get(i));
+		}
+		return result;
+	}
+	
+	private int[] findToken(String token) {
+		Postings tokenPostings = postings.get(token);
+		return tokenPostings == null ? new int[0] : Arrays.copyOf(tokenPostings.indices, tokenPostings.size);
+	}
+	
+	/**
+	 * finds the {@link TimeChunk}s with a token starting with the given one,
+	 * collecting the postings of many tokens in a bit set instead of merging them
+	 * @param prefix the start of the tokens
+	 * @return the indices of the matching {@link TimeChunk}s, in ascending order
+	 */
+	private int[] findPrefix(String prefix) {
+		Map<String, Postings> tokens = postings.subMap(prefix, prefix + Character.MAX_VALUE);
+		if (tokens.size() == 1) {
+			return findToken(tokens.keySet().iterator().next());
+		}
+		BitSet matches = new BitSet(indexed);
+		for (Postings tokenPostings : tokens.values()) {
+			for (int i = 0; i < tokenPostings.size; i++) {
+				matches.set(tokenPostings.indices[i]);
+			}
+		}
+		return matches.stream().toArray();
+	}
+	
+	private static int[] intersection(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int count = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	private static int[] union(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				result[count++] = a[i++];
+			} else if (a[i] > b[j]) {
+				result[count++] = b[j++];
+			} else {
+				result[count++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			result[count++] = a[i++];
+		}
+		while (j < b.length) {
+			result[count++] = b[j++];
+		}
+		return Arrays.copyOf(result, count);
+	}
+	
+	
+	
+	// TOKENS
+	
+	/**
+	 * splits a comment into its distinct tokens, see the class description
+	 * @param comment the comment, may be null
+	 * @return the tokens, in lower case
+	 */
+	static String[] tokenize(String comment) {
+		List<String> result = new ArrayList<>();
+		if (comment == null) {
+			return new String[0];
+		}
+		int length = comment.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && !Character.isLetterOrDigit(comment.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			// the end of the token, behind its last letter or digit
+			int end = i;
+			while (i < length && (Character.isLetterOrDigit(comment.charAt(i)) || JOINERS.indexOf(comment.charAt(i)) >= 0)) {
+				if (Character.isLetterOrDigit(comment.charAt(i))) {
+					end = i + 1;
+				}
+				i++;
+			}
+			if (end > start) {
+				String token = comment.substring(start, end).toLowerCase(Locale.ROOT);
+				if (!result.contains(token)) {
+					result.add(token);
+				}
+			}
+		}
+		return result.toArray(new String[0]);
+	}
+	
+	/**
+	 * tokenizes the comments of consecutive {@link TimeChunk}s, reusing the tokens
+	 * of a comment instance shared with the previous chunk
+	 */
+	private static class Tokenizer {
+		private String lastComment;
+		private String[] lastTokens = new String[0];
+		
+		String[] tokens(String comment) {
+			if (comment != lastComment) {
+				lastComment = comment;
+				lastTokens = tokenize(comment);
+			}
+			return lastTokens;
+		}
+	}
+	
+	/**
+	 * the sorted indices of the {@link TimeChunk}s containing a token
+	 */
+	private static class Postings {
+		private int[] indices = new int[2];
+		private int size = 0;
+		
+		/**
+		 * adds an index larger than all contained ones
+		 */
+		void add(int index) {
+			if (size == indices.length) {
+				indices = Arrays.copyOf(indices, size + (size >> 1) + 1);
+			}
+			indices[size++] = index;
+		}
+		
+		/**
+		 * appends the indices of other postings, all larger than the contained ones
+		 */
+		void addAll(Postings other) {
+			if (size + other.size > indices.length) {
+				indices = Arrays.copyOf(indices, size + other.size);
+			}
+			System.arraycopy(other.indices, 0, indices, size, other.size);
+			size += other.size;
+		}
+		
+		/**
+		 * inserts an index at its sorted position, unless it is contained already
+		 */
+		void insert(int index) {
+			int position = Arrays.binarySearch(indices, 0, size, index);
+			if (position >= 0) {
+				return;
+			}
+			position = -position - 1;
+			add(index);
+			System.arraycopy(indices, position, indices, position + 1, size - 1 - position);
+			indices[position] = index;
+		}
+		
+		/**
+		 * removes an index
+		 * @return true if it was contained
+		 */
+		boolean remove(int index) {
+			int position = Arrays.binarySearch(indices, 0, size, index);
+			if (position < 0) {
+				return false;
+			}
+			System.arraycopy(indices, position + 1, indices, position, size - 1 - position);
+			size--;
+			return true;
+		}
+		
+		/**
+		 * removes all indices from the given one on
+		 */
+		void truncate(int fromIndex) {
+			int position = Arrays.binarySearch(indices, 0, size, fromIndex);
+			size = position >= 0 ? position : -position - 1;
+		}
+	}
+	
+	/**
+	 * indexes a range of {@link TimeChunk}s, split in halves which are indexed in parallel
+	 * until they are below {@link #PARALLEL_THRESHOLD}
+	 */
+	private static class IndexTask extends RecursiveTask<Map<String, Postings>> {
+		private static final long serialVersionUID = 1L;
+		private final SimeTimerProject view;
+		private final int fromIndex;
+		private final int toIndex;
+		
+		IndexTask(SimeTimerProject view, int fromIndex, int toIndex) {
+			this.view = view;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+		
+		@Override
+		protected Map<String, Postings> compute() {
+			if (toIndex - fromIndex <= PARALLEL_THRESHOLD) {
+				Map<String, Postings> result = new HashMap<>();
+				Tokenizer tokenizer = new Tokenizer();
+				for (int i = fromIndex; i < toIndex; i++) {
+					for (String token : tokenizer.tokens(view.getComment(i))) {
+						result.computeIfAbsent(token, t -> new Postings()).add(i);
+					}
+				}
+				return result;
+			}
+			int middle = (fromIndex + toIndex) >>> 1;
+			IndexTask second = new IndexTask(view, middle, toIndex);
+			second.fork();
+			Map<String, Postings> result = new IndexTask(view, fromIndex, middle).compute();
+			// the second half's indices are all larger, so its postings go behind
+			for (Map.Entry<String, Postings> token : second.join().entrySet()) {
+				Postings tokenPostings = result.get(token.getKey());
+				if (tokenPostings == null) {
+					result.put(token.getKey(), token.getValue());
+				} else {
+					tokenPostings.addAll(token.getValue());
+				}
+			}
+			return result;
+		}
+	}
+	
+}
@@ -31,7 +31,7 @@ import java.io.File;
  * 
  * @author Simon Vetter
  */
-public class ConfigManager {
+public class ConfigManager implements TimerEngine.SaveSettings {
 	
 	private final SimeTimer owner;
 	
@@ -85,6 +85,12 @@ public class ConfigManager {
 	 * where all columns are visible at the same time
 	 */
 	public static final boolean DEFAULT_WIDE_TABLE = false;
+	/**
+	 * default option for whether autosave only appends the changes
+	 * to a journal next to the last used {@link File} instead of
+	 * rewriting the whole file every time
+	 */
+	public static final boolean DEFAULT_JOURNAL_AUTOSAVE = true;
 	/**
 	 * array representation of all the boolean default option properties
 	 */
@@ -95,8 +101,15 @@ public class ConfigManager {
 		DEFAULT_ASK_FOR_COMMENT_ON_CUT,
 		DEFAULT_ASK_FOR_SAVE_ON_LOAD,
 		DEFAULT_ASK_FOR_SAVE_ON_CLOSE,
-		DEFAULT_WIDE_TABLE
+		DEFAULT_WIDE_TABLE,
+		DEFAULT_JOURNAL_AUTOSAVE
 	};
+	/**
+	 * the number of boolean options the first configuration file layout had.
+	 * They are stored in front, all later ones at the end of the file, so older versions
+	 * can still read it and newer ones keep the defaults of options missing in older files.
+	 */
+	public static final int FIRST_LAYOUT_BOOL_OPTIONS = 7;
 	/**
 	 * the default table size
 	 */
@@ -157,6 +170,11 @@ public class ConfigManager {
 	 * where all columns are visible at the same time.
 	 */
 	boolean wideTable;
+	/**
+	 * determines whether autosave only appends the changes to a {@link ProjectJournal}
+	 * instead of rewriting the whole last used {@link File} every time
+	 */
+	boolean journalAutosave;
 	/**
 	 * returns an array representation of all the boolean option properties
 	 * @return an array representation of all the boolean option properties
@@ -169,7 +187,8 @@ public class ConfigManager {
 			askForCommentOnCut,
 			askForSaveOnLoad,
 			askForSaveOnClose,
-			wideTable
+			wideTable,
+			journalAutosave
 		};
 	}
 	/**
@@ -184,6 +203,7 @@ public class ConfigManager {
 		this.askForSaveOnLoad		= boolOptions[4];
 		this.askForSaveOnClose		= boolOptions[5];
 		this.wideTable				= boolOptions[6];
+		this.journalAutosave		= boolOptions[7];
 	}
 	/**
 	 * determines the size of the table in the {@link SimeTimer}'s main window.
@@ -192,8 +212,7 @@ public class ConfigManager {
 	int tableSize;
 	/**
 	 * determines the file format used for saving and loading project files.
-	 * Can be {@link SaveManager}.FILE_FORMAT_PLAIN or
-	 * {@link SaveManager}.FILE_FORMAT_BYTE
+	 * Can be any of the values in {@link SaveManager}.FILE_FORMATS
 	 */
 	int fileFormat;
 	// preferences
@@ -238,6 +257,29 @@ public class ConfigManager {
 	}
 	
 	
+	// SAVE SETTINGS
+	
+	@Override
+	public File getSaveFile() {
+		return usedFile;
+	}
+	
+	@Override
+	public int getFileFormat() {
+		return fileFormat;
+	}
+	
+	@Override
+	public boolean isAutosave() {
+		return autosave;
+	}
+	
+	@Override
+	public boolean isJournalAutosave() {
+		return journalAutosave;
+	}
+	
+	
 	// SAVE/LOAD CONFIGURATION
 	
 	/**
@@ -276,8 +318,7 @@ public class ConfigManager {
 			// reset tableSize to default
 			tableSize = ConfigManager.DEFAULT_TABLE_SIZE;
 		}
-		if (fileFormat != SaveManager.FILE_FORMAT_PLAIN
-				&& fileFormat != SaveManager.FILE_FORMAT_BYTE) {
+		if (!SaveManager.isFileFormat(fileFormat)) {
 			// reset fileFormat to default
 			fileFormat = ConfigManager.DEFAULT_FILE_FORMAT;
 		}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+
+
+/**
+ * Lets other programs control the SimeTimer through a local socket, either a TCP port
+ * on the loopback address or a Unix domain socket. Clients send the commands of
+ * {@link TimerCommands}, one per line, and receive one reply line per command, in order.
+ * <p>
+ * Clients may pipeline commands: all complete lines received at once are executed
+ * as one batch, in a single task on the owner thread of the {@link TimerEngine}, and
+ * their replies are sent back in one write. Times are taken when a batch is received.
+ * All network I/O happens on a single selector thread, which never waits for the
+ * owner thread. Nothing more is read from a connection while its batch is executed
+ * or its replies are being sent, which bounds the memory needed per connection
+ * and slows down clients sending faster than their commands are executed.
+ *
+ * @author Simon Vetter
+ */
+public class ControlServer implements Closeable {
+	
+	/**
+	 * the command line option to open a control socket, followed by a port or a socket file
+	 */
+	public static final String CONTROL_OPTION = "--control";
+	/**
+	 * the longest accepted command line in bytes, connections sending longer ones are closed
+	 */
+	public static final int MAX_LINE_LENGTH = 1 << 16;
+	
+	private final TimerEngine engine;
+	private final Executor ownerExecutor;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	/**
+	 * the socket file to delete when closing, null for a TCP port
+	 */
+	private final Path socketFile;
+	private final Thread thread;
+	/**
+	 * tasks posted to the selector thread when the owner thread has executed a batch
+	 */
+	private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed;
+	
+	
+	
+	/**
+	 * constructor. Opens the socket and starts serving it right away.
+	 * @param address where to listen, see {@link #parseAddress(String)}
+	 * @param engine the {@link TimerEngine} to control
+	 * @param ownerExecutor runs tasks on the owner thread of the engine
+	 * @throws IOException if the socket could not be opened
+	 */
+	public ControlServer(SocketAddress address, TimerEngine engine, Executor ownerExecutor) throws IOException {
+		this.engine = engine;
+		this.ownerExecutor = ownerExecutor;
+		if (address instanceof UnixDomainSocketAddress) {
+			socketFile = ((UnixDomainSocketAddress) address).getPath();
+			removeStaleSocket((UnixDomainSocketAddress) address);
+			serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			socketFile = null;
+			serverChannel = ServerSocketChannel.open();
+		}
+		try {
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+		closed = false;
+		thread = new Thread(this::serve, "SimeTimer control server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * parses the argument of {@link #CONTROL_OPTION}
+	 * @param address a port number for a TCP port on the loopback address, 0 for any free one,
+	 * 				  or else the path of a Unix domain socket file
+	 * @return the address to pass to the constructor
+	 * @throws IllegalArgumentException if the port is out of range
+	 */
+	public static SocketAddress parseAddress(String address) {
+		if (!address.isEmpty() && address.chars().allMatch(c -> c >= '0' && c <= '9') && address.length() <= 5) {
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+		}
+		return UnixDomainSocketAddress.of(address);
+	}
+	
+	/**
+	 * deletes a socket file left behind by a server which didn't close properly.
+	 * Regular files and sockets something is still listening on are left alone.
+	 * @param address the address of the socket file
+	 */
+	private static void removeStaleSocket(UnixDomainSocketAddress address) {
+		Path path = address.getPath();
+		if (!Files.exists(path) || Files.isRegularFile(path) || Files.isDirectory(path)) {
+			return;
+		}
+		try {
+			// still in use, binding will fail
+			SocketChannel.open(address).close();
+		} catch (IOException e) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException ignored) {
+				// binding will fail
+			}
+		}
+	}
+	
+	/**
+	 * returns the address the server listens on, including the port actually chosen
+	 * @return the local address
+	 * @throws IOException if the socket is closed
+	 */
+	public SocketAddress getLocalAddress() throws IOException {
+		return serverChannel.getLocalAddress();
+	}
+	
+	/**
+	 * stops serving, closes all connections and the socket and waits for the selector thread to end.
+	 * Batches already posted to the owner thread are still executed, but not answered.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	
+	// SELECTOR THREAD
+	
+	/**
+	 * accepts connections and reads and writes commands and replies until the server is closed
+	 */
+	private void serve() {
+		try {
+			while (!closed) {
+				selector.select();
+				Runnable task;
+				while ((task = selectorTasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						((Connection) key.attachment()).ready(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Control server failed: " + e.getMessage());
+		} finally {
+			shutDown();
+		}
+	}
+	
+	/**
+	 * accepts a waiting connection, if there is one
+	 * @throws IOException if accepting failed
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+	
+	/**
+	 * closes all connections, the socket and the selector
+	 */
+	private void shutDown() {
+		for (SelectionKey key : selector.keys()) {
+			closeQuietly(key.channel());
+		}
+		closeQuietly(selector);
+		closeQuietly(serverChannel);
+		if (socketFile != null) {
+			try {
+				Files.deleteIfExists(socketFile);
+			} catch (IOException ignored) {
+				// nothing left to do
+			}
+		}
+	}
+	
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+			// nothing left to do
+		}
+	}
+	
+	
+	
+	/**
+	 * a client connection, only used on the selector thread
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private SelectionKey key;
+		/**
+		 * received bytes not executed yet, at most an incomplete line between two reads
+		 */
+		private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		/**
+		 * replies still being sent, null if there are none
+		 */
+		private ByteBuffer output;
+		/**
+		 * true while a batch is posted to the owner thread
+		 */
+		private boolean executing;
+		private boolean endOfInput;
+		
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			executing = false;
+			endOfInput = false;
+		}
+		
+		/**
+		 * handles the selected operations
+		 * @param key the selected key of this connection
+		 */
+		void ready(SelectionKey key) {
+			try {
+				if (key.isWritable()) {
+					write();
+				}
+				if (key.isValid() && key.isReadable()) {
+					read();
+				}
+				if (channel.isOpen()) {
+					updateInterest();
+				}
+			} catch (IOException | CancelledKeyException e) {
+				closeQuietly(channel);
+			}
+		}
+		
+		/**
+		 * reads what has been received and posts the complete lines as a batch
+		 * @throws IOException if reading failed
+		 */
+		private void read() throws IOException {
+			if (channel.read(input) < 0) {
+				endOfInput = true;
+			}
+			long callNanos = engine.nanoTime();
+			List<String> lines = takeLines();
+			if (lines.isEmpty() && !input.hasRemaining()) {
+				// a line longer than the buffer
+				closeQuietly(channel);
+			} else if (!lines.isEmpty()) {
+				execute(lines, callNanos);
+			} else if (endOfInput) {
+				closeQuietly(channel);
+			}
+		}
+		
+		/**
+		 * takes all complete lines out of the input buffer,
+		 * including an unterminated last one once the client has finished sending
+		 * @return the lines without their line breaks
+		 */
+		private List<String> takeLines() {
+			List<String> lines = new ArrayList<>();
+			byte[] bytes = input.array();
+			int start = 0;
+			int end = input.position();
+			for (int i = 0; i < end; i++) {
+				if (bytes[i] == '\n') {
+					lines.add(decode(bytes, start, i));
+					start = i + 1;
+				}
+			}
+			if (endOfInput && start < end) {
+				lines.add(decode(bytes, start, end));
+				start = end;
+			}
+			input.flip().position(start);
+			input.compact();
+			return lines;
+		}
+		
+		private String decode(byte[] bytes, int from, int to) {
+			if (to > from && bytes[to - 1] == '\r') {
+				to--;
+			}
+			return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+		}
+		
+		/**
+		 * executes a batch of commands on the owner thread and posts their replies back
+		 * @param lines the command lines
+		 * @param callNanos the clock reading at which the batch was received
+		 */
+		private void execute(List<String> lines, long callNanos) {
+			executing = true;
+			ownerExecutor.execute(() -> {
+				StringBuilder replies = new StringBuilder(lines.size() * 8);
+				for (String line : lines) {
+					String reply;
+					try {
+						reply = TimerCommands.execute(engine, line, callNanos);
+					} catch (RuntimeException e) {
+						reply = TimerCommands.REPLY_ERROR + " " + e;
+					}
+					if (reply != null) {
+						replies.append(reply).append('\n');
+					}
+				}
+				ByteBuffer bytes = ByteBuffer.wrap(replies.toString().getBytes(StandardCharsets.UTF_8));
+				selectorTasks.add(() -> executed(bytes));
+				selector.wakeup();
+			});
+		}
+		
+		/**
+		 * starts sending the replies of the executed batch. Runs on the selector thread.
+		 * @param replies the replies
+		 */
+		private void executed(ByteBuffer replies) {
+			executing = false;
+			if (!channel.isOpen()) {
+				return;
+			}
+			output = replies;
+			try {
+				write();
+				if (output == null && endOfInput) {
+					closeQuietly(channel);
+					return;
+				}
+				updateInterest();
+			} catch (IOException | CancelledKeyException e) {
+				closeQuietly(channel);
+			}
+		}
+		
+		/**
+		 * sends as much of the pending replies as the socket takes
+		 * @throws IOException if writing failed
+		 */
+		private void write() throws IOException {
+			if (output == null) {
+				return;
+			}
+			channel.write(output);
+			if (!output.hasRemaining()) {
+				output = null;
+				if (endOfInput && !executing) {
+					closeQuietly(channel);
+				}
+			}
+		}
+		
+		/**
+		 * waits for writing while replies are pending, and for reading once all are sent
+		 */
+		private void updateInterest() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			int operations = 0;
+			if (output != null) {
+				operations |= SelectionKey.OP_WRITE;
+			} else if (!executing && !endOfInput) {
+				operations |= SelectionKey.OP_READ;
+			}
+			key.interestOps(operations);
+		}
+	}
+	
+}
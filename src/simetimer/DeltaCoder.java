@@ -0,0 +1,363 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/**
+ * Streaming encoder and decoder of the {@link SaveManager#FILE_FORMAT_DELTA} format.
+ * {@link TimeChunk}s are written and read one by one, without knowing their number in advance,
+ * so neither side ever holds more than a buffer and the dictionary of comments seen so far.
+ * <p>
+ * File layout:
+ * <ul>
+ * <li>header: format constant (int, big endian), version (varint)</li>
+ * <li>for every {@link TimeChunk}: its start date minus the previous one's in milliseconds
+ * 		(zig-zag varint, the first one relative to 0), its stopped time in nanoseconds (varint)
+ * 		and its comment code (varint)</li>
+ * </ul>
+ * Varints store seven bits per byte, least significant first, with the high bit set on all
+ * but the last byte. Zig-zag coding maps small negative numbers to small positive ones first,
+ * so a project out of order costs little more than a sorted one.
+ * <p>
+ * Comment code 0 is followed by a new comment, as its length in bytes (varint) and its UTF-8 bytes,
+ * which becomes the next entry of the dictionary. Any other code n stands for dictionary entry n - 1.
+ * The dictionary starts out with the empty comment, so uncommented chunks never spell it out.
+ *
+ * @author Simon Vetter
+ */
+public final class DeltaCoder {
+	
+	/**
+	 * the version of the layout written by {@link Encoder}
+	 */
+	public static final int VERSION = 1;
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	/**
+	 * the most bytes a varint of a long takes
+	 */
+	private static final int MAX_VARINT_BYTES = 10;
+	
+	
+	
+	private DeltaCoder() {}
+	
+	/**
+	 * maps a signed number to an unsigned one, small absolute values to small numbers
+	 * @param value the signed number
+	 * @return the zig-zag coded number
+	 */
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	/**
+	 * reverses {@link #zigZag(long)}
+	 * @param value the zig-zag coded number
+	 * @return the signed number
+	 */
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	
+	
+	/**
+	 * writes {@link TimeChunk}s to an {@link OutputStream} in the delta coded format.
+	 * Closing the encoder closes the stream.
+	 */
+	public static class Encoder implements Closeable {
+		private final OutputStream output;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position = 0;
+		private final Map<String, Integer> codes = new HashMap<>();
+		private long previousStartDate = 0;
+		
+		/**
+		 * constructor. Writes the header.
+		 * @param output the {@link OutputStream} to write to
+		 * @throws IOException when the stream could not be written
+		 */
+		public Encoder(OutputStream output) throws IOException {
+			this.output = output;
+			codes.put("", 1);
+			writeInt(SaveManager.FILE_FORMAT_DELTA);
+			writeVarint(VERSION);
+		}
+		
+		/**
+		 * writes a {@link TimeChunk}
+		 * @param startDateMillis the start date in milliseconds
+		 * @param stoppedNanos the stopped time in nanoseconds
+		 * @param comment the comment, null is written as an empty one
+		 * @throws IOException when the stream could not be written
+		 */
+		public void write(long startDateMillis, long stoppedNanos, String comment) throws IOException {
+			writeVarint(zigZag(startDateMillis - previousStartDate));
+			previousStartDate = startDateMillis;
+			writeVarint(stoppedNanos);
+			Integer code = codes.get(comment != null ? comment : "");
+			if (code != null) {
+				writeVarint(code);
+			} else {
+				codes.put(comment, codes.size() + 1);
+				byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+				writeVarint(0);
+				writeVarint(bytes.length);
+				writeBytes(bytes);
+			}
+		}
+		
+		/**
+		 * writes all {@link TimeChunk}s of a project, in order
+		 * @param project the {@link SimeTimerProject} to write
+		 * @throws IOException when the stream could not be written
+		 */
+		public void writeAll(SimeTimerProject project) throws IOException {
+			SimeTimerProject view = project.snapshot();
+			for (int i = 0; i < view.size(); i++) {
+				write(view.getStartDateMillis(i), view.getStoppedNanos(i), view.getComment(i));
+			}
+		}
+		
+		private void writeInt(int value) throws IOException {
+			ensureSpace(Integer.BYTES);
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+		}
+		
+		private void writeVarint(long value) throws IOException {
+			ensureSpace(MAX_VARINT_BYTES);
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte) (value | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+		
+		private void writeBytes(byte[] bytes) throws IOException {
+			if (bytes.length > buffer.length - position) {
+				flush();
+				output.write(bytes);
+			} else {
+				System.arraycopy(bytes, 0, buffer, position, bytes.length);
+				position += bytes.length;
+			}
+		}
+		
+		private void ensureSpace(int bytes) throws IOException {
+			if (buffer.length - position < bytes) {
+				flush();
+			}
+		}
+		
+		/**
+		 * writes the buffered bytes to the stream
+		 * @throws IOException when the stream could not be written
+		 */
+		public void flush() throws IOException {
+			output.write(buffer, 0, position);
+			position = 0;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				output.close();
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * reads {@link TimeChunk}s from an {@link InputStream} in the delta coded format.
+	 * Closing the decoder closes the stream.
+	 */
+	public static class Decoder implements Closeable {
+		private final InputStream input;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position = 0;
+		private int limit = 0;
+		/**
+		 * the number of bytes read from the stream before the buffered ones
+		 */
+		private long consumed = 0;
+		private final List<String> dictionary = new ArrayList<>();
+		private long startDateMillis = 0;
+		private long stoppedNanos;
+		private String comment;
+		
+		/**
+		 * constructor. Reads the header.
+		 * @param input the {@link InputStream} to read from
+		 * @throws IOException when the stream could not be read
+		 * @throws IllegalArgumentException when the stream is not in the delta coded format
+		 */
+		public Decoder(InputStream input) throws IOException, IllegalArgumentException {
+			this.input = input;
+			dictionary.add("");
+			int format = 0;
+			for (int i = 0; i < Integer.BYTES; i++) {
+				if (!fill()) {
+					throw new IllegalArgumentException("Not a delta coded project file");
+				}
+				format = format << 8 | buffer[position++] & 0xFF;
+			}
+			if (format != SaveManager.FILE_FORMAT_DELTA) {
+				throw new IllegalArgumentException("Not a delta coded project file");
+			}
+			long version = readVarint();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unknown delta coded project file version " + version);
+			}
+		}
+		
+		/**
+		 * reads the next {@link TimeChunk}, whose data is returned by the getters afterwards
+		 * @return true if a {@link TimeChunk} has been read, false at the end of the stream
+		 * @throws IOException when the stream could not be read or ends within a {@link TimeChunk}
+		 * @throws IllegalArgumentException when the stream is corrupted
+		 */
+		public boolean next() throws IOException, IllegalArgumentException {
+			if (!fill()) {
+				return false;
+			}
+			startDateMillis += unZigZag(readVarint());
+			stoppedNanos = readVarint();
+			long code = readVarint();
+			if (code == 0) {
+				long length = readVarint();
+				if (length < 0 || length > Integer.MAX_VALUE - 8) {
+					throw new IllegalArgumentException("Delta coded project file corrupted");
+				}
+				comment = readString((int) length);
+				dictionary.add(comment);
+			} else if (code <= dictionary.size()) {
+				comment = dictionary.get((int) code - 1);
+			} else {
+				throw new IllegalArgumentException("Delta coded project file corrupted");
+			}
+			return true;
+		}
+		
+		/**
+		 * @return the start date of the last read {@link TimeChunk} in milliseconds
+		 */
+		public long getStartDateMillis() {
+			return startDateMillis;
+		}
+		
+		/**
+		 * @return the stopped time of the last read {@link TimeChunk} in nanoseconds
+		 */
+		public long getStoppedNanos() {
+			return stoppedNanos;
+		}
+		
+		/**
+		 * @return the comment of the last read {@link TimeChunk}, the same instance for equal comments
+		 */
+		public String getComment() {
+			return comment;
+		}
+		
+		/**
+		 * @return the number of bytes decoded so far
+		 */
+		public long getPosition() {
+			return consumed + position;
+		}
+		
+		/**
+		 * makes sure at least one byte is buffered
+		 * @return false at the end of the stream, else true
+		 */
+		private boolean fill() throws IOException {
+			if (position < limit) {
+				return true;
+			}
+			consumed += limit;
+			position = 0;
+			limit = Math.max(0, input.read(buffer));
+			return limit > 0;
+		}
+		
+		private long readVarint() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (!fill()) {
+					throw new EOFException("Delta coded project file ends within a time chunk");
+				}
+				byte b = buffer[position++];
+				result |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return result;
+				}
+			}
+			throw new IllegalArgumentException("Delta coded project file corrupted");
+		}
+		
+		private String readString(int length) throws IOException {
+			if (length <= limit - position) {
+				String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+				position += length;
+				return result;
+			}
+			// grown as the bytes arrive, so a corrupted length fails at the end of the stream
+			// instead of allocating all of it up front
+			byte[] bytes = new byte[Math.min(length, BUFFER_SIZE)];
+			int read = 0;
+			while (read < length) {
+				if (!fill()) {
+					throw new EOFException("Delta coded project file ends within a time chunk");
+				}
+				if (read == bytes.length) {
+					bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+				}
+				int count = Math.min(bytes.length - read, limit - position);
+				System.arraycopy(buffer, position, bytes, read, count);
+				position += count;
+				read += count;
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+	}
+	
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import javax.swing.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+
+/**
+ * Drives the running time display of the {@link SimeTimer}.
+ * A single scheduler thread, kept for the whole lifetime of the application,
+ * ticks while the timer is running and the window is not iconified.
+ * Every tick posts the refresh to the event thread, unless the previous one
+ * is still waiting there, so refreshes never pile up behind each other.
+ * All methods are meant to be called from the event thread.
+ *
+ * @author Simon Vetter
+ */
+public class DisplayRefresher {
+	
+	/**
+	 * time between two refreshes in milliseconds, about one per frame at 60 Hz
+	 */
+	public static final long REFRESH_INTERVAL = 16;
+	
+	/**
+	 * the single scheduler thread
+	 */
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SimeTimer display refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * the refresh to run on the event thread
+	 */
+	private final Runnable refresh;
+	/**
+	 * true while a refresh has been posted to the event thread but hasn't run yet
+	 */
+	private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+	
+	// event thread state
+	private ScheduledFuture<?> ticks;
+	/**
+	 * the time of the last refresh since ticking started, 0 if there hasn't been one yet
+	 */
+	private long lastRefreshNanos;
+	private boolean running;
+	private boolean iconified;
+	
+	
+	
+	/**
+	 * constructor. Does not tick until {@link #setRunning(boolean)} is called.
+	 * @param refresh the refresh to run on the event thread on every tick
+	 */
+	public DisplayRefresher(Runnable refresh) {
+		this.refresh = refresh;
+		running = false;
+		iconified = false;
+	}
+	
+	/**
+	 * starts or stops ticking for a running timer
+	 * @param running true if the timer is running
+	 */
+	public void setRunning(boolean running) {
+		this.running = running;
+		reschedule();
+	}
+	
+	/**
+	 * pauses ticking while the window is iconified, as nothing would be seen of it.
+	 * Refreshes once right away when the window is restored.
+	 * @param iconified true if the window is iconified
+	 */
+	public void setIconified(boolean iconified) {
+		this.iconified = iconified;
+		reschedule();
+	}
+	
+	/**
+	 * starts or cancels the ticks according to the current state
+	 */
+	private void reschedule() {
+		boolean active = running && !iconified;
+		if (active && ticks == null) {
+			lastRefreshNanos = 0;
+			ticks = scheduler.scheduleAtFixedRate(this::tick, 0, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+		} else if (!active && ticks != null) {
+			ticks.cancel(false);
+			ticks = null;
+		}
+	}
+	
+	/**
+	 * posts a refresh to the event thread, unless one is already waiting there.
+	 * Runs on the scheduler thread.
+	 */
+	private void tick() {
+		if (refreshPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(() -> {
+				refreshPending.set(false);
+				refreshed();
+				refresh.run();
+			});
+		}
+	}
+	
+	/**
+	 * records the interval since the previous refresh, as the user sees it, on the event thread
+	 */
+	private void refreshed() {
+		long now = System.nanoTime();
+		if (lastRefreshNanos != 0 && ticks != null) {
+			SimeTimerMetrics.METRICS.ticked(now - lastRefreshNanos);
+		}
+		lastRefreshNanos = ticks != null ? now : 0;
+	}
+	
+}
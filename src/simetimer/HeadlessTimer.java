@@ -0,0 +1,309 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.*;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+
+
+/**
+ * Runs the SimeTimer without a window, driven by the commands of {@link TimerCommands}
+ * from standard input, one per line. Errors are reported on standard error and
+ * queried totals are printed on standard output. Times are taken when a line has been read.
+ * With {@link ControlServer#CONTROL_OPTION}, the same commands are also accepted
+ * through a local socket until the end of standard input.
+ * <p>
+ * Every change is autosaved to the given file through the journal, just like the
+ * window does, and the project is saved in full at the end of the input.
+ * A timer which is still running at that point is stopped first.
+ * All commands are executed on the main thread, which takes them from a queue
+ * fed by a reader thread for standard input and by the {@link ControlServer}.
+ *
+ * @author Simon Vetter
+ */
+public class HeadlessTimer implements TimerEngine.SaveSettings {
+	
+	/**
+	 * the command line option to start the SimeTimer without a window
+	 */
+	public static final String HEADLESS_OPTION = "--headless";
+	/**
+	 * the command line usage of the headless mode
+	 */
+	public static final String USAGE = "usage: SimeTimer " + HEADLESS_OPTION
+			+ " [--format <plain|byte|mapped|dictionary|delta|block>] [--no-journal] [" + ControlServer.CONTROL_OPTION + " <port|socket file>] <file>";
+	/**
+	 * the most lines read from standard input which are executed as one task
+	 */
+	private static final int MAX_BATCH_SIZE = 1024;
+	
+	// exit codes
+	public static final int EXIT_OK				= 0;
+	public static final int EXIT_SAVE_FAILED	= 1;
+	public static final int EXIT_USAGE			= 2;
+	public static final int EXIT_LOAD_FAILED	= 3;
+	
+	private final File saveFile;
+	private final int fileFormat;
+	private final boolean journalAutosave;
+	private final TimerEngine engine;
+	/**
+	 * tasks to run on the main thread: commands and {@link SaveService} callbacks
+	 */
+	private final BlockingQueue<Runnable> ownerTasks = new LinkedBlockingQueue<>();
+	private boolean saveFailed;
+	private boolean readFailed;
+	private boolean endOfInput;
+	private int lineNumber;
+	
+	
+	
+	/**
+	 * constructor
+	 * @param clock the {@link TimerClock} to measure {@link TimeChunk}s with
+	 * @param saveFile the file to load the project from, if it exists, and to save it in
+	 * @param fileFormat an int constant to represent the file format to use
+	 * @param journalAutosave true if changes should be appended to the journal
+	 */
+	public HeadlessTimer(TimerClock clock, File saveFile, int fileFormat, boolean journalAutosave) {
+		this.saveFile = saveFile;
+		this.fileFormat = fileFormat;
+		this.journalAutosave = journalAutosave;
+		SaveService saveService = new SaveService(e -> {
+			System.err.println("Saving failed: " + e.getMessage());
+			saveFailed = true;
+		}, ownerTasks::add);
+		engine = new TimerEngine(clock, this, saveService);
+		SimeTimerMetrics.register(engine);
+		saveFailed = false;
+		readFailed = false;
+		endOfInput = false;
+		lineNumber = 0;
+	}
+	
+	/**
+	 * parses the command line arguments and processes standard input
+	 * @param args the command line arguments following {@link #HEADLESS_OPTION}
+	 * @return the exit code
+	 */
+	public static int run(String[] args) {
+		int fileFormat = ConfigManager.DEFAULT_FILE_FORMAT;
+		boolean journalAutosave = ConfigManager.DEFAULT_JOURNAL_AUTOSAVE;
+		File saveFile = null;
+		SocketAddress controlAddress = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--format") && i + 1 < args.length) {
+				fileFormat = fileFormatByName(args[++i]);
+				if (fileFormat == 0) {
+					System.err.println("Unknown file format: " + args[i]);
+					return EXIT_USAGE;
+				}
+			} else if (args[i].equals("--no-journal")) {
+				journalAutosave = false;
+			} else if (args[i].equals(ControlServer.CONTROL_OPTION) && i + 1 < args.length) {
+				try {
+					controlAddress = ControlServer.parseAddress(args[++i]);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Invalid control socket: " + e.getMessage());
+					return EXIT_USAGE;
+				}
+			} else if (saveFile == null && !args[i].startsWith("--")) {
+				saveFile = new File(args[i]);
+			} else {
+				System.err.println(USAGE);
+				return EXIT_USAGE;
+			}
+		}
+		if (saveFile == null) {
+			System.err.println(USAGE);
+			return EXIT_USAGE;
+		}
+		HeadlessTimer timer = new HeadlessTimer(new MonotonicClock(), saveFile, fileFormat, journalAutosave);
+		return timer.process(new BufferedReader(new InputStreamReader(System.in), 1 << 16), controlAddress);
+	}
+	
+	/**
+	 * finds a file format by the first word of its name in {@link SaveManager#FILE_FORMAT_NAMES}
+	 * @param name the name, case is ignored
+	 * @return the file format constant, 0 if there is none with that name
+	 */
+	static int fileFormatByName(String name) {
+		for (int i = 0; i < SaveManager.FILE_FORMAT_NAMES.length; i++) {
+			String formatName = SaveManager.FILE_FORMAT_NAMES[i].split(" ")[0];
+			if (formatName.toLowerCase(Locale.ROOT).equals(name.toLowerCase(Locale.ROOT))) {
+				return SaveManager.FILE_FORMATS[i];
+			}
+		}
+		return 0;
+	}
+	
+	
+	
+	// PROCESSING
+	
+	/**
+	 * loads the save file if it exists, executes all commands from the given
+	 * input and the control socket and saves the project in full at the end of the input
+	 * @param input the commands, one per line
+	 * @param controlAddress where to accept commands from as well, or null
+	 * @return the exit code
+	 */
+	public int process(BufferedReader input, SocketAddress controlAddress) {
+		if (saveFile.isFile()) {
+			try {
+				SimeTimerProject project = SaveManager.readProject(saveFile, fileFormat);
+				ProjectJournal.replay(saveFile, project);
+				engine.projectLoaded(project);
+			} catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+				System.err.println("Loading " + saveFile + " failed: " + e.getMessage());
+				return EXIT_LOAD_FAILED;
+			}
+		}
+		ControlServer controlServer = null;
+		if (controlAddress != null) {
+			try {
+				controlServer = new ControlServer(controlAddress, engine, ownerTasks::add);
+			} catch (IOException e) {
+				System.err.println("Opening control socket " + controlAddress + " failed: " + e.getMessage());
+				return EXIT_USAGE;
+			}
+		}
+		Thread reader = new Thread(() -> readCommands(input), "SimeTimer command reader");
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			while (!endOfInput) {
+				ownerTasks.take().run();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (controlServer != null) {
+			controlServer.close();
+		}
+		runOwnerTasks();
+		int exitCode = finish();
+		return readFailed ? EXIT_SAVE_FAILED : exitCode;
+	}
+	
+	/**
+	 * reads commands until the end of the input and posts them to the main thread.
+	 * Lines which are already available are posted together, up to {@link #MAX_BATCH_SIZE}.
+	 * Runs on the reader thread.
+	 * @param input the commands, one per line
+	 */
+	private void readCommands(BufferedReader input) {
+		try {
+			String line;
+			while ((line = input.readLine()) != null) {
+				List<String> lines = new ArrayList<>();
+				long[] callNanos = new long[16];
+				do {
+					if (lines.size() == callNanos.length) {
+						callNanos = Arrays.copyOf(callNanos, 2 * callNanos.length);
+					}
+					callNanos[lines.size()] = engine.nanoTime();
+					lines.add(line);
+				} while (lines.size() < MAX_BATCH_SIZE && input.ready() && (line = input.readLine()) != null);
+				long[] batchNanos = callNanos;
+				ownerTasks.add(() -> execute(lines, batchNanos));
+			}
+			ownerTasks.add(() -> endOfInput = true);
+		} catch (IOException e) {
+			ownerTasks.add(() -> {
+				System.err.println("Reading commands failed: " + e.getMessage());
+				readFailed = true;
+				endOfInput = true;
+			});
+		}
+	}
+	
+	/**
+	 * executes a batch of commands from standard input
+	 * @param lines the command lines
+	 * @param callNanos the clock readings at which the lines were read
+	 */
+	private void execute(List<String> lines, long[] callNanos) {
+		for (int i = 0; i < lines.size(); i++) {
+			lineNumber++;
+			String reply = TimerCommands.execute(engine, lines.get(i), callNanos[i]);
+			if (TimerCommands.isError(reply)) {
+				System.err.println("line " + lineNumber + ": "
+						+ reply.substring(TimerCommands.REPLY_ERROR.length() + 1));
+			} else if (reply != null && reply.startsWith(TimerCommands.REPLY_TOTAL)) {
+				System.out.println(reply);
+			}
+		}
+	}
+	
+	/**
+	 * stops a running timer, saves the whole project and waits until it has been written
+	 * @return the exit code
+	 */
+	private int finish() {
+		if (engine.isRunning()) {
+			engine.stop("");
+		}
+		engine.save();
+		engine.flush();
+		runOwnerTasks();
+		return saveFailed ? EXIT_SAVE_FAILED : EXIT_OK;
+	}
+	
+	/**
+	 * runs the tasks posted so far
+	 */
+	private void runOwnerTasks() {
+		Runnable task;
+		while ((task = ownerTasks.poll()) != null) {
+			task.run();
+		}
+	}
+	
+	
+	
+	// SAVE SETTINGS
+	
+	@Override
+	public File getSaveFile() {
+		return saveFile;
+	}
+	
+	@Override
+	public int getFileFormat() {
+		return fileFormat;
+	}
+	
+	@Override
+	public boolean isAutosave() {
+		return true;
+	}
+	
+	@Override
+	public boolean isJournalAutosave() {
+		return journalAutosave;
+	}
+	
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * A histogram of durations which can be recorded to from any thread without locking
+ * and without allocating, for {@link SimeTimerMetrics}.
+ * Durations are counted in buckets growing by powers of two, each split into
+ * {@link #SUB_BUCKETS} equal parts, so percentiles are off by at most a quarter
+ * of the reported value, whatever its magnitude.
+ * Readers see each bucket up to date, but not necessarily all of them at the same moment.
+ *
+ * @author Simon Vetter
+ */
+public class LatencyHistogram {
+	
+	/**
+	 * the summary of a histogram, in microseconds, as shown by JMX consoles
+	 */
+	public static class Summary {
+		private final long count;
+		private final double meanMicros;
+		private final double p50Micros;
+		private final double p99Micros;
+		private final double maxMicros;
+		
+		Summary(long count, double meanMicros, double p50Micros, double p99Micros, double maxMicros) {
+			this.count = count;
+			this.meanMicros = meanMicros;
+			this.p50Micros = p50Micros;
+			this.p99Micros = p99Micros;
+			this.maxMicros = maxMicros;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+		
+		public double getMeanMicros() {
+			return meanMicros;
+		}
+		
+		public double getP50Micros() {
+			return p50Micros;
+		}
+		
+		public double getP99Micros() {
+			return p99Micros;
+		}
+		
+		public double getMaxMicros() {
+			return maxMicros;
+		}
+	}
+	
+	/**
+	 * the number of bits below the highest one which select the part of a power of two bucket
+	 */
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * enough buckets for every positive long
+	 */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	
+	
+	/**
+	 * records a duration
+	 * @param nanos the duration in nanoseconds, negative ones count as zero
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.getAndIncrement(bucket(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	/**
+	 * returns the number of recorded durations
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * returns the upper bound of the bucket the given share of the recorded durations is in
+	 * @param share the share, from 0 to 1, like 0.99 for the 99th percentile
+	 * @return the percentile in nanoseconds, 0 if nothing has been recorded
+	 */
+	public long getPercentileNanos(double share) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		long rank = Math.max(1, (long) Math.ceil(share * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				// the maximum is exact and may be below the bucket's bound
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * summarizes the recorded durations
+	 * @return the {@link Summary}
+	 */
+	public Summary summary() {
+		long count = getCount();
+		double mean = count == 0 ? 0 : (double) sum.sum() / count;
+		return new Summary(count, mean / 1e3, getPercentileNanos(0.5) / 1e3, getPercentileNanos(0.99) / 1e3,
+				max.get() / 1e3);
+	}
+	
+	/**
+	 * forgets all recorded durations. Durations recorded meanwhile may be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+	
+	
+	
+	// BUCKETS
+	
+	/**
+	 * returns the bucket of a duration. Values below {@link #SUB_BUCKETS} have buckets of their own,
+	 * larger ones are placed by their highest bit and the {@link #SUB_BUCKET_BITS} bits below it.
+	 * @param value the duration, not negative
+	 * @return the index of its bucket
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+	
+	/**
+	 * returns the largest duration counted in a bucket
+	 * @param bucket the index of the bucket
+	 * @return the duration
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + ((1L << shift) - 1);
+	}
+	
+}
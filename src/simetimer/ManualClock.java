@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+
+
+/**
+ * A deterministic {@link TimerClock} which only moves when it is told to,
+ * for tests and for replaying recorded timings.
+ * Its readings start at zero, which corresponds to the given start date.
+ *
+ * @author Simon Vetter
+ */
+public class ManualClock implements TimerClock {
+	
+	private final long startDateMillis;
+	private volatile long nanoTime;
+	
+	
+	
+	/**
+	 * constructor
+	 * @param startDateMillis the date of the first reading, in milliseconds since the epoch
+	 */
+	public ManualClock(long startDateMillis) {
+		this.startDateMillis = startDateMillis;
+		nanoTime = 0;
+	}
+	
+	/**
+	 * moves the clock forward
+	 * @param nanos the time to move forward by, in nanoseconds
+	 */
+	public synchronized void advance(long nanos) {
+		if (nanos < 0) {
+			throw new IllegalArgumentException("A clock can't move backwards");
+		}
+		nanoTime += nanos;
+	}
+	
+	@Override
+	public long nanoTime() {
+		return nanoTime;
+	}
+	
+	@Override
+	public long toEpochMillis(long nanoTime) {
+		return startDateMillis + Math.floorDiv(nanoTime, TimeChunk.NANOS_PER_MILLI);
+	}
+	
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+
+
+/**
+ * Random access to a project file written in the
+ * {@link SaveManager#FILE_FORMAT_MAPPED} format.
+ * The file is mapped into memory and only its header is read on opening,
+ * every {@link TimeChunk} can then be read in constant time by its index.
+ * <p>
+ * File layout (all numbers big endian):
+ * <ul>
+ * <li>header: format constant (int), version (int),
+ * 		number of chunks n (long), offset of the comment heap (long)</li>
+ * <li>n start dates in milliseconds (long each)</li>
+ * <li>n stopped times in nanoseconds (long each), in milliseconds in version 1 files</li>
+ * <li>n comment offsets relative to the comment heap (long each)</li>
+ * <li>the comment heap: each comment as its length in bytes (int) followed by its UTF-8 bytes</li>
+ * </ul>
+ *
+ * @author Simon Vetter
+ */
+public class MappedProjectFile implements Closeable {
+	
+	/**
+	 * the version of the layout written by {@link #write(SimeTimerProject, File)}
+	 */
+	public static final int VERSION = 2;
+	/**
+	 * the first version, which stored stopped times in milliseconds
+	 */
+	private static final int VERSION_MILLIS = 1;
+	/**
+	 * size of the header in bytes
+	 */
+	public static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+	
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int size;
+	/**
+	 * the number of nanoseconds per unit of the stopped times column
+	 */
+	private final long stoppedTimeUnit;
+	private final int startDatesOffset;
+	private final int stoppedTimesOffset;
+	private final int commentOffsetsOffset;
+	private final int commentHeapOffset;
+	
+	
+	
+	/**
+	 * opens the given file and reads its header
+	 * @param file the file to open
+	 * @throws IOException when the file could not be opened or mapped
+	 * @throws IllegalArgumentException when the file is not in the expected format
+	 */
+	public MappedProjectFile(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long fileSize = channel.size();
+			if (fileSize > Integer.MAX_VALUE) {
+				throw new IOException("File too large to be mapped");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			if (fileSize < HEADER_SIZE || buffer.getInt(0) != SaveManager.FILE_FORMAT_MAPPED) {
+				throw new IllegalArgumentException("Not a mapped project file");
+			}
+			int version = buffer.getInt(Integer.BYTES);
+			if (version != VERSION && version != VERSION_MILLIS) {
+				throw new IllegalArgumentException("Unknown mapped project file version " + version);
+			}
+			stoppedTimeUnit = version == VERSION_MILLIS ? TimeChunk.NANOS_PER_MILLI : 1;
+			long chunkCount = buffer.getLong(2 * Integer.BYTES);
+			long heapOffset = buffer.getLong(2 * Integer.BYTES + Long.BYTES);
+			if (chunkCount < 0 || heapOffset != HEADER_SIZE + 3 * Long.BYTES * chunkCount || heapOffset > fileSize) {
+				throw new IllegalArgumentException("Mapped project file header corrupted");
+			}
+			size = (int) chunkCount;
+			startDatesOffset = HEADER_SIZE;
+			stoppedTimesOffset = startDatesOffset + size * Long.BYTES;
+			commentOffsetsOffset = stoppedTimesOffset + size * Long.BYTES;
+			commentHeapOffset = (int) heapOffset;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * returns the number of {@link TimeChunk}s in the file
+	 * @return the number of {@link TimeChunk}s in the file
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * returns the start date of the {@link TimeChunk} at the given index
+	 * @param index the index of the {@link TimeChunk}
+	 * @return the start date in milliseconds
+	 */
+	public long getStartDateMillis(int index) {
+		return buffer.getLong(startDatesOffset + checkIndex(index) * Long.BYTES);
+	}
+	
+	/**
+	 * returns the stopped time of the {@link TimeChunk} at the given index
+	 * @param index the index of the {@link TimeChunk}
+	 * @return the stopped time in milliseconds
+	 */
+	public long getStoppedTime(int index) {
+		return getStoppedNanos(index) / TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * returns the stopped time of the {@link TimeChunk} at the given index at full resolution
+	 * @param index the index of the {@link TimeChunk}
+	 * @return the stopped time in nanoseconds
+	 */
+	public long getStoppedNanos(int index) {
+		long stoppedTime = buffer.getLong(stoppedTimesOffset + checkIndex(index) * Long.BYTES);
+		return stoppedTimeUnit == 1 ? stoppedTime : TimeChunk.millisToNanos(stoppedTime);
+	}
+	
+	/**
+	 * decodes the comment of the {@link TimeChunk} at the given index
+	 * @param index the index of the {@link TimeChunk}
+	 * @return the comment
+	 * @throws IllegalArgumentException when the comment lies outside of the comment heap
+	 */
+	public String getComment(int index) {
+		long offset = buffer.getLong(commentOffsetsOffset + checkIndex(index) * Long.BYTES);
+		long heapSize = buffer.limit() - commentHeapOffset;
+		if (offset < 0 || offset > heapSize - Integer.BYTES) {
+			throw new IllegalArgumentException("Mapped project file comment offset corrupted");
+		}
+		int position = (int) (commentHeapOffset + offset);
+		int length = buffer.getInt(position);
+		if (length < 0 || length > heapSize - offset - Integer.BYTES) {
+			throw new IllegalArgumentException("Mapped project file comment length corrupted");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(position + Integer.BYTES, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * returns the {@link TimeChunk} at the given index
+	 * @param index the index of the {@link TimeChunk}
+	 * @return a new {@link TimeChunk} with the data from the file
+	 */
+	public TimeChunk getTimeChunk(int index) {
+		return TimeChunk.ofNanos(getStartDateMillis(index), getStoppedNanos(index), getComment(index));
+	}
+	
+	/**
+	 * reads all {@link TimeChunk}s in the file into a new {@link SimeTimerProject}
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 */
+	public SimeTimerProject toProject() {
+		SimeTimerProject result = new SimeTimerProject(size);
+		for (int i = 0; i < size; i++) {
+			result.appendTimeChunk(getStartDateMillis(i), getStoppedNanos(i), getComment(i));
+		}
+		return result;
+	}
+	
+	/**
+	 * checks the given chunk index against the file's bounds
+	 * @param index the index to check
+	 * @return the index
+	 */
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Chunk index " + index + " out of bounds for size " + size);
+		}
+		return index;
+	}
+	
+	/**
+	 * closes the underlying file. The mapping is released once it is garbage collected.
+	 * @throws IOException when the file could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	
+	
+	// WRITE
+	
+	/**
+	 * writes the given {@link SimeTimerProject} to the given file.
+	 * The columns and the comment heap are streamed through small buffers,
+	 * so the whole file never has to be held in memory.
+	 * @param project the {@link SimeTimerProject} to write
+	 * @param file the {@link File} to write to
+	 * @throws IOException when the file could not be written
+	 */
+	public static void write(SimeTimerProject project, File file) throws IOException {
+		int size = project.size();
+		long stoppedTimesOffset = HEADER_SIZE + (long) size * Long.BYTES;
+		long commentOffsetsOffset = stoppedTimesOffset + (long) size * Long.BYTES;
+		long commentHeapOffset = commentOffsetsOffset + (long) size * Long.BYTES;
+		try (FileChannel output = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(SaveManager.FILE_FORMAT_MAPPED);
+			header.putInt(VERSION);
+			header.putLong(size);
+			header.putLong(commentHeapOffset);
+			header.flip();
+			writeFully(output, header, 0);
+			// start dates and stopped times
+			ColumnWriter startDates = new ColumnWriter(output, HEADER_SIZE);
+			ColumnWriter stoppedTimes = new ColumnWriter(output, stoppedTimesOffset);
+			for (int i = 0; i < size; i++) {
+				startDates.putLong(project.getStartDateMillis(i));
+				stoppedTimes.putLong(project.getStoppedNanos(i));
+			}
+			startDates.flush();
+			stoppedTimes.flush();
+			// comment offsets and comment heap
+			ColumnWriter commentOffsets = new ColumnWriter(output, commentOffsetsOffset);
+			ColumnWriter commentHeap = new ColumnWriter(output, commentHeapOffset);
+			long heapSize = 0;
+			for (int i = 0; i < size; i++) {
+				String text = project.getComment(i);
+				// a missing comment is written as an empty one, like DeltaCoder does
+				byte[] comment = (text != null ? text : "").getBytes(StandardCharsets.UTF_8);
+				commentOffsets.putLong(heapSize);
+				commentHeap.putInt(comment.length);
+				commentHeap.put(comment);
+				heapSize += Integer.BYTES + comment.length;
+			}
+			commentOffsets.flush();
+			commentHeap.flush();
+		}
+	}
+	
+	/**
+	 * writes the remaining content of the given buffer to the given position
+	 * @param output the channel to write to
+	 * @param buffer the buffer to write
+	 * @param position the position in the file
+	 * @throws IOException when writing failed
+	 */
+	private static void writeFully(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += output.write(buffer, position);
+		}
+	}
+	
+	/**
+	 * buffers sequential writes to one section of a file
+	 */
+	private static class ColumnWriter {
+		private final FileChannel output;
+		private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+		private long position;
+		
+		/**
+		 * constructor
+		 * @param output the channel to write to
+		 * @param position the position of the section in the file
+		 */
+		ColumnWriter(FileChannel output, long position) {
+			this.output = output;
+			this.position = position;
+		}
+		
+		void putLong(long value) throws IOException {
+			ensureRemaining(Long.BYTES);
+			buffer.putLong(value);
+		}
+		
+		void putInt(int value) throws IOException {
+			ensureRemaining(Integer.BYTES);
+			buffer.putInt(value);
+		}
+		
+		void put(byte[] bytes) throws IOException {
+			int written = 0;
+			while (written < bytes.length) {
+				ensureRemaining(1);
+				int length = Math.min(buffer.remaining(), bytes.length - written);
+				buffer.put(bytes, written, length);
+				written += length;
+			}
+		}
+		
+		private void ensureRemaining(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+		
+		void flush() throws IOException {
+			buffer.flip();
+			int length = buffer.remaining();
+			writeFully(output, buffer, position);
+			position += length;
+			buffer.clear();
+		}
+	}
+	
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.util.function.LongSupplier;
+
+
+
+/**
+ * A {@link TimerClock} reading {@link System#nanoTime()}, which never jumps
+ * when the system clock is adjusted, so durations can't turn out wrong or negative.
+ * The readings are anchored to the wall clock when the clock is created. {@link #anchor()}
+ * anchors them again only if the wall clock has been stepped by at least
+ * {@link #STEP_THRESHOLD_MILLIS} since, like after a suspend, so dates follow such a step
+ * from the next start on, while the small corrections of a time synchronization
+ * never move a start date before the end of the previous {@link TimeChunk}.
+ *
+ * @author Simon Vetter
+ */
+public class MonotonicClock implements TimerClock {
+	
+	/**
+	 * the least difference between the wall clock and the dates derived from the readings,
+	 * in milliseconds, at which {@link #anchor()} anchors the readings again
+	 */
+	public static final long STEP_THRESHOLD_MILLIS = 1000;
+	
+	private final LongSupplier nanoSource;
+	private final LongSupplier wallClock;
+	/**
+	 * the current anchor, replaced as a whole so it can be read without locking
+	 */
+	private volatile Anchor anchor;
+	
+	
+	
+	/**
+	 * constructor. Anchors the clock to the current wall clock time
+	 */
+	public MonotonicClock() {
+		this(System::nanoTime, System::currentTimeMillis);
+	}
+	
+	/**
+	 * constructor for tests. Anchors the clock to the current wall clock time
+	 * @param nanoSource the monotonic readings in nanoseconds, like {@link System#nanoTime()}
+	 * @param wallClock the wall clock in milliseconds, like {@link System#currentTimeMillis()}
+	 */
+	MonotonicClock(LongSupplier nanoSource, LongSupplier wallClock) {
+		this.nanoSource = nanoSource;
+		this.wallClock = wallClock;
+		anchor = new Anchor(nanoSource.getAsLong(), wallClock.getAsLong());
+	}
+	
+	@Override
+	public long nanoTime() {
+		return nanoSource.getAsLong();
+	}
+	
+	@Override
+	public long toEpochMillis(long nanoTime) {
+		Anchor anchor = this.anchor;
+		return anchor.millis + Math.floorDiv(nanoTime - anchor.nanos, TimeChunk.NANOS_PER_MILLI);
+	}
+	
+	/**
+	 * anchors the clock to the current wall clock time, if the wall clock
+	 * has been stepped by at least {@link #STEP_THRESHOLD_MILLIS} since the last time
+	 */
+	@Override
+	public void anchor() {
+		long nanos = nanoSource.getAsLong();
+		long millis = wallClock.getAsLong();
+		if (Math.abs(millis - toEpochMillis(nanos)) >= STEP_THRESHOLD_MILLIS) {
+			anchor = new Anchor(nanos, millis);
+		}
+	}
+	
+	
+	
+	/**
+	 * a reading of {@link System#nanoTime()} and the wall clock time it was taken at
+	 */
+	private static class Anchor {
+		final long nanos;
+		final long millis;
+		
+		Anchor(long nanos, long millis) {
+			this.nanos = nanos;
+			this.millis = millis;
+		}
+	}
+	
+}
@@ -97,7 +97,8 @@ public class OptionFrame extends JFrame {
 				"show comment prompt when pressing cut",
 				"show save prompt when loading a project",
 				"show save prompt when closing the window",
-				"show wide table"
+				"show wide table",
+				"autosave by appending to a journal"
 		};
 		boolean[] checkBoxStatus = {
 				config.loadLastSaveOnStartup,
@@ -106,7 +107,8 @@ public class OptionFrame extends JFrame {
 				config.askForCommentOnCut,
 				config.askForSaveOnLoad,
 				config.askForSaveOnClose,
-				config.wideTable
+				config.wideTable,
+				config.journalAutosave
 		};
 		for (int i=0; i<CHECKBOX_COUNT; i++) {
 			checkboxes[i] = new JCheckBox();
@@ -158,9 +160,9 @@ public class OptionFrame extends JFrame {
 				THIRD_ITEM_ROW_OFFSET,
 				90,
 				THIRD_ITEM_ROW_HEIGHT);
-		fileFormatCombobox.setModel(new DefaultComboBoxModel<>(new String[]{"Plain text", "Byte coded"}));
+		fileFormatCombobox.setModel(new DefaultComboBoxModel<>(SaveManager.FILE_FORMAT_NAMES));
 		fileFormatCombobox.setFont(new Font("Dialog", Font.PLAIN, 12));
-		fileFormatCombobox.setSelectedIndex(config.fileFormat != SaveManager.FILE_FORMAT_BYTE ? 0 : 1);
+		fileFormatCombobox.setSelectedIndex(Math.max(0, SaveManager.fileFormatIndex(config.fileFormat)));
 		cp.add(fileFormatCombobox);
 		
 		// OK BUTTON
@@ -193,7 +195,7 @@ public class OptionFrame extends JFrame {
 			config.setOptions(
 					boolOptions,
 					(int) tableSizeSpinner.getModel().getValue(),
-					fileFormatCombobox.getSelectedIndex() != 1 ? SaveManager.FILE_FORMAT_PLAIN : SaveManager.FILE_FORMAT_BYTE);
+					SaveManager.FILE_FORMATS[fileFormatCombobox.getSelectedIndex()]);
 			config.saveConfiguration();
 			dispose();
 		});
@@ -247,8 +249,7 @@ public class OptionFrame extends JFrame {
 		}
 		return boolsChanged
 				|| (int) tableSizeSpinner.getModel().getValue() != config.tableSize
-				|| (fileFormatCombobox.getSelectedIndex() == 0 && config.fileFormat == SaveManager.FILE_FORMAT_BYTE)
-				|| (fileFormatCombobox.getSelectedIndex() == 1 && config.fileFormat == SaveManager.FILE_FORMAT_PLAIN);
+				|| SaveManager.FILE_FORMATS[fileFormatCombobox.getSelectedIndex()] != config.fileFormat;
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+
+
+/**
+ * An append-only log of changes made to a {@link SimeTimerProject} since it was
+ * last written to its save file in full.
+ * Instead of rewriting the whole project on every change, autosave appends one
+ * small record per added {@link TimeChunk} or changed comment to a journal file
+ * next to the save file. Once enough records have piled up, the journal is folded
+ * into the save file.
+ * A ProjectJournal is not thread-safe, the {@link SaveService} only uses it
+ * from its writer thread.
+ * Records are keyed by chunk index and only valid when replayed in order onto the
+ * save file the journal was started from. An added chunk is keyed by the number
+ * of chunks before it, which is its index unless it was inserted in between;
+ * replaying inserts it at the same sorted position again.
+ * A compaction or a full save which crashed after replacing the save file leaves
+ * journals behind which the save file already contains. Since the save file is
+ * replaced atomically, it contains either all or none of a journal's chunks, so
+ * such a journal is recognized by its first added chunk and deleted instead of
+ * being replayed again.
+ *
+ * @author Simon Vetter
+ */
+public class ProjectJournal {
+	
+	/**
+	 * appended to the save file's path to get the path of its journal
+	 */
+	public static final String JOURNAL_SUFFIX = ".journal";
+	/**
+	 * appended to the save file's path to get the path of a journal
+	 * which is currently being folded into the save file
+	 */
+	public static final String COMPACTING_SUFFIX = ".journal.compacting";
+	/**
+	 * least number of records after which the journal is folded into the save file
+	 */
+	public static final int COMPACTION_THRESHOLD = 1000;
+	/**
+	 * larger projects are only folded after this many records per {@link TimeChunk},
+	 * so rewriting the save file costs a constant amount per record at any size
+	 */
+	public static final double COMPACTION_RATIO = 0.25;
+	
+	// record types, comments are stored as their length in bytes (int) and their UTF-8 bytes
+	private static final byte RECORD_CHUNK_ADDED		= 'T';
+	private static final byte RECORD_COMMENT_CHANGED	= 'K';
+	// record types only replayed from older journals, which stored comments with writeUTF
+	/**
+	 * added chunk with its stopped time in milliseconds
+	 */
+	private static final byte RECORD_CHUNK_ADDED_MILLIS	= 'A';
+	private static final byte RECORD_CHUNK_ADDED_UTF	= 'N';
+	private static final byte RECORD_COMMENT_CHANGED_UTF	= 'C';
+	
+	private final File saveFile;
+	private final int fileFormat;
+	private final File journalFile;
+	private final File compactingFile;
+	
+	private DataOutputStream output;
+	private int recordCount;
+	
+	
+	
+	/**
+	 * constructor. Does not touch the file system until the first record is appended.
+	 * @param saveFile the save file whose changes are journaled
+	 * @param fileFormat the file format the save file is written in
+	 */
+	public ProjectJournal(File saveFile, int fileFormat) {
+		this.saveFile = saveFile;
+		this.fileFormat = fileFormat;
+		this.journalFile = journalFileOf(saveFile);
+		this.compactingFile = compactingFileOf(saveFile);
+		recordCount = 0;
+	}
+	
+	// APPEND
+	
+	/**
+	 * appends a record for a newly added {@link TimeChunk}
+	 * @param index the number of {@link TimeChunk}s in the project before the new one was added
+	 * @param timeChunk the new {@link TimeChunk}
+	 * @throws IOException when the journal could not be written
+	 */
+	public void appendChunkAdded(int index, TimeChunk timeChunk) throws IOException {
+		DataOutputStream output = output();
+		int sizeBefore = output.size();
+		output.writeByte(RECORD_CHUNK_ADDED);
+		output.writeInt(index);
+		output.writeLong(timeChunk.getStartDateMillis());
+		output.writeLong(timeChunk.getStoppedNanos());
+		writeComment(output, timeChunk.getComment());
+		output.flush();
+		SimeTimerMetrics.METRICS.written(output.size() - sizeBefore);
+		recordCount++;
+	}
+	
+	/**
+	 * appends a record for a changed comment
+	 * @param index the index of the changed {@link TimeChunk} in the project
+	 * @param comment the new comment
+	 * @throws IOException when the journal could not be written
+	 */
+	public void appendCommentChanged(int index, String comment) throws IOException {
+		DataOutputStream output = output();
+		int sizeBefore = output.size();
+		output.writeByte(RECORD_COMMENT_CHANGED);
+		output.writeInt(index);
+		writeComment(output, comment);
+		output.flush();
+		SimeTimerMetrics.METRICS.written(output.size() - sizeBefore);
+		recordCount++;
+	}
+	
+	/**
+	 * writes a comment as its length in bytes and its UTF-8 bytes, null as an empty one
+	 * @param output the stream to write to
+	 * @param comment the comment
+	 * @throws IOException when the journal could not be written
+	 */
+	private static void writeComment(DataOutputStream output, String comment) throws IOException {
+		byte[] bytes = (comment != null ? comment : "").getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+	
+	/**
+	 * opens the journal file for appending if it isn't open yet
+	 * @return the journal's output stream
+	 * @throws IOException when the journal file could not be opened
+	 */
+	private DataOutputStream output() throws IOException {
+		if (output == null) {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+		}
+		return output;
+	}
+	
+	
+	
+	// COMPACTION
+	
+	/**
+	 * folds the journal into the save file if {@link #COMPACTION_THRESHOLD} records,
+	 * or {@link #COMPACTION_RATIO} records per {@link TimeChunk} of a larger project,
+	 * have been appended since the last compaction.
+	 * The journal is renamed first and only deleted once the save file has been
+	 * replaced, so a crash in between leaves both to be replayed.
+	 * @param snapshot the journaled project, containing exactly the journaled changes
+	 * @throws IOException when the journal could not be folded into the save file
+	 */
+	public void compactIfNeeded(SimeTimerProject snapshot) throws IOException {
+		if (recordCount < Math.max(COMPACTION_THRESHOLD, (long) (snapshot.size() * COMPACTION_RATIO))) {
+			return;
+		}
+		// hand the current journal over to the compaction, new records go into a fresh one
+		closeOutput();
+		if (compactingFile.exists()) {
+			// a previous compaction failed, keep its records
+			Files.write(compactingFile.toPath(), Files.readAllBytes(journalFile.toPath()), StandardOpenOption.APPEND);
+			Files.delete(journalFile.toPath());
+		} else if (!journalFile.renameTo(compactingFile)) {
+			throw new IOException("Journal could not be renamed");
+		}
+		recordCount = 0;
+		SaveManager.writeProjectAtomically(snapshot, saveFile, fileFormat);
+		Files.delete(compactingFile.toPath());
+	}
+	
+	/**
+	 * closes the journal file. The journal can still be appended to afterwards.
+	 */
+	public void close() {
+		try {
+			closeOutput();
+		} catch (IOException e) {
+			System.err.println("Journal could not be closed.");
+		}
+	}
+	
+	/**
+	 * closes the journal file's output stream, if open
+	 * @throws IOException when the stream could not be closed
+	 */
+	private void closeOutput() throws IOException {
+		if (output != null) {
+			output.close();
+			output = null;
+		}
+	}
+	
+	
+	
+	// STATIC FILE OPERATIONS
+	
+	/**
+	 * returns the journal file belonging to the given save file
+	 * @param saveFile the save file
+	 * @return the journal {@link File}
+	 */
+	public static File journalFileOf(File saveFile) {
+		return new File(saveFile.getPath() + JOURNAL_SUFFIX);
+	}
+	
+	/**
+	 * returns the journal file belonging to the given save file
+	 * which is used while a compaction is running
+	 * @param saveFile the save file
+	 * @return the compacting journal {@link File}
+	 */
+	public static File compactingFileOf(File saveFile) {
+		return new File(saveFile.getPath() + COMPACTING_SUFFIX);
+	}
+	
+	/**
+	 * applies all journaled changes for the given save file to the given project,
+	 * which has to be freshly loaded from that save file.
+	 * A record which was cut off by a crash ends the replay. A journal which
+	 * the save file already contains is deleted instead of replayed.
+	 * @param saveFile the save file the project was loaded from
+	 * @param project the project to apply the changes to
+	 * @throws IOException when a journal file could not be read
+	 */
+	public static void replay(File saveFile, SimeTimerProject project) throws IOException {
+		replayFile(compactingFileOf(saveFile), project);
+		replayFile(journalFileOf(saveFile), project);
+	}
+	
+	/**
+	 * applies all records in the given journal file to the given project,
+	 * or deletes the journal file if the project already contains them
+	 * @param journalFile the journal file to read
+	 * @param project the project to apply the changes to
+	 * @throws IOException when the journal file could not be read
+	 */
+	private static void replayFile(File journalFile, SimeTimerProject project) throws IOException {
+		if (isContained(journalFile, project)) {
+			Files.delete(journalFile.toPath());
+		} else {
+			readRecords(journalFile, new Replay(project));
+		}
+	}
+	
+	/**
+	 * checks whether the given project already contains the records of the given journal file.
+	 * Replayed in order, the first added chunk of a journal is keyed by the size of the project,
+	 * while a save file written after the journal holds at least all of its chunks.
+	 * A journal without added chunks only changes comments and is always replayed.
+	 * @param journalFile the journal file
+	 * @param project the project with all journals before this one applied
+	 * @return true if the project contains all records of the journal
+	 * @throws IOException when the journal file could not be read
+	 */
+	private static boolean isContained(File journalFile, SimeTimerProject project) throws IOException {
+		int[] firstIndex = {-1};
+		readRecords(journalFile, new RecordVisitor() {
+			@Override
+			public boolean chunkAdded(int index, long startDateMillis, long stoppedNanos, String comment) {
+				firstIndex[0] = index;
+				return false;
+			}
+			@Override
+			public boolean commentChanged(int index, String comment) {
+				return true;
+			}
+		});
+		return firstIndex[0] != -1 && firstIndex[0] < project.size();
+	}
+	
+	/**
+	 * reads the records in the given journal file, if it exists,
+	 * until the end or until the {@link RecordVisitor} stops
+	 * @param journalFile the journal file to read
+	 * @param visitor the {@link RecordVisitor} to hand the records to
+	 * @throws IOException when the journal file could not be read
+	 */
+	private static void readRecords(File journalFile, RecordVisitor visitor) throws IOException {
+		if (!journalFile.isFile()) {
+			return;
+		}
+		long length = journalFile.length();
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+			boolean more = true;
+			while (more) {
+				int type = input.read();
+				if (type == -1) {
+					break;
+				}
+				int index = input.readInt();
+				if (type == RECORD_CHUNK_ADDED || type == RECORD_CHUNK_ADDED_UTF || type == RECORD_CHUNK_ADDED_MILLIS) {
+					long startDateMillis = input.readLong();
+					long stoppedNanos = input.readLong();
+					String comment = type == RECORD_CHUNK_ADDED ? readComment(input, length) : input.readUTF();
+					if (type == RECORD_CHUNK_ADDED_MILLIS) {
+						stoppedNanos = TimeChunk.millisToNanos(stoppedNanos);
+					}
+					more = visitor.chunkAdded(index, startDateMillis, stoppedNanos, comment);
+				} else if (type == RECORD_COMMENT_CHANGED) {
+					more = visitor.commentChanged(index, readComment(input, length));
+				} else if (type == RECORD_COMMENT_CHANGED_UTF) {
+					more = visitor.commentChanged(index, input.readUTF());
+				} else {
+					throw new IllegalArgumentException("Unknown journal record");
+				}
+			}
+		} catch (EOFException e) {
+			// last record incomplete, was never acknowledged
+		}
+	}
+	
+	/**
+	 * reads a comment written by {@link #writeComment(DataOutputStream, String)}
+	 * @param input the stream to read from
+	 * @param fileLength the length of the journal file, which no comment can exceed
+	 * @return the comment
+	 * @throws EOFException when the journal ends within the comment
+	 * @throws IOException when the journal could not be read
+	 */
+	private static String readComment(DataInputStream input, long fileLength) throws IOException {
+		int length = input.readInt();
+		if (length < 0 || length > fileLength) {
+			throw new IllegalArgumentException("Journal record corrupted");
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * receives the records of a journal file in order, returning false to stop reading
+	 */
+	private interface RecordVisitor {
+		boolean chunkAdded(int index, long startDateMillis, long stoppedNanos, String comment);
+		boolean commentChanged(int index, String comment);
+	}
+	
+	/**
+	 * applies the records of a journal file to a project
+	 */
+	private static class Replay implements RecordVisitor {
+		private final SimeTimerProject project;
+		
+		Replay(SimeTimerProject project) {
+			this.project = project;
+		}
+		
+		@Override
+		public boolean chunkAdded(int index, long startDateMillis, long stoppedNanos, String comment) {
+			// out of order chunks are inserted at their sorted position again
+			project.addTimeChunkNanos(startDateMillis, stoppedNanos, comment);
+			return true;
+		}
+		
+		@Override
+		public boolean commentChanged(int index, String comment) {
+			if (index < project.size()) {
+				project.setComment(index, comment);
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * deletes all journal files belonging to the given save file.
+	 * Only to be called once the save file has been written in full.
+	 * @param saveFile the save file
+	 */
+	public static void discard(File saveFile) {
+		journalFileOf(saveFile).delete();
+		compactingFileOf(saveFile).delete();
+	}
+	
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+
+
+/**
+ * Loads a project file on a background thread while the {@link TimerEngine} stays usable.
+ * Every {@link SaveManager#LOAD_BATCH_SIZE} parsed {@link TimeChunk}s, the new ones are
+ * sorted and handed to the owner thread, which shows them with
+ * {@link TimerEngine#addLoadedChunks(SimeTimerProject)}. Only one batch is handed over
+ * at a time, the next one collects everything parsed in the meantime, so a busy
+ * owner thread leads to larger batches instead of a backlog.
+ * Once the file is parsed, its journaled changes are applied and the complete project
+ * is handed to the {@link Listener}, which passes it to {@link TimerEngine#loadFinished(SimeTimerProject)}.
+ *
+ * @author Simon Vetter
+ */
+public class ProjectLoader {
+	
+	/**
+	 * is told about the load on the owner thread. Nothing is reported after {@link #cancel()}.
+	 */
+	public interface Listener {
+		/**
+		 * @param percent the share of the file read so far, in percent
+		 */
+		void loadProgress(int percent);
+		/**
+		 * @param project the loaded {@link SimeTimerProject}, including its journaled changes
+		 */
+		void loadFinished(SimeTimerProject project);
+		/**
+		 * @param e the Exception that made the load fail
+		 */
+		void loadFailed(Exception e);
+	}
+	
+	private final TimerEngine engine;
+	private final File file;
+	private final int fileFormat;
+	private final Executor ownerExecutor;
+	private final Listener listener;
+	private final Thread thread;
+	
+	/**
+	 * set on the owner thread, the loading thread stops at its next batch
+	 */
+	private volatile boolean cancelled;
+	/**
+	 * true while a batch has been handed to the owner thread and not been shown yet
+	 */
+	private volatile boolean batchPending;
+	
+	// loading thread state
+	/**
+	 * the number of parsed {@link TimeChunk}s already handed to the owner thread
+	 */
+	private int handedOver;
+	
+	
+	
+	/**
+	 * constructor. Starts loading right away, {@link TimerEngine#loadStarted()} has to be called before.
+	 * @param engine the {@link TimerEngine} to show the loaded {@link TimeChunk}s in
+	 * @param file the file to load
+	 * @param fileFormat an int constant to represent the file format of the file
+	 * @param ownerExecutor runs tasks on the owner thread of the engine
+	 * @param listener the {@link Listener} to report to
+	 */
+	public ProjectLoader(TimerEngine engine, File file, int fileFormat, Executor ownerExecutor, Listener listener) {
+		this.engine = engine;
+		this.file = file;
+		this.fileFormat = fileFormat;
+		this.ownerExecutor = ownerExecutor;
+		this.listener = listener;
+		cancelled = false;
+		batchPending = false;
+		handedOver = 0;
+		thread = new Thread(this::load, "SimeTimer project loader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * returns the file being loaded
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * stops loading. Batches not shown yet are dropped and the {@link Listener} isn't called anymore.
+	 * To be called on the owner thread, followed by {@link TimerEngine#loadCancelled()}.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	
+	
+	// LOADING THREAD
+	
+	/**
+	 * loads the file and reports the result to the owner thread
+	 */
+	private void load() {
+		try {
+			SimeTimerProject project = SaveManager.readProject(file, fileFormat, this::chunksLoaded);
+			// apply changes which were journaled but not yet written to the save file
+			ProjectJournal.replay(file, project);
+			ownerExecutor.execute(() -> {
+				if (!cancelled) {
+					listener.loadFinished(project);
+				}
+			});
+		} catch (CancellationException e) {
+			// nothing to report
+		} catch (IOException | RuntimeException e) {
+			ownerExecutor.execute(() -> {
+				if (!cancelled) {
+					listener.loadFailed(e);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * hands the {@link TimeChunk}s parsed since the last batch to the owner thread,
+	 * unless the last batch is still waiting there
+	 * @param project the {@link TimeChunk}s parsed so far
+	 * @param progress the share of the file read so far
+	 * @return false if the load has been cancelled
+	 */
+	private boolean chunksLoaded(SimeTimerProject project, double progress) {
+		if (cancelled) {
+			return false;
+		}
+		if (batchPending) {
+			return true;
+		}
+		int size = project.size();
+		SimeTimerProject batch = new SimeTimerProject(size - handedOver);
+		for (int i = handedOver; i < size; i++) {
+			batch.appendTimeChunk(project.getStartDateMillis(i), project.getStoppedNanos(i), project.getComment(i));
+		}
+		batch.sortTimes();
+		handedOver = size;
+		int percent = (int) (progress * 100);
+		batchPending = true;
+		ownerExecutor.execute(() -> {
+			batchPending = false;
+			if (!cancelled) {
+				engine.addLoadedChunks(batch);
+				listener.loadProgress(percent);
+			}
+		});
+		return true;
+	}
+	
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+/**
+ * The table model behind the {@link SimeTimer}'s table.
+ * Reads directly from a {@link SimeTimerProject} instead of holding a copy
+ * of it, so cells are only formatted when the {@link JTable} asks for them,
+ * which it only does for visible rows.
+ * The formatted start dates and times of recently displayed rows are cached.
+ *
+ * @author Simon Vetter
+ */
+public class ProjectTableModel extends AbstractTableModel {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * index of the comment column, the only editable one
+	 */
+	public static final int COMMENT_COLUMN = 3;
+	/**
+	 * maximum number of rows whose formatted cells are cached
+	 */
+	public static final int CACHE_SIZE = 1024;
+	
+	private static final String[] COLUMN_NAMES = {"#", "Start date", "Time", "Comment"};
+	
+	private SimeTimerProject project;
+	/**
+	 * false while comments can't be edited, see {@link #setEditable(boolean)}
+	 */
+	private boolean editable = true;
+	
+	/**
+	 * formatted start date and time per row, evicting the least recently used row
+	 */
+	private final Map<Integer, String[]> formattedRows = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	
+	
+	/**
+	 * constructor
+	 * @param project the {@link SimeTimerProject} to display
+	 */
+	public ProjectTableModel(SimeTimerProject project) {
+		this.project = project;
+	}
+	
+	/**
+	 * replaces the displayed {@link SimeTimerProject}
+	 * @param project the {@link SimeTimerProject} to display
+	 */
+	public void setProject(SimeTimerProject project) {
+		long startNanos = System.nanoTime();
+		this.project = project;
+		formattedRows.clear();
+		fireTableDataChanged();
+		SimeTimerMetrics.METRICS.tableRefreshed(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * allows or forbids editing comments, for example while a project is loaded in the background
+	 * @param editable true if comments can be edited
+	 */
+	public void setEditable(boolean editable) {
+		this.editable = editable;
+	}
+	
+	/**
+	 * notifies the table that a comment has been set in the project directly.
+	 * Fires a row update, not a comment cell update, as the comment doesn't need saving anymore.
+	 * @param row the index of the {@link TimeChunk} whose comment was set
+	 */
+	public void commentSet(int row) {
+		fireTableRowsUpdated(row, row);
+	}
+	
+	/**
+	 * notifies the table that {@link TimeChunk}s have been added to the project
+	 * @param fromIndex the index of the first new {@link TimeChunk}
+	 * @param toIndex the index after the last new {@link TimeChunk}
+	 */
+	public void chunksAdded(int fromIndex, int toIndex) {
+		long startNanos = System.nanoTime();
+		if (toIndex < project.size()) {
+			// inserted in between, following rows have moved
+			formattedRows.clear();
+		}
+		if (fromIndex < toIndex) {
+			fireTableRowsInserted(fromIndex, toIndex - 1);
+		}
+		SimeTimerMetrics.METRICS.tableRefreshed(System.nanoTime() - startNanos);
+	}
+	
+	@Override
+	public int getRowCount() {
+		return project.size();
+	}
+	
+	@Override
+	public int getColumnCount() {
+		return COLUMN_NAMES.length;
+	}
+	
+	@Override
+	public String getColumnName(int column) {
+		return COLUMN_NAMES[column];
+	}
+	
+	@Override
+	public Class<?> getColumnClass(int column) {
+		return String.class;
+	}
+	
+	@Override
+	public boolean isCellEditable(int row, int column) {
+		return editable && column == COMMENT_COLUMN;
+	}
+	
+	@Override
+	public Object getValueAt(int row, int column) {
+		switch (column) {
+			case 0:
+				return Integer.toString(row + 1);
+			case 1:
+			case 2:
+				return formattedRow(row)[column - 1];
+			case COMMENT_COLUMN:
+				return project.getComment(row);
+			default:
+				throw new IndexOutOfBoundsException("Column " + column + " out of bounds");
+		}
+	}
+	
+	/**
+	 * stores an edited comment in the project.
+	 * Only fires an update event if the comment actually changed.
+	 */
+	@Override
+	public void setValueAt(Object value, int row, int column) {
+		if (column != COMMENT_COLUMN) {
+			return;
+		}
+		String comment = value != null ? value.toString() : "";
+		if (!comment.equals(project.getComment(row))) {
+			project.setComment(row, comment);
+			fireTableCellUpdated(row, column);
+		}
+	}
+	
+	/**
+	 * returns the formatted start date and time of the given row, from the cache if possible
+	 * @param row the row index
+	 * @return an array holding the formatted start date and time
+	 */
+	private String[] formattedRow(int row) {
+		String[] result = formattedRows.get(row);
+		if (result == null) {
+			result = new String[] {
+					TimeFormatter.dateToString(project.getStartDateMillis(row)),
+					TimeFormatter.timeToString(project.getStoppedTime(row))
+			};
+			formattedRows.put(row, result);
+		}
+		return result;
+	}
+	
+}
@@ -19,6 +19,19 @@ package simetimer;
 
 import javax.swing.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 
 
@@ -35,7 +48,9 @@ public class SaveManager {
 	 * File format PLAIN:
 	 * Uses a plain text format and stores each {@link TimeChunk} in
 	 * one line, represented as start date (long) in milliseconds, followed by
-	 * a separator (constant) and the stopped time (long) in milliseconds.
+	 * a separator (constant) and the stopped time in whole milliseconds, so files
+	 * stay readable by older versions. Stopped times with up to six decimal places
+	 * are read as well.
 	 * The lines are separated with {@link System}.lineSeparator()s.
 	 */
 	public static final int FILE_FORMAT_PLAIN = 0x504C4149;
@@ -43,9 +58,66 @@ public class SaveManager {
 	 * File format BYTE:
 	 * Uses byte coding and stores all the {@link TimeChunk}s in sequence,
 	 * each represented as start date (long) in milliseconds and the
-	 * stopped time (long) in milliseconds.
+	 * stopped time (long) in milliseconds. Sub-millisecond parts are not stored.
 	 */
 	public static final int FILE_FORMAT_BYTE = 0x42595445;
+	/**
+	 * File format MAPPED:
+	 * Uses a header followed by fixed-width columns for start dates, stopped times
+	 * and comment offsets, plus a separate heap for the comments.
+	 * The file is read through a memory mapping, so any {@link TimeChunk} can be
+	 * accessed without decoding the ones before it. See {@link MappedProjectFile}.
+	 */
+	public static final int FILE_FORMAT_MAPPED = 0x4D415050;
+	/**
+	 * File format DICTIONARY:
+	 * Uses byte coding with a comment dictionary. A header holding the format,
+	 * the {@link #DICTIONARY_VERSION}, the number of distinct comments and the number
+	 * of {@link TimeChunk}s is followed by every distinct comment once, as its length
+	 * in bytes (int) and its UTF-8 bytes. Then each {@link TimeChunk} is represented as
+	 * start date (long) in milliseconds, stopped time (long) in nanoseconds and the
+	 * position of its comment in the dictionary (int), so repeated comments cost
+	 * four bytes each instead of their text.
+	 */
+	public static final int FILE_FORMAT_DICTIONARY = 0x44494354;
+	/**
+	 * File format DELTA:
+	 * Uses variable length byte coding and stores all the {@link TimeChunk}s in sequence,
+	 * each represented as the difference of its start date in milliseconds to the previous one,
+	 * its stopped time in nanoseconds and a comment code, which refers to an earlier
+	 * comment or is followed by a new one. Small numbers take few bytes, so sorted projects
+	 * with short {@link TimeChunk}s are stored in a fraction of the space. See {@link DeltaCoder}.
+	 */
+	public static final int FILE_FORMAT_DELTA = 0x44454C54;
+	/**
+	 * File format BLOCK:
+	 * Stores the {@link TimeChunk}s sorted by start date in blocks, each coded like
+	 * {@link #FILE_FORMAT_DELTA} and compressed on its own, followed by an index
+	 * of the blocks' first start dates, sizes and positions. A date range or the latest
+	 * {@link TimeChunk}s can be loaded without decompressing the other blocks,
+	 * and blocks are compressed and decompressed in parallel. See {@link BlockProjectFile}.
+	 */
+	public static final int FILE_FORMAT_BLOCK = 0x424C4F43;
+	
+	/**
+	 * all supported file formats, in the order they are offered to the user
+	 */
+	public static final int[] FILE_FORMATS = {FILE_FORMAT_PLAIN, FILE_FORMAT_BYTE, FILE_FORMAT_MAPPED,
+			FILE_FORMAT_DICTIONARY, FILE_FORMAT_DELTA, FILE_FORMAT_BLOCK};
+	/**
+	 * display names for the file formats in {@link #FILE_FORMATS}
+	 */
+	public static final String[] FILE_FORMAT_NAMES = {"Plain text", "Byte coded", "Mapped", "Dictionary coded",
+			"Delta coded", "Block compressed"};
+	
+	/**
+	 * the version of the DICTIONARY file format written
+	 */
+	static final int DICTIONARY_VERSION = 1;
+	/**
+	 * the buffer size of the streams of the DICTIONARY file format
+	 */
+	private static final int DICTIONARY_BUFFER_SIZE = 1 << 16;
 	
 	/**
 	 * Used to separate startDate and stoppedTime in the PLAIN file format
@@ -67,6 +139,25 @@ public class SaveManager {
 	private static final String REASON_FILE_CORRUPTED	= "The file could not be read.";
 	private static final String REASON_UNKNOWN			= "An unknown error occurred.";
 	
+	/**
+	 * is told about the progress of a load, on the loading thread
+	 */
+	public interface LoadListener {
+		/**
+		 * called every {@link #LOAD_BATCH_SIZE} loaded {@link TimeChunk}s
+		 * @param project the {@link TimeChunk}s loaded so far, in the order of the file,
+		 * 				  not sorted yet. Must only be read during the call.
+		 * @param progress the share of the file read so far, from 0 to 1
+		 * @return true to go on loading, false to cancel the load
+		 */
+		boolean chunksLoaded(SimeTimerProject project, double progress);
+	}
+	
+	/**
+	 * the number of {@link TimeChunk}s between two calls of a {@link LoadListener}
+	 */
+	public static final int LOAD_BATCH_SIZE = 1 << 14;
+	
 	
 	
 	
@@ -74,41 +165,26 @@ public class SaveManager {
 	// SAVE/LOAD PROJECTS
 	
 	/**
-	 * saves the given {@link SimeTimerProject} into the given {@link File}
-	 * using the given file format. Delegates the main work to a submethod
-	 * for each file format.
-	 * Handles Exceptions.
-	 * @param owner the {@link SimeTimer} to which {@link JOptionPane}s should be associated
-	 * @param project the {@link SimeTimerProject} to save
-	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
-	 * @param fileFormat an int constant to represent the file format to use
-	 * @return true if loading went without Exceptions, else false
+	 * shows the unified error message for a failed save.
+	 * The only place a failed save is reported in the GUI,
+	 * called by the {@link SaveService} on the event thread.
+	 * @param owner the {@link SimeTimer} to which the {@link JOptionPane} should be associated
+	 * @param e the {@link IOException} that made the save fail
 	 */
-	public static boolean saveProject(SimeTimer owner, SimeTimerProject project, File saveFile, int fileFormat) {
-		try {
-			if (fileFormat == FILE_FORMAT_PLAIN) {
-				saveProjectToPlainFile(project, saveFile);
-				return true;
-			} else if (fileFormat == FILE_FORMAT_BYTE) {
-				saveProjectToByteFile(project, saveFile);
-				return true;
-			} else {
-				throw new IllegalArgumentException("File format unknown");
-			}
-		} catch (FileNotFoundException e) {
+	static void showSaveError(SimeTimer owner, IOException e) {
+		if (e instanceof FileNotFoundException) {
 			// save file not found
 			JOptionPane.showMessageDialog(owner,
 					SAVING_FAILED + REASON_FILE_NOT_FOUND,
 					SAVE_ERROR,
 					JOptionPane.ERROR_MESSAGE);
-		} catch (IOException e) {
+		} else {
 			// unknown error
 			JOptionPane.showMessageDialog(owner,
 					SAVING_FAILED + REASON_UNKNOWN,
 					SAVE_ERROR,
 					JOptionPane.ERROR_MESSAGE);
 		}
-		return false;
 	}
 	
 	/**
@@ -123,34 +199,150 @@ public class SaveManager {
 	 */
 	public static SimeTimerProject loadProject(SimeTimer owner, File saveFile, int fileFormat) {
 		try {
-			if (fileFormat == FILE_FORMAT_PLAIN) {
-				return loadProjectFromPlainFile(saveFile);
-			} else if (fileFormat == FILE_FORMAT_BYTE) {
-				return loadProjectFromByteFile(saveFile);
-			} else {
-				throw new IllegalArgumentException("File format unknown");
-			}
-		} catch (FileNotFoundException e) {
+			SimeTimerProject result = readProject(saveFile, fileFormat);
+			// apply changes which were journaled but not yet written to the save file
+			ProjectJournal.replay(saveFile, result);
+			return result;
+		} catch (IOException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			showLoadError(owner, e);
+			return null;
+		}
+	}
+	
+	/**
+	 * shows the unified error message for a failed load
+	 * @param owner the {@link SimeTimer} to which the {@link JOptionPane} should be associated
+	 * @param e the Exception that made the load fail
+	 */
+	static void showLoadError(SimeTimer owner, Exception e) {
+		if (e instanceof FileNotFoundException) {
 			// save file not found
 			JOptionPane.showMessageDialog(owner,
 					LOADING_FAILED + REASON_FILE_NOT_FOUND,
 					LOAD_ERROR,
 					JOptionPane.ERROR_MESSAGE);
-			return null;
-		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+		} else if (e instanceof IllegalArgumentException || e instanceof IndexOutOfBoundsException) {
 			// save file corrupted
 			JOptionPane.showMessageDialog(owner,
 					LOADING_FAILED + REASON_FILE_CORRUPTED,
 					LOAD_ERROR,
 					JOptionPane.ERROR_MESSAGE);
-			return null;
-		} catch (IOException e) {
+		} else {
 			// unknown error
 			JOptionPane.showMessageDialog(owner,
 					LOADING_FAILED + REASON_UNKNOWN,
 					LOAD_ERROR,
 					JOptionPane.ERROR_MESSAGE);
-			return null;
+		}
+	}
+	
+	
+	
+	/**
+	 * saves the given {@link SimeTimerProject} into the given {@link File}
+	 * using the given file format, without handling Exceptions.
+	 * @param project the {@link SimeTimerProject} to save
+	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
+	 * @param fileFormat an int constant to represent the file format to use
+	 * @throws IOException when the file could not be written
+	 */
+	static void writeProject(SimeTimerProject project, File saveFile, int fileFormat) throws IOException {
+		long startNanos = System.nanoTime();
+		if (fileFormat == FILE_FORMAT_PLAIN) {
+			saveProjectToPlainFile(project, saveFile);
+		} else if (fileFormat == FILE_FORMAT_BYTE) {
+			saveProjectToByteFile(project, saveFile);
+		} else if (fileFormat == FILE_FORMAT_MAPPED) {
+			saveProjectToMappedFile(project, saveFile);
+		} else if (fileFormat == FILE_FORMAT_DICTIONARY) {
+			saveProjectToDictionaryFile(project, saveFile);
+		} else if (fileFormat == FILE_FORMAT_DELTA) {
+			saveProjectToDeltaFile(project, saveFile);
+		} else if (fileFormat == FILE_FORMAT_BLOCK) {
+			saveProjectToBlockFile(project, saveFile);
+		} else {
+			throw new IllegalArgumentException("File format unknown");
+		}
+		SimeTimerMetrics.METRICS.saved(System.nanoTime() - startNanos, saveFile.length());
+	}
+	
+	/**
+	 * saves the given {@link SimeTimerProject} into a temporary file next to the given
+	 * {@link File} and then replaces the given {@link File} with it, so that the
+	 * save file is never left half written.
+	 * @param project the {@link SimeTimerProject} to save
+	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
+	 * @param fileFormat an int constant to represent the file format to use
+	 * @throws IOException when the file could not be written or replaced
+	 */
+	static void writeProjectAtomically(SimeTimerProject project, File saveFile, int fileFormat) throws IOException {
+		File tempFile = new File(saveFile.getPath() + ".tmp");
+		writeProject(project, tempFile, fileFormat);
+		try {
+			Files.move(tempFile.toPath(), saveFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// file system doesn't support atomic moves
+			Files.move(tempFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the given {@link File} using the
+	 * given file format, without handling Exceptions.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param fileFormat an int constant to represent the file format to use
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws IOException when the file could not be read
+	 */
+	static SimeTimerProject readProject(File saveFile, int fileFormat) throws IOException {
+		return readProject(saveFile, fileFormat, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the given {@link File} using the
+	 * given file format, reporting the progress, without handling Exceptions.
+	 * Journaled changes are not applied.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param fileFormat an int constant to represent the file format to use
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws IOException when the file could not be read
+	 * @throws CancellationException when the listener cancelled the load
+	 */
+	static SimeTimerProject readProject(File saveFile, int fileFormat, LoadListener listener) throws IOException {
+		long startNanos = System.nanoTime();
+		SimeTimerProject result;
+		if (fileFormat == FILE_FORMAT_PLAIN) {
+			result = loadProjectFromPlainFileMapped(saveFile, listener);
+		} else if (fileFormat == FILE_FORMAT_BYTE) {
+			result = loadProjectFromByteFile(saveFile, listener);
+		} else if (fileFormat == FILE_FORMAT_MAPPED) {
+			result = loadProjectFromMappedFile(saveFile, listener);
+		} else if (fileFormat == FILE_FORMAT_DICTIONARY) {
+			result = loadProjectFromDictionaryFile(saveFile, listener);
+		} else if (fileFormat == FILE_FORMAT_DELTA) {
+			result = loadProjectFromDeltaFile(saveFile, listener);
+		} else if (fileFormat == FILE_FORMAT_BLOCK) {
+			result = loadProjectFromBlockFile(saveFile, listener);
+		} else {
+			throw new IllegalArgumentException("File format unknown");
+		}
+		SimeTimerMetrics.METRICS.loaded(System.nanoTime() - startNanos, saveFile.length());
+		return result;
+	}
+	
+	/**
+	 * tells a {@link LoadListener} about the progress of a load after every
+	 * {@link #LOAD_BATCH_SIZE} {@link TimeChunk}s. To be called after every loaded {@link TimeChunk}.
+	 * @param listener the {@link LoadListener}, or null for none
+	 * @param project the {@link TimeChunk}s loaded so far
+	 * @param progress the share of the file read so far
+	 * @throws CancellationException when the listener cancelled the load
+	 */
+	private static void chunkLoaded(LoadListener listener, SimeTimerProject project, double progress) {
+		if (listener != null && project.size() % LOAD_BATCH_SIZE == 0 && !listener.chunksLoaded(project, progress)) {
+			throw new CancellationException();
 		}
 	}
 	
@@ -173,11 +365,11 @@ public class SaveManager {
 		for (int i=0; i<project.size(); i++) {
 			output.write(i
 					+ SEPARATOR
-					+ project.getTimeChunk(i).getStartDate().getTime()
+					+ project.getStartDateMillis(i)
 					+ SEPARATOR
-					+ project.getTimeChunk(i).getStoppedTime()
+					+ project.getStoppedTime(i)
 					+ SEPARATOR
-					+ project.getTimeChunk(i).getComment()
+					+ project.getComment(i)
 					+ System.lineSeparator());
 		}
 		output.close();
@@ -195,14 +387,34 @@ public class SaveManager {
 	 */
 	public static SimeTimerProject loadProjectFromPlainFile(File saveFile)
 			throws FileNotFoundException, NumberFormatException, ArrayIndexOutOfBoundsException, IOException {
+		return loadProjectFromPlainFile(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromPlainFile(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when save file couldn't be found
+	 * @throws NumberFormatException when numbers could not be parsed
+	 * @throws ArrayIndexOutOfBoundsException when the file ended too soon
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromPlainFile(File saveFile, LoadListener listener)
+			throws FileNotFoundException, NumberFormatException, ArrayIndexOutOfBoundsException, IOException {
 		SimeTimerProject result = new SimeTimerProject();
 		BufferedReader input;
 		input = new BufferedReader(new FileReader(saveFile));
+		// characters as an estimate of the bytes read so far
+		double length = Math.max(1, saveFile.length());
+		long read = 0;
 		String line = input.readLine();
 		String[] split;
 		while (line != null && !line.isEmpty()) {
 			split = line.split(SEPARATOR, -1);
-			result.addTimeChunk(new TimeChunk(Long.parseLong(split[1]), Long.parseLong(split[2]), split[3]));
+			result.appendTimeChunk(Long.parseLong(split[1]), parsePlainTime(split[2]), split[3]);
+			read += line.length() + 1;
+			chunkLoaded(listener, result, Math.min(1, read / length));
 			line = input.readLine();
 		}
 		// try to close file
@@ -218,6 +430,338 @@ public class SaveManager {
 	
 	
 	
+	/**
+	 * formats a stopped time in milliseconds, with a sub-millisecond part
+	 * of six decimal places if there is one. The PLAIN format writes whole
+	 * milliseconds, but reads stopped times in this form.
+	 * @param nanos the stopped time in nanoseconds
+	 * @return the formatted stopped time
+	 */
+	static String formatPlainTime(long nanos) {
+		long millis = Math.abs(nanos / TimeChunk.NANOS_PER_MILLI);
+		long fraction = Math.abs(nanos % TimeChunk.NANOS_PER_MILLI);
+		String sign = nanos < 0 ? "-" : "";
+		if (fraction == 0) {
+			return sign + millis;
+		}
+		String digits = Long.toString(fraction + TimeChunk.NANOS_PER_MILLI);
+		return sign + millis + "." + digits.substring(1);
+	}
+	
+	/**
+	 * parses a stopped time in whole milliseconds or in the form of {@link #formatPlainTime(long)}
+	 * @param field the formatted stopped time
+	 * @return the stopped time in nanoseconds
+	 * @throws NumberFormatException when the field is not a valid stopped time
+	 * @throws IllegalArgumentException when the stopped time is out of range
+	 */
+	static long parsePlainTime(String field) throws NumberFormatException, IllegalArgumentException {
+		int dot = field.indexOf('.');
+		if (dot < 0) {
+			return TimeChunk.millisToNanos(Long.parseLong(field));
+		}
+		boolean negative = field.startsWith("-");
+		String millis = field.substring(negative ? 1 : 0, dot);
+		String fraction = field.substring(dot + 1);
+		if (millis.isEmpty() || !Character.isDigit(millis.charAt(0))
+				|| fraction.isEmpty() || fraction.length() > PLAIN_FRACTION_DIGITS
+				|| !fraction.chars().allMatch(Character::isDigit)) {
+			throw new NumberFormatException("Invalid stopped time: " + field);
+		}
+		long nanos = TimeChunk.millisToNanos(Long.parseLong(millis));
+		long fractionNanos = Long.parseLong(fraction);
+		for (int i = fraction.length(); i < PLAIN_FRACTION_DIGITS; i++) {
+			fractionNanos *= 10;
+		}
+		if (nanos > Long.MAX_VALUE - fractionNanos) {
+			throw new IllegalArgumentException("Invalid stopped time: " + field);
+		}
+		nanos += fractionNanos;
+		return negative ? -nanos : nanos;
+	}
+	
+	/**
+	 * maximum number of decimal places of a stopped time in the PLAIN format
+	 */
+	private static final int PLAIN_FRACTION_DIGITS = 6;
+	
+	
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file without creating
+	 * intermediate Strings. Reads the whole file into memory and parses the numeric
+	 * fields directly from its bytes; only the comments are decoded.
+	 * The file is read rather than mapped, as a mapping stays alive until it is
+	 * garbage collected and keeps Windows from replacing the file on the next save.
+	 * Reads the same files as {@link #loadProjectFromPlainFile(File)} and falls back
+	 * to it if the file is too large for a single buffer or the platform charset
+	 * doesn't encode digits and separators like ASCII.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when save file couldn't be found
+	 * @throws IllegalArgumentException when the file could not be parsed
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static SimeTimerProject loadProjectFromPlainFileMapped(File saveFile)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		return loadProjectFromPlainFileMapped(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromPlainFileMapped(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when save file couldn't be found
+	 * @throws IllegalArgumentException when the file could not be parsed
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromPlainFileMapped(File saveFile, LoadListener listener)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		if (!saveFile.isFile()) {
+			throw new FileNotFoundException(saveFile.getPath());
+		}
+		Charset charset = Charset.defaultCharset();
+		if (saveFile.length() > Integer.MAX_VALUE
+				|| !Arrays.equals(PLAIN_ASCII_CHARACTERS.getBytes(charset), PLAIN_ASCII_CHARACTERS.getBytes(StandardCharsets.US_ASCII))) {
+			return loadProjectFromPlainFile(saveFile, listener);
+		}
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(saveFile.toPath(), StandardOpenOption.READ)) {
+			buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read on
+			}
+		}
+		SimeTimerProject result = new PlainScanner(buffer.flip(), charset).parse(listener);
+		// no exceptions
+		result.sortTimes();
+		return result;
+	}
+	
+	/**
+	 * all characters the PLAIN format uses apart from comments
+	 */
+	private static final String PLAIN_ASCII_CHARACTERS = "\t\r\n-.0123456789";
+	
+	/**
+	 * parses files in the PLAIN format from a {@link ByteBuffer}
+	 */
+	private static class PlainScanner {
+		private final ByteBuffer buffer;
+		private final Charset charset;
+		private final int limit;
+		private int position;
+		/**
+		 * buffer for comment bytes, reused for every line
+		 */
+		private byte[] commentBytes = new byte[64];
+		private int previousCommentLength;
+		private String previousComment = "";
+		
+		PlainScanner(ByteBuffer buffer, Charset charset) {
+			this.buffer = buffer;
+			this.charset = charset;
+			this.limit = buffer.limit();
+			this.position = 0;
+		}
+		
+		/**
+		 * parses all lines up to the end of the buffer or the first empty line
+		 * @param listener the {@link LoadListener} to report the progress to, or null for none
+		 * @return a new {@link SimeTimerProject} with the parsed {@link TimeChunk}s
+		 */
+		SimeTimerProject parse(LoadListener listener) {
+			// assume lines of around 32 bytes for the initial capacity
+			SimeTimerProject result = new SimeTimerProject(Math.max(10, limit / 32));
+			while (position < limit && !isLineEnd(buffer.get(position))) {
+				skipField();
+				long startDate = parseLong();
+				long stoppedNanos = parseNanos();
+				result.appendTimeChunk(startDate, stoppedNanos, parseComment());
+				skipLineEnd();
+				chunkLoaded(listener, result, (double) position / limit);
+			}
+			return result;
+		}
+		
+		/**
+		 * skips the line index field, which is not needed
+		 */
+		private void skipField() {
+			while (position < limit && buffer.get(position) != '\t') {
+				if (isLineEnd(buffer.get(position))) {
+					throw new IllegalArgumentException("Line ended too soon");
+				}
+				position++;
+			}
+			expectSeparator();
+		}
+		
+		/**
+		 * parses a decimal long followed by a separator
+		 * @return the parsed number
+		 */
+		private long parseLong() {
+			boolean negative = parseSign();
+			long result = parseDigits();
+			expectSeparator();
+			return negative ? -result : result;
+		}
+		
+		/**
+		 * parses a stopped time in milliseconds with an optional sub-millisecond part,
+		 * followed by a separator, see {@link #formatPlainTime(long)}
+		 * @return the parsed stopped time in nanoseconds
+		 */
+		private long parseNanos() {
+			boolean negative = parseSign();
+			int start = position;
+			long result = parseDigits();
+			if (result > Long.MAX_VALUE / TimeChunk.NANOS_PER_MILLI) {
+				throw new NumberFormatException("Stopped time out of range at byte " + start);
+			}
+			result *= TimeChunk.NANOS_PER_MILLI;
+			if (position < limit && buffer.get(position) == '.') {
+				position++;
+				int fractionStart = position;
+				int digits = countDigits();
+				if (digits > PLAIN_FRACTION_DIGITS) {
+					throw new NumberFormatException("Too many decimal places at byte " + fractionStart);
+				}
+				long fraction = parseDigits();
+				for (int i = digits; i < PLAIN_FRACTION_DIGITS; i++) {
+					fraction *= 10;
+				}
+				if (result > Long.MAX_VALUE - fraction) {
+					throw new NumberFormatException("Stopped time out of range at byte " + start);
+				}
+				result += fraction;
+			}
+			expectSeparator();
+			return negative ? -result : result;
+		}
+		
+		/**
+		 * skips a minus sign, if present
+		 * @return true if there was a minus sign
+		 */
+		private boolean parseSign() {
+			boolean negative = position < limit && buffer.get(position) == '-';
+			if (negative) {
+				position++;
+			}
+			return negative;
+		}
+		
+		/**
+		 * counts the decimal digits at the current position without consuming them
+		 * @return the number of digits
+		 */
+		private int countDigits() {
+			int end = position;
+			while (end < limit && buffer.get(end) >= '0' && buffer.get(end) <= '9') {
+				end++;
+			}
+			return end - position;
+		}
+		
+		/**
+		 * parses a non-empty sequence of decimal digits
+		 * @return the parsed number
+		 * @throws NumberFormatException when there are no digits or the number doesn't fit a long
+		 */
+		private long parseDigits() {
+			int start = position;
+			long result = 0;
+			while (position < limit) {
+				int digit = buffer.get(position) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				if (result > (Long.MAX_VALUE - digit) / 10) {
+					throw new NumberFormatException("Number too large at byte " + start);
+				}
+				result = result * 10 + digit;
+				position++;
+			}
+			if (position == start) {
+				throw new NumberFormatException("Number expected at byte " + position);
+			}
+			return result;
+		}
+		
+		/**
+		 * decodes the comment up to the next separator or the end of the line.
+		 * Returns the previous comment's instance if the bytes are equal.
+		 * @return the comment
+		 */
+		private String parseComment() {
+			int start = position;
+			while (position < limit && buffer.get(position) != '\t' && !isLineEnd(buffer.get(position))) {
+				position++;
+			}
+			int length = position - start;
+			// further fields are ignored, like the split based parser does
+			while (position < limit && !isLineEnd(buffer.get(position))) {
+				position++;
+			}
+			if (length == 0) {
+				return "";
+			}
+			if (length == previousCommentLength && equalsPreviousComment(start, length)) {
+				return previousComment;
+			}
+			if (commentBytes.length < length) {
+				commentBytes = new byte[Math.max(length, commentBytes.length * 2)];
+			}
+			buffer.get(start, commentBytes, 0, length);
+			previousCommentLength = length;
+			previousComment = new String(commentBytes, 0, length, charset);
+			return previousComment;
+		}
+		
+		/**
+		 * compares the given bytes in the buffer to the previous comment's bytes
+		 * @param start the position of the first byte
+		 * @param length the number of bytes
+		 * @return true if all bytes are equal, else false
+		 */
+		private boolean equalsPreviousComment(int start, int length) {
+			for (int i = 0; i < length; i++) {
+				if (buffer.get(start + i) != commentBytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private void expectSeparator() {
+			if (position >= limit || buffer.get(position) != '\t') {
+				throw new IllegalArgumentException("Separator expected at byte " + position);
+			}
+			position++;
+		}
+		
+		/**
+		 * skips a line separator: "\n", "\r" or "\r\n", like {@link BufferedReader#readLine()}
+		 */
+		private void skipLineEnd() {
+			if (position < limit && buffer.get(position) == '\r') {
+				position++;
+			}
+			if (position < limit && buffer.get(position) == '\n') {
+				position++;
+			}
+		}
+		
+		private static boolean isLineEnd(byte b) {
+			return b == '\n' || b == '\r';
+		}
+	}
+	
+	
+	
 	// BYTE
 	
 	/**
@@ -234,11 +778,11 @@ public class SaveManager {
 		// for every TimeChunk:
 		for (int i=0; i<project.size(); i++) {
 			// write startDate as long
-			output.writeLong(project.getTimeChunk(i).getStartDate().getTime());
-			// write stoppedTime
-			output.writeLong(project.getTimeChunk(i).getStoppedTime());
+			output.writeLong(project.getStartDateMillis(i));
+			// write stoppedTime, milliseconds only
+			output.writeLong(project.getStoppedTime(i));
 			// write comment
-			output.writeUTF(project.getTimeChunk(i).getComment());
+			output.writeUTF(project.getComment(i));
 		}
 		output.close();
 	}
@@ -252,11 +796,27 @@ public class SaveManager {
 	 * @throws IOException when an unknown error occurred
 	 */
 	public static SimeTimerProject loadProjectFromByteFile(File saveFile) throws FileNotFoundException, IOException {
+		return loadProjectFromByteFile(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromByteFile(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromByteFile(File saveFile, LoadListener listener)
+			throws FileNotFoundException, IOException {
 		SimeTimerProject result = new SimeTimerProject();
 		DataInputStream input;
 		input = new DataInputStream(new FileInputStream(saveFile));
-		while (input.available() >= 2 * Long.BYTES) {
-			result.addTimeChunk(new TimeChunk(input.readLong(), input.readLong(), input.readUTF()));
+		double length = Math.max(1, saveFile.length());
+		int available;
+		while ((available = input.available()) >= 2 * Long.BYTES) {
+			result.appendTimeChunk(input.readLong(), TimeChunk.millisToNanos(input.readLong()), input.readUTF());
+			chunkLoaded(listener, result, 1 - available / length);
 		}
 		// try to close file
 		try {
@@ -271,6 +831,322 @@ public class SaveManager {
 	
 	
 	
+	// MAPPED
+	
+	/**
+	 * saves a given {@link SimeTimerProject} to the specified file.
+	 * Uses the fixed-width format described in {@link MappedProjectFile}.
+	 * @param project the {@link SimeTimerProject} to save
+	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static void saveProjectToMappedFile(SimeTimerProject project, File saveFile) throws IOException {
+		MappedProjectFile.write(project, saveFile);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file.
+	 * Can only read files written by {@link #saveProjectToMappedFile(SimeTimerProject, File)}.
+	 * Use {@link MappedProjectFile} directly to access single {@link TimeChunk}s
+	 * without loading the whole file.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the mapped format
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static SimeTimerProject loadProjectFromMappedFile(File saveFile)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		return loadProjectFromMappedFile(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromMappedFile(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the mapped format
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromMappedFile(File saveFile, LoadListener listener)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		if (!saveFile.isFile()) {
+			throw new FileNotFoundException(saveFile.getPath());
+		}
+		SimeTimerProject result;
+		try (MappedProjectFile input = new MappedProjectFile(saveFile)) {
+			if (listener == null) {
+				result = input.toProject();
+			} else {
+				int size = input.size();
+				result = new SimeTimerProject(size);
+				for (int i = 0; i < size; i++) {
+					result.appendTimeChunk(input.getStartDateMillis(i), input.getStoppedNanos(i), input.getComment(i));
+					chunkLoaded(listener, result, (double) (i + 1) / size);
+				}
+			}
+		}
+		result.sortTimes();
+		return result;
+	}
+	
+	
+	
+	// DICTIONARY
+	
+	/**
+	 * saves a given {@link SimeTimerProject} to the specified file.
+	 * Uses the dictionary coded file format.
+	 * @param project the {@link SimeTimerProject} to save
+	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static void saveProjectToDictionaryFile(SimeTimerProject project, File saveFile) throws IOException {
+		SimeTimerProject view = project.snapshot();
+		int size = view.size();
+		// code the comments first, the dictionary goes in front of the chunks
+		Map<String, Integer> codes = new HashMap<>();
+		List<String> dictionary = new ArrayList<>();
+		int[] commentCodes = new int[size];
+		for (int i = 0; i < size; i++) {
+			String comment = view.getComment(i) != null ? view.getComment(i) : "";
+			Integer code = codes.get(comment);
+			if (code == null) {
+				code = dictionary.size();
+				codes.put(comment, code);
+				dictionary.add(comment);
+			}
+			commentCodes[i] = code;
+		}
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(saveFile), DICTIONARY_BUFFER_SIZE))) {
+			output.writeInt(FILE_FORMAT_DICTIONARY);
+			output.writeInt(DICTIONARY_VERSION);
+			output.writeInt(dictionary.size());
+			output.writeInt(size);
+			for (String comment : dictionary) {
+				byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+			for (int i = 0; i < size; i++) {
+				output.writeLong(view.getStartDateMillis(i));
+				output.writeLong(view.getStoppedNanos(i));
+				output.writeInt(commentCodes[i]);
+			}
+		}
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file.
+	 * Can only read files written by {@link #saveProjectToDictionaryFile(SimeTimerProject, File)}.
+	 * Every distinct comment is read into a single instance shared by all its {@link TimeChunk}s.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the dictionary format
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static SimeTimerProject loadProjectFromDictionaryFile(File saveFile)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		return loadProjectFromDictionaryFile(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromDictionaryFile(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the dictionary format
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromDictionaryFile(File saveFile, LoadListener listener)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		SimeTimerProject result;
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(saveFile), DICTIONARY_BUFFER_SIZE))) {
+			if (saveFile.length() < 4 * Integer.BYTES || input.readInt() != FILE_FORMAT_DICTIONARY) {
+				throw new IllegalArgumentException("Not a dictionary coded project file");
+			}
+			int version = input.readInt();
+			if (version != DICTIONARY_VERSION) {
+				throw new IllegalArgumentException("Unknown dictionary coded project file version " + version);
+			}
+			int dictionarySize = input.readInt();
+			int size = input.readInt();
+			// every comment takes at least its length and every chunk two longs and a code,
+			// so counts the file can't hold are refused before anything is allocated for them
+			long remaining = saveFile.length() - 4 * Integer.BYTES;
+			if (dictionarySize < 0 || size < 0 || dictionarySize > remaining / Integer.BYTES
+					|| size > (remaining - (long) dictionarySize * Integer.BYTES) / (2 * Long.BYTES + Integer.BYTES)) {
+				throw new IllegalArgumentException("Dictionary coded project file header corrupted");
+			}
+			String[] dictionary = new String[dictionarySize];
+			for (int i = 0; i < dictionarySize; i++) {
+				int length = input.readInt();
+				if (length < 0 || length > saveFile.length()) {
+					throw new IllegalArgumentException("Dictionary coded project file corrupted");
+				}
+				byte[] bytes = new byte[length];
+				input.readFully(bytes);
+				dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			result = new SimeTimerProject(size);
+			for (int i = 0; i < size; i++) {
+				long startDateMillis = input.readLong();
+				long stoppedNanos = input.readLong();
+				// an invalid code fails with an IndexOutOfBoundsException
+				result.appendTimeChunk(startDateMillis, stoppedNanos, dictionary[input.readInt()]);
+				chunkLoaded(listener, result, (double) (i + 1) / size);
+			}
+		}
+		result.sortTimes();
+		return result;
+	}
+	
+	
+	
+	// DELTA
+	
+	/**
+	 * saves a given {@link SimeTimerProject} to the specified file.
+	 * Uses the delta coded file format.
+	 * @param project the {@link SimeTimerProject} to save
+	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static void saveProjectToDeltaFile(SimeTimerProject project, File saveFile) throws IOException {
+		try (DeltaCoder.Encoder output = new DeltaCoder.Encoder(new FileOutputStream(saveFile))) {
+			output.writeAll(project);
+		}
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file.
+	 * Can only read files written by {@link #saveProjectToDeltaFile(SimeTimerProject, File)}.
+	 * Every distinct comment is read into a single instance shared by all its {@link TimeChunk}s.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the delta format
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static SimeTimerProject loadProjectFromDeltaFile(File saveFile)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		return loadProjectFromDeltaFile(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromDeltaFile(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the delta format
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromDeltaFile(File saveFile, LoadListener listener)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		SimeTimerProject result = new SimeTimerProject();
+		double length = Math.max(1, saveFile.length());
+		try (DeltaCoder.Decoder input = new DeltaCoder.Decoder(new FileInputStream(saveFile))) {
+			while (input.next()) {
+				result.appendTimeChunk(input.getStartDateMillis(), input.getStoppedNanos(), input.getComment());
+				chunkLoaded(listener, result, input.getPosition() / length);
+			}
+		}
+		result.sortTimes();
+		return result;
+	}
+	
+	
+	
+	// BLOCK
+	
+	/**
+	 * saves a given {@link SimeTimerProject} to the specified file.
+	 * Uses the block compressed format described in {@link BlockProjectFile}.
+	 * @param project the {@link SimeTimerProject} to save
+	 * @param saveFile the {@link File} to save the {@link SimeTimerProject} in
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static void saveProjectToBlockFile(SimeTimerProject project, File saveFile) throws IOException {
+		BlockProjectFile.write(project, saveFile);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file.
+	 * Can only read files written by {@link #saveProjectToBlockFile(SimeTimerProject, File)}.
+	 * Use {@link BlockProjectFile} directly to load only a date range or the latest {@link TimeChunk}s.
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the block format
+	 * @throws IOException when an unknown error occurred
+	 */
+	public static SimeTimerProject loadProjectFromBlockFile(File saveFile)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		return loadProjectFromBlockFile(saveFile, null);
+	}
+	
+	/**
+	 * loads a {@link SimeTimerProject} from the specified file, see {@link #loadProjectFromBlockFile(File)}
+	 * @param saveFile the {@link File} to load the {@link SimeTimerProject} from
+	 * @param listener the {@link LoadListener} to report the progress to, or null for none
+	 * @return a new {@link SimeTimerProject} with the data from the file
+	 * @throws FileNotFoundException when the save file could not be found
+	 * @throws IllegalArgumentException when the file is not in the block format
+	 * @throws IOException when an unknown error occurred
+	 */
+	static SimeTimerProject loadProjectFromBlockFile(File saveFile, LoadListener listener)
+			throws FileNotFoundException, IllegalArgumentException, IOException {
+		if (!saveFile.isFile()) {
+			throw new FileNotFoundException(saveFile.getPath());
+		}
+		SimeTimerProject result;
+		try (BlockProjectFile input = new BlockProjectFile(saveFile)) {
+			if (listener == null) {
+				result = input.toProject();
+			} else {
+				int size = input.size();
+				SimeTimerProject project = new SimeTimerProject(size);
+				input.appendBlocks(0, input.getBlockCount(), project,
+						() -> chunkLoaded(listener, project, (double) project.size() / size));
+				result = project;
+			}
+		}
+		return result;
+	}
+	
+	
+	
+	/**
+	 * checks whether the given int constant represents a supported file format
+	 * @param fileFormat the int constant to check
+	 * @return true if the file format is one of {@link #FILE_FORMATS}, else false
+	 */
+	public static boolean isFileFormat(int fileFormat) {
+		return fileFormatIndex(fileFormat) != -1;
+	}
+	
+	/**
+	 * returns the position of the given file format in {@link #FILE_FORMATS}
+	 * @param fileFormat an int constant to represent the file format
+	 * @return the position of the file format, or -1 if it is unknown
+	 */
+	public static int fileFormatIndex(int fileFormat) {
+		for (int i = 0; i < FILE_FORMATS.length; i++) {
+			if (FILE_FORMATS[i] == fileFormat) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	
+	
 	// SAVE/LOAD PREFERENCES
 	
 	/**
@@ -288,8 +1164,8 @@ public class SaveManager {
 			DataOutputStream output = new DataOutputStream(new FileOutputStream(PREF_FILE_PATH));
 			// write data
 			// options:
-			for (boolean boolOption : boolOptions) {
-				output.writeBoolean(boolOption);
+			for (int i=0; i<ConfigManager.FIRST_LAYOUT_BOOL_OPTIONS; i++) {
+				output.writeBoolean(boolOptions[i]);
 			}
 			output.writeInt(tableSize);
 			output.writeInt(fileFormat);
@@ -300,6 +1176,10 @@ public class SaveManager {
 			if (usedFile != null) {
 				output.writeUTF(usedFile.getAbsolutePath());
 			}
+			// options added later:
+			for (int i=ConfigManager.FIRST_LAYOUT_BOOL_OPTIONS; i<boolOptions.length; i++) {
+				output.writeBoolean(boolOptions[i]);
+			}
 			output.close();
 		} catch (IOException | NullPointerException e) {
 			// unknown error
@@ -318,7 +1198,7 @@ public class SaveManager {
 	 */
 	static boolean loadAndSetConfig(ConfigManager callback) {
 		// set default values
-		boolean[] boolOptions = ConfigManager.DEFAULT_BOOL_OPTIONS;
+		boolean[] boolOptions = ConfigManager.DEFAULT_BOOL_OPTIONS.clone();
 		int tableSize = ConfigManager.DEFAULT_TABLE_SIZE;
 		int fileFormat = ConfigManager.DEFAULT_FILE_FORMAT;
 		int xPosition = ConfigManager.DEFAULT_X_POSITION;
@@ -332,7 +1212,7 @@ public class SaveManager {
 			input = new DataInputStream(new FileInputStream(PREF_FILE_PATH));
 			// read data
 			// options:
-			for (int i=0; i<boolOptions.length; i++) {
+			for (int i=0; i<ConfigManager.FIRST_LAYOUT_BOOL_OPTIONS; i++) {
 				boolOptions[i] = input.readBoolean();
 			}
 			tableSize = input.readInt();
@@ -343,6 +1223,14 @@ public class SaveManager {
 			if (input.readBoolean()) {
 				usedPath = input.readUTF();
 			}
+			// options added later, missing in files of older versions:
+			try {
+				for (int i=ConfigManager.FIRST_LAYOUT_BOOL_OPTIONS; i<boolOptions.length; i++) {
+					boolOptions[i] = input.readBoolean();
+				}
+			} catch (EOFException e) {
+				// keep the defaults of the missing ones
+			}
 		} catch (FileNotFoundException e) {
 			// preferences file couldn't be found
 			System.out.println("Preferences file not found, using defaults.");
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+
+/**
+ * Performs all project saving of the {@link SimeTimer} on a single background
+ * writer thread, so a slow disk never blocks the event thread.
+ * Full saves and {@link ProjectJournal} records are written strictly in the order
+ * they were requested. Full saves requested while an earlier one is still waiting
+ * are collapsed into one, and every full save goes to a temporary file first which
+ * then replaces the save file.
+ * <p>
+ * Every request carries a version number. The highest version known to be on
+ * disk can be queried with {@link #getSavedVersion()}, failures are reported
+ * to a {@link FailureListener} on the owner thread.
+ * All methods except {@link #getSavedVersion()} are meant to be called from
+ * the owner thread, which is the event thread unless another one is given.
+ *
+ * @author Simon Vetter
+ */
+public class SaveService {
+	
+	/**
+	 * receives failed saves on the owner thread
+	 */
+	public interface FailureListener {
+		/**
+		 * called on the owner thread when a save request failed.
+		 * Once a request failed, the journal is closed.
+		 * @param e the {@link IOException} that made the save fail
+		 */
+		void saveFailed(IOException e);
+	}
+	
+	private final FailureListener listener;
+	/**
+	 * runs tasks on the owner thread
+	 */
+	private final Executor ownerExecutor;
+	
+	/**
+	 * the single writer thread
+	 */
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "SimeTimer save service");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	// owner thread state
+	/**
+	 * the last requested full save, as long as no other request has been queued after it
+	 */
+	private FullSave queuedSave;
+	/**
+	 * save file and file format of the journal as requested, or null if it is closed
+	 */
+	private File journalFile;
+	private int journalFileFormat;
+	
+	// writer thread state
+	private ProjectJournal journal;
+	/**
+	 * the highest version which has been written successfully
+	 */
+	private volatile long savedVersion;
+	/**
+	 * true from a reported failure until the next successful write,
+	 * so the writes failing along with it aren't reported again
+	 */
+	private boolean failing;
+	
+	
+	
+	/**
+	 * constructor. Starts the writer thread on first use.
+	 * The event thread is the owner thread.
+	 * @param listener the {@link FailureListener} to report failed saves to
+	 */
+	public SaveService(FailureListener listener) {
+		this(listener, SwingUtilities::invokeLater);
+	}
+	
+	/**
+	 * constructor. Starts the writer thread on first use.
+	 * @param listener the {@link FailureListener} to report failed saves to
+	 * @param ownerExecutor runs tasks on the owner thread
+	 */
+	public SaveService(FailureListener listener, Executor ownerExecutor) {
+		this.listener = listener;
+		this.ownerExecutor = ownerExecutor;
+		savedVersion = 0;
+	}
+	
+	/**
+	 * returns the highest version that has been written successfully.
+	 * Can be called from any thread.
+	 * @return the highest saved version
+	 */
+	public long getSavedVersion() {
+		return savedVersion;
+	}
+	
+	
+	
+	// REQUESTS
+	
+	/**
+	 * requests a full save of the given snapshot. If an earlier full save to the same file
+	 * is still waiting, it is replaced by this one. Once the save is done,
+	 * the journal is open for the saved file.
+	 * @param snapshot a read-only snapshot of the project to save, see {@link SimeTimerProject#snapshot()}
+	 * @param saveFile the {@link File} to save the project in
+	 * @param fileFormat an int constant to represent the file format to use
+	 * @param version the version of the project contained in the snapshot
+	 */
+	public void saveProject(SimeTimerProject snapshot, File saveFile, int fileFormat, long version) {
+		journalFile = saveFile;
+		journalFileFormat = fileFormat;
+		if (queuedSave != null && queuedSave.replace(snapshot, saveFile, fileFormat, version)) {
+			return;
+		}
+		queuedSave = new FullSave(snapshot, saveFile, fileFormat, version);
+		writer.execute(queuedSave);
+	}
+	
+	/**
+	 * opens the journal for a save file which contains the current project,
+	 * for example because the project has just been loaded from it
+	 * @param saveFile the save file
+	 * @param fileFormat the file format the save file is written in
+	 */
+	public void openJournal(File saveFile, int fileFormat) {
+		journalFile = saveFile;
+		journalFileFormat = fileFormat;
+		enqueue(() -> {
+			if (journal != null) {
+				journal.close();
+			}
+			journal = new ProjectJournal(saveFile, fileFormat);
+		});
+	}
+	
+	/**
+	 * closes the journal, so the next change has to be saved in full
+	 */
+	public void closeJournal() {
+		if (journalFile == null) {
+			return;
+		}
+		journalFile = null;
+		enqueue(() -> {
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+		});
+	}
+	
+	/**
+	 * checks whether changes to the given save file can be appended to the journal
+	 * @param saveFile the save file
+	 * @param fileFormat the file format the save file is written in
+	 * @return true if the journal is open for the given save file and file format
+	 */
+	public boolean isJournalOpen(File saveFile, int fileFormat) {
+		return journalFile != null && journalFile.equals(saveFile) && journalFileFormat == fileFormat;
+	}
+	
+	/**
+	 * requests a journal record for an added {@link TimeChunk}
+	 * @param snapshot a read-only snapshot of the project including the added {@link TimeChunk}
+	 * @param timeChunk the added {@link TimeChunk}
+	 * @param version the version of the project contained in the snapshot
+	 */
+	public void journalChunkAdded(SimeTimerProject snapshot, TimeChunk timeChunk, long version) {
+		int ordinal = snapshot.size() - 1;
+		enqueueJournal(version, journal -> {
+			journal.appendChunkAdded(ordinal, timeChunk);
+			journal.compactIfNeeded(snapshot);
+		});
+	}
+	
+	/**
+	 * requests journal records for a batch of added {@link TimeChunk}s, written at once
+	 * @param snapshot a read-only snapshot of the project including the added {@link TimeChunk}s
+	 * @param chunks the added {@link TimeChunk}s, in the order they were added. Must not be changed anymore.
+	 * @param version the version of the project contained in the snapshot
+	 */
+	public void journalChunksAdded(SimeTimerProject snapshot, SimeTimerProject chunks, long version) {
+		int firstOrdinal = snapshot.size() - chunks.size();
+		enqueueJournal(version, journal -> {
+			for (int i = 0; i < chunks.size(); i++) {
+				journal.appendChunkAdded(firstOrdinal + i, TimeChunk.ofNanos(chunks.getStartDateMillis(i),
+						chunks.getStoppedNanos(i), chunks.getComment(i)));
+			}
+			journal.compactIfNeeded(snapshot);
+		});
+	}
+	
+	/**
+	 * requests a journal record for a changed comment
+	 * @param snapshot a read-only snapshot of the project including the changed comment
+	 * @param index the index of the changed {@link TimeChunk}
+	 * @param version the version of the project contained in the snapshot
+	 */
+	public void journalCommentChanged(SimeTimerProject snapshot, int index, long version) {
+		String comment = snapshot.getComment(index);
+		enqueueJournal(version, journal -> {
+			journal.appendCommentChanged(index, comment);
+			journal.compactIfNeeded(snapshot);
+		});
+	}
+	
+	/**
+	 * waits until all requests made so far have been written
+	 */
+	public void flush() {
+		try {
+			writer.submit(() -> {}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// empty task cannot fail
+		}
+	}
+	
+	
+	
+	// WRITER THREAD
+	
+	/**
+	 * queues a task which is not a full save, so later full saves can't be collapsed into earlier ones
+	 * @param task the task to run on the writer thread
+	 */
+	private void enqueue(Runnable task) {
+		queuedSave = null;
+		writer.execute(task);
+	}
+	
+	/**
+	 * a write to the open journal
+	 */
+	private interface JournalWrite {
+		void writeTo(ProjectJournal journal) throws IOException;
+	}
+	
+	/**
+	 * queues a write to the journal. If the journal has been closed
+	 * because of an earlier failure, the write fails as well
+	 * without being reported again.
+	 * @param version the version of the project after the journaled change
+	 * @param write the write to perform
+	 */
+	private void enqueueJournal(long version, JournalWrite write) {
+		enqueue(() -> {
+			try {
+				if (journal == null) {
+					throw new IOException("Journal is closed");
+				}
+				long startNanos = System.nanoTime();
+				write.writeTo(journal);
+				SimeTimerMetrics.METRICS.journalWritten(System.nanoTime() - startNanos);
+				saved(version);
+			} catch (IOException e) {
+				failed(e);
+			}
+		});
+	}
+	
+	/**
+	 * records a successfully written version
+	 * @param version the version that has been written
+	 */
+	private void saved(long version) {
+		failing = false;
+		if (version > savedVersion) {
+			savedVersion = version;
+		}
+	}
+	
+	/**
+	 * closes the journal after a failure and reports it on the owner thread,
+	 * unless a failure has been reported since the last successful write
+	 * @param e the {@link IOException} that made the save fail
+	 */
+	private void failed(IOException e) {
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		if (failing) {
+			return;
+		}
+		failing = true;
+		ownerExecutor.execute(() -> {
+			journalFile = null;
+			listener.saveFailed(e);
+		});
+	}
+	
+	/**
+	 * a full save which can be replaced by a newer one as long as it hasn't started
+	 */
+	private class FullSave implements Runnable {
+		private SimeTimerProject snapshot;
+		private final File saveFile;
+		private final int fileFormat;
+		private long version;
+		private boolean started;
+		
+		FullSave(SimeTimerProject snapshot, File saveFile, int fileFormat, long version) {
+			this.snapshot = snapshot;
+			this.saveFile = saveFile;
+			this.fileFormat = fileFormat;
+			this.version = version;
+			this.started = false;
+		}
+		
+		/**
+		 * replaces the snapshot to save if the save hasn't started yet
+		 * @return true if the snapshot has been replaced, false if a new save is needed
+		 */
+		synchronized boolean replace(SimeTimerProject snapshot, File saveFile, int fileFormat, long version) {
+			if (started || !this.saveFile.equals(saveFile) || this.fileFormat != fileFormat) {
+				return false;
+			}
+			this.snapshot = snapshot;
+			this.version = version;
+			return true;
+		}
+		
+		@Override
+		public void run() {
+			SimeTimerProject snapshot;
+			long version;
+			synchronized (this) {
+				started = true;
+				snapshot = this.snapshot;
+				version = this.version;
+			}
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+			try {
+				SaveManager.writeProjectAtomically(snapshot, saveFile, fileFormat);
+				// all journaled changes are contained in the save file now
+				ProjectJournal.discard(saveFile);
+				journal = new ProjectJournal(saveFile, fileFormat);
+				saved(version);
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+	}
+	
+}
@@ -18,18 +18,19 @@
 package simetimer;
 
 import javax.swing.*;
+import javax.swing.event.TableModelEvent;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumnModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
 import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
 
 
 
@@ -135,16 +136,17 @@ public class SimeTimer extends JFrame {
 		}
 	}
 	/**
-	 * the system's main screen width, set at runtime
+	 * the system's main screen width, set at runtime, 0 if there is no screen
 	 */
-	public static final int SCREEN_WIDTH = Toolkit.getDefaultToolkit().getScreenSize().width;
+	public static final int SCREEN_WIDTH = GraphicsEnvironment.isHeadless() ? 0 : Toolkit.getDefaultToolkit().getScreenSize().width;
 	/**
-	 * the system's main screen height, set at runtime
+	 * the system's main screen height, set at runtime, 0 if there is no screen
 	 */
-	public static final int SCREEN_HEIGHT = Toolkit.getDefaultToolkit().getScreenSize().height;
+	public static final int SCREEN_HEIGHT = GraphicsEnvironment.isHeadless() ? 0 : Toolkit.getDefaultToolkit().getScreenSize().height;
 	
 	public static final String WINDOW_TITLE_NO_FILE		= "SimeTimer";
 	public static final String WINDOW_TITLE_FILE_LOADED	= "SimeTimer  –  ";
+	public static final String WINDOW_TITLE_LOADING		= "SimeTimer  –  loading ";
 	
 	
 	
@@ -160,35 +162,79 @@ public class SimeTimer extends JFrame {
 	private final JButton loadButton = new JButton();
 	private final JButton resetButton = new JButton();
 	// table
-	private final JTable table = new JTable(0, 3);
-	private DefaultTableModel tableModel;
+	private final JTable table = new JTable();
+	private ProjectTableModel tableModel;
 	private final JScrollPane tableScrollPane = new JScrollPane(table);
 	
 	
 	// logic variables
-	private long currentStartTime;
-	private long lastProjectTime;
-	private boolean unsavedData;
+	private long lastProjectNanos;
 
-	// objects for timed task
-	private TimerTask displayTask;
-	private Timer displayTimer;
+	// running time display
+	private final DisplayRefresher displayRefresher = new DisplayRefresher(this::refreshTimeLabels);
+	/**
+	 * the times currently shown in the time labels, to skip unchanged updates
+	 */
+	private long displayedTotalTime = Long.MIN_VALUE;
+	private long displayedChunkTime = Long.MIN_VALUE;
 	
 	// project and saving
-	private SimeTimerProject project;
 	ConfigManager config;
+	private final TimerEngine engine;
+	/**
+	 * accepts commands from other programs, null unless {@link ControlServer#CONTROL_OPTION} was given
+	 */
+	private ControlServer controlServer;
+	/**
+	 * loads the last used project in the background, null while no project is being loaded
+	 */
+	private ProjectLoader projectLoader;
 	
 	
 	
 	/**
-	 * constructor. Initializes frame and sets layout
+	 * constructor. Initializes frame and sets layout, measures with a {@link MonotonicClock}
 	 */
 	public SimeTimer() {
+		this(new MonotonicClock());
+	}
+	
+	/**
+	 * constructor. Initializes frame and sets layout
+	 * @param clock the {@link TimerClock} to measure {@link TimeChunk}s with
+	 */
+	public SimeTimer(TimerClock clock) {
 		super(WINDOW_TITLE_NO_FILE);
 		
-		project = new SimeTimerProject();
 		config = new ConfigManager(this);
-		unsavedData = false;
+		engine = new TimerEngine(clock, config, new SaveService(e -> SaveManager.showSaveError(this, e)));
+		SimeTimerMetrics.register(engine);
+		engine.addListener(new TimerEngine.Listener() {
+			@Override
+			public void runningChanged(boolean running) {
+				startStopButton.setSelected(running);
+				startStopButton.setText(running ? "Stop" : "Start");
+				displayRefresher.setRunning(running);
+				refreshTimeLabels();
+			}
+			@Override
+			public void chunksAdded(int fromIndex, int toIndex) {
+				updateProjectTime();
+				refreshTimeLabels();
+				tableModel.chunksAdded(fromIndex, toIndex);
+				scrollDown();
+			}
+			@Override
+			public void commentChanged(int index) {
+				tableModel.commentSet(index);
+			}
+			@Override
+			public void projectReplaced(SimeTimerProject project) {
+				updateProjectTime();
+				refreshTimeLabels();
+				refreshTable();
+			}
+		});
 		
 		
 		// initializing frame
@@ -300,15 +346,13 @@ public class SimeTimer extends JFrame {
 		
 		startStopButton.addActionListener(evt -> {
 			if (running()) {
-				// button ON - START the timer
-				currentStartTime = System.currentTimeMillis();
-				startStopButton.setText("Stop");
-				enableDisplayTimer(true);
+				// button ON - START the timer, the engine listener updates the window
+				engine.start();
 			} else {
 				// button OFF - STOP the timer
-				long stopTime = System.currentTimeMillis();
+				long stopNanos = engine.nanoTime();
 				startStopButton.setText("Start");
-				enableDisplayTimer(false);
+				displayRefresher.setRunning(false);
 				String comment = "";
 				if (config.askForCommentOnStop) {
 					comment = JOptionPane.showInputDialog(this,
@@ -319,19 +363,13 @@ public class SimeTimer extends JFrame {
 						comment = "";
 					}
 				}
-				// add TimeChunk to project
-				project.addTimeChunk(new TimeChunk(currentStartTime, stopTime - currentStartTime, comment));
-				// update labels and table
-				refreshTimeLabels();
-				tableModel.addRow(project.getStringArray(project.size()-1));
-				scrollDown();
-				// new unsaved data
-				changeMade();
+				// add TimeChunk to project, the engine listener updates labels and table
+				engine.stop(stopNanos, comment);
 			}
 		});
 		
 		cutButton.addActionListener(evt -> {
-			long callTime = System.currentTimeMillis();
+			long callNanos = engine.nanoTime();
 			scrollDown(); // FIXME remove
 			if (!running()) {
 				return;
@@ -346,14 +384,8 @@ public class SimeTimer extends JFrame {
 					comment = "";
 				}
 			}
-			// add TimeChunk to project
-			project.addTimeChunk(new TimeChunk(currentStartTime, callTime - currentStartTime, comment));
-			currentStartTime = callTime;
-			updateProjectTime();
-			tableModel.addRow(project.getStringArray(project.size()-1));
-			scrollDown();
-			// new unsaved data
-			changeMade();
+			// add TimeChunk to project, the engine listener updates labels and table
+			engine.cut(callNanos, comment);
 		});
 		
 		resetButton.addActionListener(evt -> reset());
@@ -370,9 +402,8 @@ public class SimeTimer extends JFrame {
 					if (!config.usedFile.getName().contains(".")) {
 						config.usedFile = new File(config.usedFile.getPath().concat(".stp"));
 					}
-					SaveManager.saveProject(SimeTimer.this, project, config.usedFile, config.fileFormat);
+					engine.save();
 					owner.setTitle(WINDOW_TITLE_FILE_LOADED + config.usedFile.getName());
-					unsavedData = false;
 				}
 			}
 		};
@@ -382,7 +413,12 @@ public class SimeTimer extends JFrame {
 		SaveLoadAction loadButtonAction = new SaveLoadAction(this) {
 			@Override
 			void call(JFileChooser fileChooser, JFrame owner) {
-				if (unsavedData && config.askForSaveOnLoad) {
+				if (projectLoader != null) {
+					// the load button cancels the background load
+					cancelLoad();
+					return;
+				}
+				if (engine.unsavedData() && config.askForSaveOnLoad) {
 					if (JOptionPane.showConfirmDialog(owner,
 								"Your current project is not saved.\nDo you want to save it before loading?",
 								"Project not saved",
@@ -396,17 +432,14 @@ public class SimeTimer extends JFrame {
 				// call fileChooser and store feedback
 				int option = fileChooser.showOpenDialog(owner);
 				if (option == JFileChooser.APPROVE_OPTION) {
-					// user has approved load
+					// user has approved load, finish writing first in case it's the same file
+					engine.flush();
 					SimeTimerProject temp = SaveManager.loadProject(SimeTimer.this, fileChooser.getSelectedFile(), config.fileFormat);
 					if (temp != null) {
 						// loading successful
-						project = temp;
-						owner.setTitle(WINDOW_TITLE_FILE_LOADED + fileChooser.getSelectedFile().getName());
-						unsavedData = false;
-						updateProjectTime();
-						refreshTimeLabels();
-						refreshTable();
 						config.usedFile = fileChooser.getSelectedFile();
+						engine.projectLoaded(temp);
+						owner.setTitle(WINDOW_TITLE_FILE_LOADED + fileChooser.getSelectedFile().getName());
 					}
 					// else: loading failed, do nothing
 				}
@@ -424,8 +457,18 @@ public class SimeTimer extends JFrame {
 			public void windowClosed(WindowEvent evt) {}
 			@Override
 			public void windowClosing(WindowEvent evt) {
+				if (controlServer != null) {
+					controlServer.close();
+				}
+				if (projectLoader != null) {
+					// load the same file again on the next start
+					File file = projectLoader.getFile();
+					cancelLoad();
+					config.usedFile = file;
+				}
 				config.saveConfiguration();
-				if (unsavedData && config.askForSaveOnClose) {
+				engine.flush();
+				if (engine.unsavedData() && config.askForSaveOnClose) {
 					if (JOptionPane.showConfirmDialog(evt.getComponent(),
 								"Your current project is not saved.\nDo you want to save it before exiting?",
 								"Project not saved",
@@ -436,13 +479,18 @@ public class SimeTimer extends JFrame {
 						saveButton.doClick();
 					}
 				}
+				engine.flush();
 			}
 			@Override
 			public void windowDeactivated(WindowEvent evt) {}
 			@Override
-			public void windowDeiconified(WindowEvent evt) {}
+			public void windowDeiconified(WindowEvent evt) {
+				displayRefresher.setIconified(false);
+			}
 			@Override
-			public void windowIconified(WindowEvent evt) {}
+			public void windowIconified(WindowEvent evt) {
+				displayRefresher.setIconified(true);
+			}
 			@Override
 			public void windowOpened(WindowEvent evt) {}
 		});
@@ -459,21 +507,100 @@ public class SimeTimer extends JFrame {
 		
 		
 		if (config.loadLastSaveOnStartup && config.usedFile != null && config.usedFile.isFile()) {
-			// open last used project
-			SimeTimerProject temp = SaveManager.loadProject(this, config.usedFile, config.fileFormat);
-			if (temp != null) {
-				project = temp;
-				setTitle(WINDOW_TITLE_FILE_LOADED + config.usedFile.getName());
-				refreshTimeLabels();
-				refreshTable();
-			} else {
-				// loading failed - set usedFile to parent folder
-				config.usedFile = config.usedFile.getParentFile();
-			}
+			// open last used project without keeping the timer waiting
+			loadInBackground(config.usedFile);
 		}
 	}
 	
 	
+	/**
+	 * loads a project in the background, see {@link ProjectLoader}. The timer can be used
+	 * right away, chunks recorded meanwhile are merged into the loaded project.
+	 * The window title shows the progress and the load button cancels the load.
+	 * Saving, resetting and editing comments are disabled until the project is loaded.
+	 * @param file the file to load
+	 */
+	private void loadInBackground(File file) {
+		// nothing may be saved to the file before it is loaded
+		config.usedFile = null;
+		engine.loadStarted();
+		setLoading(true);
+		setTitle(WINDOW_TITLE_LOADING + file.getName());
+		projectLoader = new ProjectLoader(engine, file, config.fileFormat, SwingUtilities::invokeLater,
+				new ProjectLoader.Listener() {
+			@Override
+			public void loadProgress(int percent) {
+				setTitle(WINDOW_TITLE_LOADING + file.getName() + " (" + percent + " %)");
+			}
+			@Override
+			public void loadFinished(SimeTimerProject project) {
+				projectLoader = null;
+				setLoading(false);
+				config.usedFile = file;
+				engine.loadFinished(project);
+				setTitle(WINDOW_TITLE_FILE_LOADED + file.getName());
+			}
+			@Override
+			public void loadFailed(Exception e) {
+				projectLoader = null;
+				loadStopped(file);
+				SaveManager.showLoadError(SimeTimer.this, e);
+			}
+		});
+	}
+	
+	/**
+	 * cancels the background load, keeping only the chunks recorded meanwhile
+	 */
+	private void cancelLoad() {
+		File file = projectLoader.getFile();
+		projectLoader.cancel();
+		projectLoader = null;
+		loadStopped(file);
+	}
+	
+	/**
+	 * drops the chunks of a cancelled or failed background load
+	 * @param file the file which was being loaded
+	 */
+	private void loadStopped(File file) {
+		setLoading(false);
+		engine.loadCancelled();
+		// like after a failed load, set usedFile to parent folder
+		config.usedFile = file.getParentFile();
+		setTitle(WINDOW_TITLE_NO_FILE);
+	}
+	
+	/**
+	 * disables or enables what has to wait for a background load and turns the load button into a cancel button
+	 * @param loading true if a project is being loaded in the background
+	 */
+	private void setLoading(boolean loading) {
+		saveButton.setEnabled(!loading);
+		resetButton.setEnabled(!loading);
+		tableModel.setEditable(!loading);
+		loadButton.setText(loading ? "cancel" : "load");
+		loadButton.setToolTipText(loading ? "Stop loading the last project" : "Load a project from a file");
+	}
+	
+	
+	
+	
+	/**
+	 * lets other programs control the timer through a local socket, see {@link ControlServer}.
+	 * Commands are executed on the event thread.
+	 * @param address where to listen, see {@link ControlServer#parseAddress(String)}
+	 */
+	void openControlServer(SocketAddress address) {
+		try {
+			controlServer = new ControlServer(address, engine, SwingUtilities::invokeLater);
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this,
+					"The control socket " + address + " could not be opened:\n" + e.getMessage(),
+					"Control socket",
+					JOptionPane.ERROR_MESSAGE);
+		}
+	}
 	
 	
 	/**
@@ -489,7 +616,7 @@ public class SimeTimer extends JFrame {
 	 * resets the current project completely
 	 */
 	private void reset() {
-		if (!unsavedData ||
+		if (!engine.unsavedData() ||
 				JOptionPane.showConfirmDialog(this,
 					"Do you really want to reset your current project?",
 					"Reset project",
@@ -500,10 +627,7 @@ public class SimeTimer extends JFrame {
 			if (running()) {
 				startStopButton.doClick();
 			}
-			project = new SimeTimerProject();
-			refreshTimeLabels();
-			refreshTable();
-			unsavedData = false;
+			engine.reset();
 		}
 	}
 	
@@ -512,13 +636,8 @@ public class SimeTimer extends JFrame {
 	 * sets table model, properties and column names, widths and alignment
 	 */
 	private void initializeTable() {
-		// set tableModel
-		tableModel = new DefaultTableModel() {
-			@Override
-			public boolean isCellEditable(int row, int column) {
-				return column == 3;
-			}
-		};
+		// set tableModel, creates the columns
+		tableModel = new ProjectTableModel(engine.getProject());
 		table.setModel(tableModel);
 		
 		// set table properties
@@ -530,11 +649,6 @@ public class SimeTimer extends JFrame {
 		table.setDragEnabled(false);
 		table.getTableHeader().setReorderingAllowed(true);
 		
-		// set table columns
-		tableModel.addColumn("#");
-		tableModel.addColumn("Start date");
-		tableModel.addColumn("Time");
-		tableModel.addColumn("Comment");
 		TableColumnModel columns = table.getColumnModel();
 		
 		// set column widths
@@ -571,20 +685,14 @@ public class SimeTimer extends JFrame {
 		columns.getColumn(2).setCellRenderer(centerAligner);
 		columns.getColumn(3).setCellRenderer(leftAligner);
 		
-		// store changed comments
+		// save changed comments, the model only reports actual changes
 		tableModel.addTableModelListener(evt -> {
-			if (evt.getColumn() != 3) {
+			if (evt.getType() != TableModelEvent.UPDATE || evt.getColumn() != ProjectTableModel.COMMENT_COLUMN) {
 				// not relevant
 				return;
 			}
 			for (int i = evt.getFirstRow(); i <= evt.getLastRow(); i++) {
-				String temp = project.getTimeChunk(i).getComment();
-				// save comment in row i
-				project.getTimeChunk(i).setComment((String) tableModel.getValueAt(i, 3));
-				// if new value is not equal to the old one, there is new unsaved data
-				if (!temp.equals(project.getTimeChunk(i).getComment())) {
-					changeMade();
-				}
+				engine.commentChanged(i);
 			}
 		});
 		
@@ -596,17 +704,10 @@ public class SimeTimer extends JFrame {
 	}
 	
 	/**
-	 * empties the table and refills it from current project
+	 * points the table to the current project
 	 */
 	private void refreshTable() {
-		// empty the table
-		while (tableModel.getRowCount() > 0) {
-			tableModel.removeRow(0);
-		}
-		// add new data from project
-		for (int i = 0; i < project.size(); i++) {
-			tableModel.addRow(project.getStringArray(i));
-		}
+		tableModel.setProject(engine.getProject());
 		scrollDown();
 	}
 	
@@ -618,19 +719,6 @@ public class SimeTimer extends JFrame {
 		tableScrollPane.getVerticalScrollBar().setValue(tableScrollPane.getVerticalScrollBar().getMaximum());
 	}
 	
-	/**
-	 * tries to save data to last used save file if autosave is enabled.
-	 * If that fails or autosave is disabled, sets the unsavedData flag.
-	 */
-	private void changeMade() {
-		if (config.autosave) {
-			// try to save data
-			unsavedData = !SaveManager.saveProject(this, project, config.usedFile, config.fileFormat);
-		} else {
-			unsavedData = true;
-		}
-	}
-	
 	/**
 	 * updates the window and table size to match the current configuration
 	 */
@@ -640,49 +728,36 @@ public class SimeTimer extends JFrame {
 	}
 	
 	/**
-	 * updates the time labels to the current stopped time
+	 * updates the time labels to the current stopped time.
+	 * Labels are only formatted and set if their time has changed.
 	 */
 	private void refreshTimeLabels() {
-		String total, chunk;
+		long total, chunk;
 		if (running()) {
-			total = timeToString(lastProjectTime + System.currentTimeMillis() - currentStartTime);
-			chunk = timeToString(System.currentTimeMillis() - currentStartTime);
+			long chunkNanos = engine.getRunningNanos();
+			chunk = chunkNanos / TimeChunk.NANOS_PER_MILLI;
+			total = (lastProjectNanos + chunkNanos) / TimeChunk.NANOS_PER_MILLI;
 		} else {
 			updateProjectTime();
-			total = timeToString(lastProjectTime);
-			chunk = timeToString(project.getLastChunk() != null ? project.getLastChunk().getStoppedTime() : 0);
+			total = lastProjectNanos / TimeChunk.NANOS_PER_MILLI;
+			SimeTimerProject project = engine.getProject();
+			chunk = project.getLastChunk() != null ? project.getLastChunk().getStoppedTime() : 0;
+		}
+		if (total != displayedTotalTime) {
+			totalTimeLabel.setText(timeToString(total));
+			displayedTotalTime = total;
+		}
+		if (chunk != displayedChunkTime) {
+			chunkTimeLabel.setText(timeToString(chunk));
+			displayedChunkTime = chunk;
 		}
-		totalTimeLabel.setText(total);
-		chunkTimeLabel.setText(chunk);
 	}
 	
 	/**
-	 * updates the lastProjectTime field
+	 * updates the lastProjectNanos field
 	 */
 	private void updateProjectTime() {
-		lastProjectTime = project.getProjectTime();
-	}
-	
-	/**
-	 * starts or stops the displayTimer that ensures a running time display
-	 * @param enable set true to start the timer, false to stop it
-	 */
-	private void enableDisplayTimer(boolean enable) {
-		if (enable) {
-			// initializing new task and timer
-			displayTask = new TimerTask() {
-				@Override
-				public void run() {
-					refreshTimeLabels();
-				}
-			};
-			displayTimer = new Timer();
-			// scheduling
-			displayTimer.schedule(displayTask, java.util.Calendar.getInstance().getTime(), 16);
-		} else {
-			// stop timer
-			displayTimer.cancel();
-		}
+		lastProjectNanos = engine.getProject().getProjectNanos();
 	}
 	
 	/**
@@ -691,21 +766,7 @@ public class SimeTimer extends JFrame {
 	 * @return a {@link String} representing the stopped time in a readable format
 	 */
 	public static String timeToString(long time) {
-		int millis = (int) (time % 1000);
-		time -= millis;
-		time /= 1000;
-		int seconds = (int) (time % 60);
-		time -= seconds;
-		time /= 60;
-		int minutes = (int) (time % 60);
-		time -= minutes;
-		time /= 60;
-		int hours = (int) time;
-		return hours +
-				":" + (Integer.toString(minutes).length() == 2 ? minutes : "0" + minutes) +
-				":" + (Integer.toString(seconds).length() == 2 ? seconds : "0" + seconds) +
-				"." + (Integer.toString(millis).length() == 3 ? millis :
-						Integer.toString(millis).length() == 2 ? "0" + millis : "00" + millis);
+		return TimeFormatter.timeToString(time);
 	}
 	
 	
@@ -715,11 +776,46 @@ public class SimeTimer extends JFrame {
 	
 	// MAIN
 	/**
-	 * main method. Starts the application
-	 * @param args not used
+	 * main method. Starts the application, without a window if the first
+	 * argument is {@link HeadlessTimer#HEADLESS_OPTION}. The window accepts
+	 * {@link ControlServer#CONTROL_OPTION} followed by a port or socket file.
+	 * @param args the command line arguments, see {@link HeadlessTimer#USAGE}
 	 */
 	public static void main(String[] args) {
-		new SimeTimer();
+		if (args.length > 0 && args[0].equals(HeadlessTimer.HEADLESS_OPTION)) {
+			System.exit(HeadlessTimer.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		SocketAddress address = null;
+		if (args.length == 2 && args[0].equals(ControlServer.CONTROL_OPTION)) {
+			try {
+				address = ControlServer.parseAddress(args[1]);
+			} catch (IllegalArgumentException e) {
+				System.err.println("Invalid control socket: " + e.getMessage());
+				exitWithUsage();
+			}
+		} else if (args.length > 0) {
+			// don't open the window for a mistyped option
+			if (args[0].equals(ControlServer.CONTROL_OPTION)) {
+				System.err.println("Expected a single control socket after " + ControlServer.CONTROL_OPTION);
+			} else {
+				System.err.println("Unknown option: " + args[0]);
+			}
+			exitWithUsage();
+		}
+		SimeTimer timer = new SimeTimer();
+		if (address != null) {
+			SocketAddress controlAddress = address;
+			SwingUtilities.invokeLater(() -> timer.openControlServer(controlAddress));
+		}
+	}
+	
+	/**
+	 * prints the usage of both the window and the headless mode and exits
+	 */
+	private static void exitWithUsage() {
+		System.err.println("usage: SimeTimer [" + ControlServer.CONTROL_OPTION + " <port|socket file>]");
+		System.err.println("       " + HeadlessTimer.USAGE.substring("usage: ".length()));
+		System.exit(HeadlessTimer.EXIT_USAGE);
 	}
 	
 	
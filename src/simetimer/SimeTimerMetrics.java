@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Collects latencies and byte counts of the SimeTimer for JMX consoles, see {@link SimeTimerMetricsMXBean}.
+ * The timing-critical code records into the single instance {@link #METRICS} at any time,
+ * from any thread, which only costs a few uncontended atomic additions per event.
+ * Everything else, like percentiles and the heap estimate, is computed when a console reads it.
+ * The instance is published to the platform MBean server by {@link #register(TimerEngine)}.
+ *
+ * @author Simon Vetter
+ */
+public class SimeTimerMetrics implements SimeTimerMetricsMXBean {
+	
+	/**
+	 * the name the metrics are registered under
+	 */
+	public static final String OBJECT_NAME = "simetimer:type=SimeTimerMetrics";
+	
+	/**
+	 * the single instance, recorded into whether it has been registered or not
+	 */
+	static final SimeTimerMetrics METRICS = new SimeTimerMetrics();
+	
+	private final LatencyHistogram saves = new LatencyHistogram();
+	private final LatencyHistogram journalWrites = new LatencyHistogram();
+	private final LatencyHistogram loads = new LatencyHistogram();
+	private final LatencyHistogram cuts = new LatencyHistogram();
+	private final LatencyHistogram tableRefreshes = new LatencyHistogram();
+	private final LatencyHistogram tickJitter = new LatencyHistogram();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	
+	/**
+	 * the engine whose project is measured, null before {@link #register(TimerEngine)}
+	 */
+	private volatile TimerEngine engine;
+	private boolean registered;
+	
+	
+	
+	private SimeTimerMetrics() {
+		registered = false;
+	}
+	
+	/**
+	 * publishes the metrics to the platform MBean server, if not done yet,
+	 * and measures the given engine's project from now on.
+	 * A failed registration is reported on System.err, recording goes on regardless.
+	 * @param engine the {@link TimerEngine} whose project to measure
+	 */
+	public static void register(TimerEngine engine) {
+		METRICS.engine = engine;
+		synchronized (METRICS) {
+			if (METRICS.registered) {
+				return;
+			}
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				server.registerMBean(METRICS, new ObjectName(OBJECT_NAME));
+				METRICS.registered = true;
+			} catch (JMException | SecurityException e) {
+				System.err.println("Metrics could not be registered: " + e.getMessage());
+			}
+		}
+	}
+	
+	
+	
+	// RECORDING
+	
+	/**
+	 * @param nanos the duration of a full save
+	 * @param bytes the size of the written file
+	 */
+	void saved(long nanos, long bytes) {
+		saves.record(nanos);
+		bytesWritten.add(bytes);
+	}
+	
+	/**
+	 * @param nanos the duration of a journal write
+	 */
+	void journalWritten(long nanos) {
+		journalWrites.record(nanos);
+	}
+	
+	/**
+	 * @param bytes the number of bytes appended to a journal
+	 */
+	void written(long bytes) {
+		bytesWritten.add(bytes);
+	}
+	
+	/**
+	 * @param nanos the duration of reading a project file
+	 * @param bytes the size of the file
+	 */
+	void loaded(long nanos, long bytes) {
+		loads.record(nanos);
+		bytesRead.add(bytes);
+	}
+	
+	/**
+	 * @param nanos the duration of recording a {@link TimeChunk}
+	 */
+	void cut(long nanos) {
+		cuts.record(nanos);
+	}
+	
+	/**
+	 * @param nanos the duration of a table update
+	 */
+	void tableRefreshed(long nanos) {
+		tableRefreshes.record(nanos);
+	}
+	
+	/**
+	 * @param intervalNanos the time since the previous running time refresh
+	 */
+	void ticked(long intervalNanos) {
+		tickJitter.record(Math.abs(intervalNanos - DisplayRefresher.REFRESH_INTERVAL * TimeChunk.NANOS_PER_MILLI));
+	}
+	
+	
+	
+	// MXBEAN
+	
+	@Override
+	public LatencyHistogram.Summary getSaves() {
+		return saves.summary();
+	}
+	
+	@Override
+	public LatencyHistogram.Summary getJournalWrites() {
+		return journalWrites.summary();
+	}
+	
+	@Override
+	public LatencyHistogram.Summary getLoads() {
+		return loads.summary();
+	}
+	
+	@Override
+	public LatencyHistogram.Summary getCuts() {
+		return cuts.summary();
+	}
+	
+	@Override
+	public LatencyHistogram.Summary getTableRefreshes() {
+		return tableRefreshes.summary();
+	}
+	
+	@Override
+	public LatencyHistogram.Summary getTickJitter() {
+		return tickJitter.summary();
+	}
+	
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+	
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+	
+	@Override
+	public int getChunkCount() {
+		TimerEngine engine = this.engine;
+		return engine == null ? 0 : engine.getProject().size();
+	}
+	
+	@Override
+	public double getEstimatedHeapBytesPerChunk() {
+		TimerEngine engine = this.engine;
+		if (engine == null) {
+			return 0;
+		}
+		SimeTimerProject project = engine.getProject();
+		int size = project.size();
+		return size == 0 ? 0 : (double) project.estimateHeapBytes() / size;
+	}
+	
+	@Override
+	public void reset() {
+		saves.reset();
+		journalWrites.reset();
+		loads.reset();
+		cuts.reset();
+		tableRefreshes.reset();
+		tickJitter.reset();
+		bytesWritten.reset();
+		bytesRead.reset();
+	}
+	
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+
+
+/**
+ * The management interface of {@link SimeTimerMetrics}, as seen in JMX consoles
+ * like JConsole or VisualVM under {@link SimeTimerMetrics#OBJECT_NAME}.
+ * Latencies are shown as {@link LatencyHistogram.Summary} composites.
+ *
+ * @author Simon Vetter
+ */
+public interface SimeTimerMetricsMXBean {
+	
+	/**
+	 * @return the latencies of full saves, to the temporary file of an atomic save
+	 */
+	LatencyHistogram.Summary getSaves();
+	
+	/**
+	 * @return the latencies of writes to the {@link ProjectJournal}
+	 */
+	LatencyHistogram.Summary getJournalWrites();
+	
+	/**
+	 * @return the latencies of reading a project file, without its journal
+	 */
+	LatencyHistogram.Summary getLoads();
+	
+	/**
+	 * @return the latencies of recording a cut or stopped {@link TimeChunk}, until its save has been requested
+	 */
+	LatencyHistogram.Summary getCuts();
+	
+	/**
+	 * @return the latencies of updating the table to changed rows or a replaced project
+	 */
+	LatencyHistogram.Summary getTableRefreshes();
+	
+	/**
+	 * @return the deviations of the intervals between two running time refreshes
+	 * 				 from {@link DisplayRefresher#REFRESH_INTERVAL}
+	 */
+	LatencyHistogram.Summary getTickJitter();
+	
+	/**
+	 * @return the bytes written to save files and journals
+	 */
+	long getBytesWritten();
+	
+	/**
+	 * @return the bytes of the project files read
+	 */
+	long getBytesRead();
+	
+	/**
+	 * @return the number of {@link TimeChunk}s in the current project
+	 */
+	int getChunkCount();
+	
+	/**
+	 * @return the estimated heap usage of the current project per {@link TimeChunk} in bytes,
+	 * 				 see {@link SimeTimerProject#estimateHeapBytes()}
+	 */
+	double getEstimatedHeapBytesPerChunk();
+	
+	/**
+	 * forgets all recorded latencies and byte counts
+	 */
+	void reset();
+	
+}
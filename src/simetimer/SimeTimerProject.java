@@ -17,55 +17,663 @@
 
 package simetimer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.StampedLock;
 
 
 
 /**
  * Models a project in the {@link SimeTimer} application.
- * Main features are designed around an {@link ArrayList}
- * which holds the project's main data, the {@link TimeChunk}s.
+ * The project's main data, the {@link TimeChunk}s, are stored column by column
+ * in growable primitive arrays, one for start dates, one for stopped times
+ * and one for comments, so that a chunk costs no objects of its own.
+ * {@link TimeChunk} instances are only created on demand as views on a row.
+ * Prefix sums over the stopped times are kept up to date on every change,
+ * so the total time of the project or of any range of chunks is available
+ * in constant time. As the start dates are kept sorted, the total time of a date
+ * range takes a binary search for either end and clipping the few chunks
+ * reaching over them, see {@link #getRangeNanos(long, long)}.
+ * <p>
+ * A project can be read from any thread while it is being changed. Writers are
+ * serialized by the project's monitor. Columns, once published, are never changed
+ * below the published size, except for comments: appending writes behind the end
+ * and then publishes the new size, while inserting, merging and sorting build new
+ * columns and swap them in under the write lock of a {@link StampedLock}.
+ * Readers take the size and the columns they need with an optimistic read and only
+ * fall back to the read lock if a swap happened in between, so they never wait
+ * for more than the few stores of a swap.
  * 
  * @author Simon Vetter
  */
 public class SimeTimerProject {
 	
 	/**
-	 * stores all the project's {@link TimeChunk}s 
+	 * is shown the {@link TimeChunk}s overlapping a date range, see {@link #forEachInRange(long, long, RangeVisitor)}
 	 */
-	private final List<TimeChunk> timeChunks;
+	public interface RangeVisitor {
+		/**
+		 * @param index the index of the {@link TimeChunk}
+		 * @param startDateMillis its start date in milliseconds
+		 * @param nanosInRange the part of its stopped time within the range, in nanoseconds
+		 */
+		void visit(int index, long startDateMillis, long nanosInRange);
+	}
+	
+	/**
+	 * is told about every comment set in the project, however it was set
+	 */
+	public interface CommentListener {
+		/**
+		 * called on the thread which set the comment, after it has been stored
+		 * @param index the index of the {@link TimeChunk} whose comment has been set
+		 */
+		void commentChanged(int index);
+	}
+	
+	/**
+	 * the initial capacity of the columns
+	 */
+	private static final int INITIAL_CAPACITY = 10;
 	
 	/**
-	 * constructor. Initializes the {@link ArrayList}
+	 * the start dates of all the project's {@link TimeChunk}s, in milliseconds
+	 */
+	private long[] startDates;
+	/**
+	 * the stopped times of all the project's {@link TimeChunk}s, in nanoseconds
+	 */
+	private long[] stoppedTimes;
+	/**
+	 * the comments of all the project's {@link TimeChunk}s
+	 */
+	private String[] comments;
+	/**
+	 * prefix sums over the stopped times: entry i holds the total time of
+	 * the first i {@link TimeChunk}s in nanoseconds, so it has one entry more than there are chunks
+	 */
+	private long[] prefixTimes;
+	/**
+	 * the number of {@link TimeChunk}s stored in the columns, written after the chunks it publishes
+	 */
+	private volatile int size;
+	/**
+	 * true if this is a snapshot which shares its columns with another project
+	 */
+	private boolean readOnly;
+	/**
+	 * false if chunks have been appended out of order since the last {@link #sortTimes()}.
+	 * Set along with the columns under the write lock, only cleared before the size
+	 * which publishes an out of order chunk.
+	 */
+	private boolean sorted;
+	/**
+	 * the longest stopped time of all the project's {@link TimeChunk}s in nanoseconds,
+	 * bounding how far before a date a {@link TimeChunk} reaching into it can start.
+	 * Written before the size or the columns which publish the {@link TimeChunk}.
+	 */
+	private long longestNanos;
+	/**
+	 * held for writing while new columns are swapped in, see the class description
+	 */
+	private final StampedLock lock = new StampedLock();
+	/**
+	 * the comment dictionary: the single instance of every distinct comment stored in the columns,
+	 * so equal comments cost a reference each and their text only once.
+	 * Created on the first write, as snapshots never need it.
+	 */
+	private HashMap<String, String> commentDictionary;
+	/**
+	 * the estimated heap used by the comment dictionary, including its comments
+	 */
+	private long commentDictionaryBytes;
+	/**
+	 * the number of dictionary comments replaced by {@link #setComment(int, String)} since
+	 * the dictionary was last pruned, an upper bound of its entries no longer stored
+	 */
+	private int replacedComments;
+	/**
+	 * told about set comments, not passed on to snapshots and copies
+	 */
+	private volatile CommentListener commentListener;
+	
+	/**
+	 * constructor. Initializes the columns
 	 */
 	public SimeTimerProject() {
-		timeChunks = new ArrayList<>(10);
+		this(INITIAL_CAPACITY);
+	}
+	
+	/**
+	 * constructor. Initializes the columns with the given capacity
+	 * @param capacity the number of {@link TimeChunk}s to reserve space for
+	 */
+	public SimeTimerProject(int capacity) {
+		startDates = new long[capacity];
+		stoppedTimes = new long[capacity];
+		comments = new String[capacity];
+		prefixTimes = new long[capacity + 1];
+		size = 0;
+		sorted = true;
+		longestNanos = 0;
 	}
 	
 	/**
-	 * returns the {@link TimeChunk} stored at the given index in the {@link ArrayList}.
+	 * returns a view on the {@link TimeChunk} stored at the given index.
+	 * Changing the view's comment changes the comment stored in the project.
+	 * The view is bound to the index, so it should not be kept across {@link #sortTimes()}.
 	 * @param index the index of the desired {@link TimeChunk}
 	 * @return the {@link TimeChunk} stored at the given index
 	 */
 	public TimeChunk getTimeChunk(int index) {
-		return timeChunks.get(index);
+		long stamp = lock.tryOptimisticRead();
+		int size = this.size;
+		long[] startDates = this.startDates;
+		long[] stoppedTimes = this.stoppedTimes;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			size = this.size;
+			startDates = this.startDates;
+			stoppedTimes = this.stoppedTimes;
+			lock.unlockRead(stamp);
+		}
+		checkIndex(index, size);
+		return new TimeChunk(this, index, startDates[index], stoppedTimes[index]);
+	}
+	
+	/**
+	 * returns the start date of the {@link TimeChunk} at the given index
+	 * @param index the index of the desired {@link TimeChunk}
+	 * @return the start date in milliseconds
+	 */
+	public long getStartDateMillis(int index) {
+		long stamp = lock.tryOptimisticRead();
+		int size = this.size;
+		long[] startDates = this.startDates;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			size = this.size;
+			startDates = this.startDates;
+			lock.unlockRead(stamp);
+		}
+		checkIndex(index, size);
+		return startDates[index];
+	}
+	
+	/**
+	 * returns the stopped time of the {@link TimeChunk} at the given index
+	 * @param index the index of the desired {@link TimeChunk}
+	 * @return the stopped time in milliseconds
+	 */
+	public long getStoppedTime(int index) {
+		return getStoppedNanos(index) / TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * returns the stopped time of the {@link TimeChunk} at the given index at full resolution
+	 * @param index the index of the desired {@link TimeChunk}
+	 * @return the stopped time in nanoseconds
+	 */
+	public long getStoppedNanos(int index) {
+		long stamp = lock.tryOptimisticRead();
+		int size = this.size;
+		long[] stoppedTimes = this.stoppedTimes;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			size = this.size;
+			stoppedTimes = this.stoppedTimes;
+			lock.unlockRead(stamp);
+		}
+		checkIndex(index, size);
+		return stoppedTimes[index];
+	}
+	
+	/**
+	 * returns the comment of the {@link TimeChunk} at the given index
+	 * @param index the index of the desired {@link TimeChunk}
+	 * @return the comment
+	 */
+	public String getComment(int index) {
+		long stamp = lock.tryOptimisticRead();
+		int size = this.size;
+		String[] comments = this.comments;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			size = this.size;
+			comments = this.comments;
+			lock.unlockRead(stamp);
+		}
+		checkIndex(index, size);
+		return comments[index];
 	}
 	
 	/**
-	 * add a new {@link TimeChunk} to the project
+	 * sets the comment of the {@link TimeChunk} at the given index
+	 * @param index the index of the desired {@link TimeChunk}
+	 * @param comment the new comment
+	 */
+	public void setComment(int index, String comment) {
+		synchronized (this) {
+			checkWritable();
+			checkIndex(index, size);
+			if (commentDictionary != null && comments[index] != null && !comments[index].isEmpty()
+					&& ++replacedComments > size) {
+				// the stale entries could outnumber the chunks, which pays for a pass over them
+				pruneCommentDictionary();
+			}
+			// a single reference, readers see either the old or the new comment
+			comments[index] = compactComment(comment, index);
+		}
+		// outside the monitor, so the listener may take locks of its own
+		CommentListener listener = commentListener;
+		if (listener != null) {
+			listener.commentChanged(index);
+		}
+	}
+	
+	/**
+	 * sets the listener to tell about set comments, including those set through {@link TimeChunk} views
+	 * @param listener the {@link CommentListener}, or null for none
+	 */
+	public void setCommentListener(CommentListener listener) {
+		commentListener = listener;
+	}
+	
+	/**
+	 * add a new {@link TimeChunk} to the project.
+	 * If it is out of order, it is inserted at its sorted position.
 	 * @param timeChunk the {@link TimeChunk} to be added
+	 * @return the index the {@link TimeChunk} has been stored at
+	 */
+	public int addTimeChunk(TimeChunk timeChunk) {
+		return addTimeChunkNanos(timeChunk.getStartDateMillis(), timeChunk.getStoppedNanos(), timeChunk.getComment());
+	}
+	
+	/**
+	 * add a new {@link TimeChunk} to the project without creating a {@link TimeChunk} instance.
+	 * If it is out of order, it is inserted at its sorted position, found by binary search.
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedTime the total length of the TimeChunk, in milliseconds
+	 * @param comment the comment to be associated with the TimeChunk
+	 * @return the index the {@link TimeChunk} has been stored at
+	 */
+	public int addTimeChunk(long startDateMillis, long stoppedTime, String comment) {
+		return addTimeChunkNanos(startDateMillis, TimeChunk.millisToNanos(stoppedTime), comment);
+	}
+	
+	/**
+	 * add a new {@link TimeChunk} with a stopped time of nanosecond resolution to the project.
+	 * If it is out of order, it is inserted at its sorted position, found by binary search.
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedNanos the total length of the TimeChunk, in nanoseconds
+	 * @param comment the comment to be associated with the TimeChunk
+	 * @return the index the {@link TimeChunk} has been stored at
+	 */
+	public synchronized int addTimeChunkNanos(long startDateMillis, long stoppedNanos, String comment) {
+		checkWritable();
+		if (!sorted) {
+			sortTimes();
+		}
+		int index = size;
+		if (size > 0 && startDateMillis < startDates[size - 1]) {
+			index = insertionIndex(startDateMillis);
+			insertTimeChunk(index, startDateMillis, stoppedNanos, comment);
+		} else {
+			appendTimeChunk(startDateMillis, stoppedNanos, comment);
+		}
+		return index;
+	}
+	
+	/**
+	 * adds a batch of {@link TimeChunk}s, sorted by start date, to the project.
+	 * If the batch starts at or after the project's last chunk, it is appended,
+	 * else it is merged in, in a single pass over both. Like {@link #addTimeChunkNanos(long, long, String)},
+	 * new chunks go behind stored ones with the same start date.
+	 * @param chunks the {@link TimeChunk}s to add, sorted by start date
+	 * @return the lowest index a {@link TimeChunk} of the batch has been stored at
 	 */
-	public void addTimeChunk(TimeChunk timeChunk) {
-		timeChunks.add(timeChunk);
+	public synchronized int addTimeChunks(SimeTimerProject chunks) {
+		checkWritable();
+		if (!sorted) {
+			sortTimes();
+		}
+		// the batch is not shared, so its columns can be read directly
+		int count = chunks.size();
+		if (count == 0 || size == 0 || chunks.startDates[0] >= startDates[size - 1]) {
+			int fromIndex = size;
+			for (int i = 0; i < count; i++) {
+				appendTimeChunk(chunks.startDates[i], chunks.stoppedTimes[i], chunks.comments[i]);
+			}
+			return fromIndex;
+		}
+		int fromIndex = insertionIndex(chunks.startDates[0]);
+		int capacity = Math.max(startDates.length, size + count);
+		// new columns instead of shifting in place, so snapshots keep their data
+		long[] newStartDates = Arrays.copyOf(startDates, capacity);
+		long[] newStoppedTimes = Arrays.copyOf(stoppedTimes, capacity);
+		String[] newComments = Arrays.copyOf(comments, capacity);
+		int stored = fromIndex;
+		int added = 0;
+		for (int i = fromIndex; i < size + count; i++) {
+			if (added == count || stored < size && startDates[stored] <= chunks.startDates[added]) {
+				newStartDates[i] = startDates[stored];
+				newStoppedTimes[i] = stoppedTimes[stored];
+				newComments[i] = comments[stored];
+				stored++;
+			} else {
+				newStartDates[i] = chunks.startDates[added];
+				newStoppedTimes[i] = chunks.stoppedTimes[added];
+				String comment = chunks.comments[added];
+				newComments[i] = comment == null || comment.isEmpty() ? comment : dictionaryComment(comment);
+				added++;
+			}
+		}
+		long[] newPrefixTimes = Arrays.copyOf(prefixTimes, capacity + 1);
+		updatePrefixTimes(newPrefixTimes, newStoppedTimes, fromIndex, size + count);
+		longestNanos = Math.max(longestNanos, chunks.longestNanos);
+		publish(newStartDates, newStoppedTimes, newComments, newPrefixTimes, size + count, sorted);
+		return fromIndex;
 	}
 	
 	/**
-	 * returns the number of {@link TimeChunk}s stored in the {@link ArrayList}
+	 * appends a {@link TimeChunk} at the end of the project, even if it is out of order.
+	 * Meant for loading many chunks at once, {@link #sortTimes()} has to be called afterwards.
+	 * Not synchronized, so only to be used on projects which aren't shared yet,
+	 * or while holding the project's monitor.
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedNanos the total length of the TimeChunk, in nanoseconds
+	 * @param comment the comment to be associated with the TimeChunk
+	 */
+	void appendTimeChunk(long startDateMillis, long stoppedNanos, String comment) {
+		checkWritable();
+		if (size == startDates.length) {
+			grow();
+		}
+		if (size > 0 && startDateMillis < startDates[size - 1]) {
+			sorted = false;
+		}
+		int index = size;
+		startDates[index] = startDateMillis;
+		stoppedTimes[index] = stoppedNanos;
+		comments[index] = compactComment(comment, index);
+		prefixTimes[index + 1] = prefixTimes[index] + stoppedNanos;
+		longestNanos = Math.max(longestNanos, stoppedNanos);
+		// publishes the chunk
+		size = index + 1;
+	}
+	
+	/**
+	 * finds the sorted position for a new {@link TimeChunk}, behind all with the same start date
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @return the index of the first {@link TimeChunk} which starts later than the new one
+	 */
+	private int insertionIndex(long startDateMillis) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (startDateMillis < startDates[middle]) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * inserts a {@link TimeChunk} at the given index. The columns are copied
+	 * instead of shifted in place, so snapshots keep their data.
+	 * @param index the index to insert at
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedNanos the total length of the TimeChunk, in nanoseconds
+	 * @param comment the comment to be associated with the TimeChunk
+	 */
+	private void insertTimeChunk(int index, long startDateMillis, long stoppedNanos, String comment) {
+		// grown like by grow(), columns of exact capacity may be tiny
+		int capacity = size < startDates.length ? startDates.length
+				: Math.max(INITIAL_CAPACITY, startDates.length + (startDates.length >> 1));
+		long[] newStartDates = insert(startDates, new long[capacity], index, startDateMillis);
+		long[] newStoppedTimes = insert(stoppedTimes, new long[capacity], index, stoppedNanos);
+		String[] newComments = new String[capacity];
+		System.arraycopy(comments, 0, newComments, 0, index);
+		System.arraycopy(comments, index, newComments, index + 1, size - index);
+		newComments[index] = compactComment(comment, index);
+		longestNanos = Math.max(longestNanos, stoppedNanos);
+		long[] newPrefixTimes = new long[capacity + 1];
+		System.arraycopy(prefixTimes, 0, newPrefixTimes, 0, index + 1);
+		updatePrefixTimes(newPrefixTimes, newStoppedTimes, index, size + 1);
+		publish(newStartDates, newStoppedTimes, newComments, newPrefixTimes, size + 1, sorted);
+	}
+	
+	/**
+	 * swaps in new columns under the write lock, so readers don't mix them with the old ones
+	 * @param startDates the new start dates
+	 * @param stoppedTimes the new stopped times
+	 * @param comments the new comments
+	 * @param prefixTimes the new prefix sums, already calculated
+	 * @param size the new size
+	 * @param sorted whether the new columns are sorted by start date
+	 */
+	private void publish(long[] startDates, long[] stoppedTimes, String[] comments, long[] prefixTimes, int size,
+			boolean sorted) {
+		long stamp = lock.writeLock();
+		this.startDates = startDates;
+		this.stoppedTimes = stoppedTimes;
+		this.comments = comments;
+		this.prefixTimes = prefixTimes;
+		this.sorted = sorted;
+		this.size = size;
+		lock.unlockWrite(stamp);
+	}
+	
+	/**
+	 * copies the first size values of a column into a new column, with the given value inserted
+	 * @param column the column to copy
+	 * @param newColumn the column to copy into
+	 * @param index the index to insert the value at
+	 * @param value the value to insert
+	 * @return the new column
+	 */
+	private long[] insert(long[] column, long[] newColumn, int index, long value) {
+		System.arraycopy(column, 0, newColumn, 0, index);
+		newColumn[index] = value;
+		System.arraycopy(column, index, newColumn, index + 1, size - index);
+		return newColumn;
+	}
+	
+	/**
+	 * enlarges the columns by half their size. Swapped in under the write lock like
+	 * any other new columns, so readers picking them up also see their contents.
+	 */
+	private void grow() {
+		int capacity = Math.max(INITIAL_CAPACITY, startDates.length + (startDates.length >> 1));
+		publish(Arrays.copyOf(startDates, capacity), Arrays.copyOf(stoppedTimes, capacity),
+				Arrays.copyOf(comments, capacity), Arrays.copyOf(prefixTimes, capacity + 1), size, sorted);
+	}
+	
+	/**
+	 * avoids storing equal comments in separate instances. The most common cases,
+	 * the empty comment and a comment repeating the previous chunk's one, are
+	 * handled right away, all others by the comment dictionary.
+	 * @param comment the comment to be stored
+	 * @param index the index it is stored at
+	 * @return an instance equal to the given comment
+	 */
+	private String compactComment(String comment, int index) {
+		if (comment == null) {
+			return null;
+		} else if (comment.isEmpty()) {
+			return "";
+		} else if (index > 0 && comment.equals(comments[index - 1])) {
+			return comments[index - 1];
+		}
+		return dictionaryComment(comment);
+	}
+	
+	/**
+	 * returns the instance of a comment in the comment dictionary, adding it if it is new
+	 * @param comment the comment, not null
+	 * @return the dictionary's instance equal to the given comment
+	 */
+	private String dictionaryComment(String comment) {
+		if (commentDictionary == null) {
+			// a copy, or a new project: take over the stored comments
+			commentDictionary = new HashMap<>();
+			commentDictionaryBytes = 0;
+			for (int i = 0; i < size; i++) {
+				if (comments[i] != null && !comments[i].isEmpty()) {
+					comments[i] = dictionaryComment(comments[i]);
+				}
+			}
+		}
+		String result = commentDictionary.putIfAbsent(comment, comment);
+		if (result != null) {
+			return result;
+		}
+		// map entry, String object and its byte array
+		commentDictionaryBytes += 36 + 24 + 16 + comment.length();
+		return comment;
+	}
+	
+	/**
+	 * rebuilds the comment dictionary from the stored comments, dropping the ones
+	 * which were replaced by {@link #setComment(int, String)} and aren't stored anymore
+	 */
+	private void pruneCommentDictionary() {
+		replacedComments = 0;
+		// the stored comments are the dictionary's instances, so they are taken over as they are
+		HashMap<String, String> dictionary = new HashMap<>();
+		long dictionaryBytes = 0;
+		for (int i = 0; i < size; i++) {
+			String comment = comments[i];
+			if (comment != null && !comment.isEmpty() && dictionary.putIfAbsent(comment, comment) == null) {
+				dictionaryBytes += 36 + 24 + 16 + comment.length();
+			}
+		}
+		commentDictionary = dictionary;
+		commentDictionaryBytes = dictionaryBytes;
+	}
+	
+	/**
+	 * checks the given index against the number of stored {@link TimeChunk}s
+	 * @param index the index to check
+	 * @param size the number of stored {@link TimeChunk}s, as read together with the columns
+	 */
+	private static void checkIndex(int index, int size) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+		}
+	}
+	
+	/**
+	 * makes sure that the project is not a read-only snapshot
+	 */
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("Project snapshots are read-only");
+		}
+	}
+	
+	/**
+	 * returns the number of {@link TimeChunk}s stored in the project
 	 * @return the project's number of {@link TimeChunk}s
 	 */
 	public int size() {
-		return timeChunks.size();
+		return size;
+	}
+	
+	/**
+	 * tells whether the {@link TimeChunk}s are sorted by start date, as date range queries need
+	 * @return false if chunks have been appended out of order and not been sorted yet
+	 */
+	public synchronized boolean isSorted() {
+		return sorted;
+	}
+	
+	/**
+	 * estimates the heap used by the project, assuming compressed references and compact strings:
+	 * the columns at their full capacity plus the comment dictionary. Snapshots and copies
+	 * which haven't been written to have no dictionary, for them every comment instance
+	 * not shared with the previous chunk is counted, taking time linear in the project's size.
+	 * @return the estimated number of bytes
+	 */
+	public long estimateHeapBytes() {
+		SimeTimerProject view = snapshot();
+		// array headers, then three long columns, one of them one entry longer, and the comment references
+		long bytes = 4 * 16 + 8 * (3L * view.startDates.length + 1) + 4L * view.comments.length;
+		synchronized (this) {
+			if (commentDictionary != null) {
+				return bytes + 16 + 4L * commentDictionary.size() * 2 + commentDictionaryBytes;
+			}
+		}
+		String previous = null;
+		for (int i = 0; i < view.size; i++) {
+			String comment = view.comments[i];
+			if (comment != null && comment != previous && !comment.isEmpty()) {
+				// String object and its byte array
+				bytes += 24 + 16 + comment.length();
+			}
+			previous = comment;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * creates a copy of the project which shares no mutable state with it,
+	 * so it can be handed to other threads
+	 * @return a new {@link SimeTimerProject} with copies of all {@link TimeChunk}s
+	 */
+	public SimeTimerProject copy() {
+		SimeTimerProject view = snapshot();
+		SimeTimerProject result = new SimeTimerProject(0);
+		result.startDates = Arrays.copyOf(view.startDates, view.size);
+		result.stoppedTimes = Arrays.copyOf(view.stoppedTimes, view.size);
+		result.comments = Arrays.copyOf(view.comments, view.size);
+		result.prefixTimes = Arrays.copyOf(view.prefixTimes, view.size + 1);
+		result.size = view.size;
+		result.sorted = view.sorted;
+		result.longestNanos = view.longestNanos;
+		return result;
+	}
+	
+	/**
+	 * creates a read-only snapshot of the project in constant time.
+	 * The snapshot shares the columns with the project: appending only writes
+	 * behind the snapshot's end, growing and sorting replace the columns, so
+	 * the snapshot's chunks stay untouched. Only comments changed later may
+	 * show through, which is harmless for saving.
+	 * Can be called from any thread. The snapshot can be handed to another thread
+	 * as long as the hand-over establishes a happens-before relation,
+	 * like submitting it to an executor does.
+	 * @return a read-only {@link SimeTimerProject} with the current chunks
+	 */
+	public SimeTimerProject snapshot() {
+		SimeTimerProject result = new SimeTimerProject(0);
+		long stamp = lock.tryOptimisticRead();
+		readInto(result);
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			readInto(result);
+			lock.unlockRead(stamp);
+		}
+		result.readOnly = true;
+		return result;
+	}
+	
+	/**
+	 * copies the size, the column references and the sorted flag into a new project, size first,
+	 * so an out of order chunk published by the size is never taken for sorted
+	 * @param result the project to copy into
+	 */
+	private void readInto(SimeTimerProject result) {
+		result.size = size;
+		result.startDates = startDates;
+		result.stoppedTimes = stoppedTimes;
+		result.comments = comments;
+		result.prefixTimes = prefixTimes;
+		result.sorted = sorted;
+		result.longestNanos = longestNanos;
 	}
 	
 	/**
@@ -73,24 +681,230 @@ public class SimeTimerProject {
 	 * @return the project's total time in milliseconds
 	 */
 	public long getProjectTime() {
-		long result = 0L;
-		for (TimeChunk timeChunk : timeChunks) {
-			result += timeChunk.getStoppedTime();
+		return getProjectNanos() / TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * returns the total time of all the project's {@link TimeChunk}s at full resolution
+	 * @return the project's total time in nanoseconds
+	 */
+	public long getProjectNanos() {
+		long stamp = lock.tryOptimisticRead();
+		int size = this.size;
+		long[] prefixTimes = this.prefixTimes;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			size = this.size;
+			prefixTimes = this.prefixTimes;
+			lock.unlockRead(stamp);
+		}
+		return prefixTimes[size];
+	}
+	
+	/**
+	 * returns the total time of the {@link TimeChunk}s before the given index
+	 * @param index the index of the first {@link TimeChunk} not to be counted,
+	 * 				 from 0 to {@link #size()}
+	 * @return the total time of the first index {@link TimeChunk}s in milliseconds
+	 */
+	public long getProjectTimeBefore(int index) {
+		return getProjectTime(0, index);
+	}
+	
+	/**
+	 * returns the total time of the {@link TimeChunk}s in the given index range
+	 * @param fromIndex the index of the first {@link TimeChunk} to be counted
+	 * @param toIndex the index after the last {@link TimeChunk} to be counted
+	 * @return the total time of the {@link TimeChunk}s from fromIndex (inclusive)
+	 * 				 to toIndex (exclusive) in milliseconds
+	 */
+	public long getProjectTime(int fromIndex, int toIndex) {
+		long stamp = lock.tryOptimisticRead();
+		int size = this.size;
+		long[] prefixTimes = this.prefixTimes;
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			size = this.size;
+			prefixTimes = this.prefixTimes;
+			lock.unlockRead(stamp);
+		}
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("Range [" + fromIndex + ", " + toIndex + ") out of bounds for length " + size);
+		}
+		return (prefixTimes[toIndex] - prefixTimes[fromIndex]) / TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * finds the first {@link TimeChunk} starting at or after the given date by binary search
+	 * @param dateMillis the date in milliseconds
+	 * @return the index of the first {@link TimeChunk} starting at or after the date,
+	 * 				 {@link #size()} if there is none
+	 * @throws IllegalStateException if chunks have been appended out of order and not been sorted yet
+	 */
+	public int indexOfDate(long dateMillis) {
+		SimeTimerProject view = snapshot();
+		view.checkSorted();
+		return view.lowerBound(dateMillis);
+	}
+	
+	/**
+	 * returns the total time logged within the given date range in logarithmic time.
+	 * {@link TimeChunk}s only partly within the range count with the part within it.
+	 * @param fromMillis the start of the range in milliseconds, inclusive
+	 * @param toMillis the end of the range in milliseconds, exclusive
+	 * @return the time within the range in milliseconds
+	 * @throws IllegalStateException if chunks have been appended out of order and not been sorted yet
+	 */
+	public long getRangeTime(long fromMillis, long toMillis) {
+		return getRangeNanos(fromMillis, toMillis) / TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * returns the total time logged within the given date range at full resolution.
+	 * The {@link TimeChunk}s starting within the range are summed up with the prefix sums,
+	 * only the few starting less than the longest stopped time before either end of the range
+	 * are looked at on their own, to clip them to the range.
+	 * @param fromMillis the start of the range in milliseconds, inclusive
+	 * @param toMillis the end of the range in milliseconds, exclusive
+	 * @return the time within the range in nanoseconds
+	 * @throws IllegalStateException if chunks have been appended out of order and not been sorted yet
+	 */
+	public long getRangeNanos(long fromMillis, long toMillis) {
+		SimeTimerProject view = snapshot();
+		view.checkSorted();
+		if (fromMillis >= toMillis) {
+			return 0;
+		}
+		int fromIndex = view.lowerBound(fromMillis);
+		int toIndex = view.lowerBound(toMillis);
+		long result = view.prefixTimes[toIndex] - view.prefixTimes[fromIndex];
+		// chunks starting before the range which reach into it
+		for (int i = view.lowerBound(view.reachingFrom(fromMillis)); i < fromIndex; i++) {
+			result += view.nanosInRange(i, fromMillis, toMillis);
+		}
+		// chunks starting within the range which reach out of it
+		for (int i = Math.max(fromIndex, view.lowerBound(view.reachingFrom(toMillis))); i < toIndex; i++) {
+			result -= view.stoppedTimes[i] - view.nanosInRange(i, fromMillis, toMillis);
 		}
 		return result;
 	}
 	
+	/**
+	 * shows every {@link TimeChunk} overlapping the given date range to a {@link RangeVisitor},
+	 * in the order of their start dates. The first one is found in logarithmic time.
+	 * @param fromMillis the start of the range in milliseconds, inclusive
+	 * @param toMillis the end of the range in milliseconds, exclusive
+	 * @param visitor the {@link RangeVisitor}
+	 * @throws IllegalStateException if chunks have been appended out of order and not been sorted yet
+	 */
+	public void forEachInRange(long fromMillis, long toMillis, RangeVisitor visitor) {
+		SimeTimerProject view = snapshot();
+		view.checkSorted();
+		if (fromMillis >= toMillis) {
+			return;
+		}
+		int toIndex = view.lowerBound(toMillis);
+		for (int i = view.lowerBound(view.reachingFrom(fromMillis)); i < toIndex; i++) {
+			long nanos = view.nanosInRange(i, fromMillis, toMillis);
+			if (nanos > 0 || view.startDates[i] >= fromMillis) {
+				visitor.visit(i, view.startDates[i], nanos);
+			}
+		}
+	}
+	
+	/**
+	 * returns the earliest start date of a {@link TimeChunk} which may reach the given date
+	 * @param dateMillis the date in milliseconds
+	 * @return the start date in milliseconds
+	 */
+	private long reachingFrom(long dateMillis) {
+		long longestMillis = longestNanos / TimeChunk.NANOS_PER_MILLI + 1;
+		return dateMillis < Long.MIN_VALUE + longestMillis ? Long.MIN_VALUE : dateMillis - longestMillis;
+	}
+	
+	/**
+	 * returns the part of a {@link TimeChunk}'s stopped time within a date range
+	 * @param index the index of the {@link TimeChunk}
+	 * @param fromMillis the start of the range in milliseconds, inclusive
+	 * @param toMillis the end of the range in milliseconds, exclusive
+	 * @return the part within the range in nanoseconds, 0 if none
+	 */
+	private long nanosInRange(int index, long fromMillis, long toMillis) {
+		long startDate = startDates[index];
+		long nanos = stoppedTimes[index];
+		long limitMillis = nanos / TimeChunk.NANOS_PER_MILLI + 1;
+		long from = offsetNanos(fromMillis, startDate, limitMillis);
+		long to = Math.min(offsetNanos(toMillis, startDate, limitMillis), nanos);
+		return Math.max(to - from, 0);
+	}
+	
+	/**
+	 * returns how far a date lies behind the start of a {@link TimeChunk}, limited to
+	 * the {@link TimeChunk}'s length, so dates far out don't overflow
+	 * @param dateMillis the date in milliseconds
+	 * @param startDateMillis the start date of the {@link TimeChunk} in milliseconds
+	 * @param limitMillis a bound of the {@link TimeChunk}'s length in milliseconds
+	 * @return the offset in nanoseconds, 0 if the date is not behind the start
+	 */
+	private static long offsetNanos(long dateMillis, long startDateMillis, long limitMillis) {
+		if (dateMillis <= startDateMillis) {
+			return 0;
+		}
+		long offset = dateMillis - startDateMillis;
+		// a negative difference has overflowed
+		return (offset < 0 || offset > limitMillis ? limitMillis : offset) * TimeChunk.NANOS_PER_MILLI;
+	}
+	
+	/**
+	 * finds the first {@link TimeChunk} starting at or after the given date, in sorted columns
+	 * @param dateMillis the date in milliseconds
+	 * @return the index of the first {@link TimeChunk} starting at or after the date
+	 */
+	private int lowerBound(long dateMillis) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (startDates[middle] < dateMillis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * makes sure that the start date column is sorted, as binary searches need
+	 */
+	private void checkSorted() {
+		if (!sorted) {
+			throw new IllegalStateException("Project has to be sorted first");
+		}
+	}
+	
+	/**
+	 * recalculates prefix sums from the given index on, in columns not published yet
+	 * @param prefixTimes the prefix sums to update
+	 * @param stoppedTimes the stopped times to sum up
+	 * @param fromIndex the index of the first {@link TimeChunk} whose position changed
+	 * @param toIndex the number of {@link TimeChunk}s in the columns
+	 */
+	private static void updatePrefixTimes(long[] prefixTimes, long[] stoppedTimes, int fromIndex, int toIndex) {
+		for (int i = fromIndex; i < toIndex; i++) {
+			prefixTimes[i + 1] = prefixTimes[i] + stoppedTimes[i];
+		}
+	}
+	
 	/**
 	 * returns the last added {@link TimeChunk}
 	 * @return the last added {@link TimeChunk}
 	 * 				 or null if there is none
 	 */
 	public TimeChunk getLastChunk() {
-		try {
-			return timeChunks.get(size()-1);
-		} catch (IndexOutOfBoundsException e) {
-			return null;
-		}
+		SimeTimerProject view = snapshot();
+		int last = view.size - 1;
+		return last >= 0 ? new TimeChunk(this, last, view.startDates[last], view.stoppedTimes[last]) : null;
 	}
 	
 	/**
@@ -100,18 +914,114 @@ public class SimeTimerProject {
 	 * @return a {@link String} array with length 3
 	 */
 	public String[] getStringArray(int chunkIndex) {
+		SimeTimerProject view = snapshot();
+		checkIndex(chunkIndex, view.size);
 		return new String[] {Integer.toString(chunkIndex + 1),
-												 TimeChunk.dateToString(timeChunks.get(chunkIndex).getStartDate()),
-												 TimeChunk.timeToString(timeChunks.get(chunkIndex).getStoppedTime()),
-												 timeChunks.get(chunkIndex).getComment()};
+												 TimeFormatter.dateToString(view.startDates[chunkIndex]),
+												 TimeFormatter.timeToString(view.stoppedTimes[chunkIndex] / TimeChunk.NANOS_PER_MILLI),
+												 view.comments[chunkIndex]};
 	}
 	
 	/**
-	 * sorts the project's {@link TimeChunk}s in ascending order
-	 * by startDate first and stoppedTime second
+	 * sorts the project's {@link TimeChunk}s in ascending order by startDate.
+	 * {@link TimeChunk}s with equal start dates keep their order, so chunks cut
+	 * within the same millisecond stay in the order they were recorded in.
+	 * Returns right away if the chunks are already in order, which is tracked
+	 * while they are added, so files which were saved sorted cost nothing extra.
+	 * Prunes the comment dictionary first if comments have been replaced since.
 	 */
-	public void sortTimes() {
-		timeChunks.sort(TimeChunk::compareTo);
+	public synchronized void sortTimes() {
+		checkWritable();
+		if (replacedComments > 0) {
+			pruneCommentDictionary();
+		}
+		if (sorted) {
+			return;
+		}
+		int[] order = sortedOrder();
+		long[] sortedStartDates = new long[startDates.length];
+		long[] sortedStoppedTimes = new long[stoppedTimes.length];
+		String[] sortedComments = new String[comments.length];
+		for (int i = 0; i < size; i++) {
+			sortedStartDates[i] = startDates[order[i]];
+			sortedStoppedTimes[i] = stoppedTimes[order[i]];
+			sortedComments[i] = comments[order[i]];
+		}
+		// new columns, readers and snapshots keep the old ones
+		long[] sortedPrefixTimes = new long[sortedStartDates.length + 1];
+		updatePrefixTimes(sortedPrefixTimes, sortedStoppedTimes, 0, size);
+		publish(sortedStartDates, sortedStoppedTimes, sortedComments, sortedPrefixTimes, size, true);
+	}
+	
+	/**
+	 * calculates the order in which the {@link TimeChunk}s have to be stored to be sorted.
+	 * If the start dates span a small enough range, every chunk is packed into a single
+	 * long key, with its start date relative to the earliest one in the upper bits
+	 * and its index in the lower bits, and the keys are sorted as primitives.
+	 * The index bits keep chunks with equal start dates in their order.
+	 * Otherwise the indices are merge sorted by comparing the columns.
+	 * @return the indices of the {@link TimeChunk}s in sorted order
+	 */
+	private int[] sortedOrder() {
+		long minStartDate = Long.MAX_VALUE;
+		long maxStartDate = Long.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			minStartDate = Math.min(minStartDate, startDates[i]);
+			maxStartDate = Math.max(maxStartDate, startDates[i]);
+		}
+		int indexBits = 32 - Integer.numberOfLeadingZeros(size - 1);
+		long span = maxStartDate - minStartDate;
+		int[] order = new int[size];
+		if (span >= 0 && (span >>> (63 - indexBits)) == 0) {
+			// packed keys
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++) {
+				keys[i] = ((startDates[i] - minStartDate) << indexBits) | i;
+			}
+			Arrays.sort(keys);
+			long indexMask = (1L << indexBits) - 1;
+			for (int i = 0; i < size; i++) {
+				order[i] = (int) (keys[i] & indexMask);
+			}
+		} else {
+			// start dates too far apart to be packed
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			mergeSort(order, new int[size], 0, size);
+		}
+		return order;
+	}
+	
+	/**
+	 * stable merge sort of chunk indices by startDate
+	 * @param order the indices to sort
+	 * @param buffer a buffer of the same length
+	 * @param from the first index of the range to sort
+	 * @param to the index after the range to sort
+	 */
+	private void mergeSort(int[] order, int[] buffer, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(order, buffer, from, middle);
+		mergeSort(order, buffer, middle, to);
+		if (startDates[order[middle - 1]] <= startDates[order[middle]]) {
+			// already in order
+			return;
+		}
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < middle
+					&& startDates[buffer[left]] <= startDates[buffer[right]])) {
+				order[i] = buffer[left++];
+			} else {
+				order[i] = buffer[right++];
+			}
+		}
 	}
 	
 }
\ No newline at end of file
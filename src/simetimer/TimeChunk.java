@@ -18,7 +18,13 @@
 package simetimer;
 
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.text.ParsePosition;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Calendar;
 import java.util.Date;
 
 
@@ -26,23 +32,45 @@ import java.util.Date;
 /**
  * Represents the segment of time between the press of the {@link SimeTimer}'s
  * start button and the press of its stop button.
- * Stores the elapsed time in a long (in milliseconds), plus
- * a {@link Date} instance from both the beginning and the end
- * of the measurement, plus an optional comment.
+ * Stores the elapsed time in a long (in nanoseconds), plus
+ * the start date of the measurement in milliseconds, plus an optional comment.
+ * A TimeChunk obtained from a {@link SimeTimerProject} is a view on the
+ * project's data: its comment is read from and written to the project.
  * 
  * @author Simon Vetter
  */
 public class TimeChunk {
 	
 	/**
-	 * specifies the {@link DateFormat} used by the {@link #dateToString(Date)} method
+	 * specifies the {@link DateFormat} used by the {@link #dateToString(Date)} method.
+	 * Formats through the {@link TimeFormatter} and can be shared between threads,
+	 * changes to its time zone or calendar have no effect.
+	 * @deprecated use {@link TimeFormatter#dateToString(long)} or {@link TimeFormatter#DATE_FORMATTER}
 	 */
-	public static final DateFormat DATE_FORMAT = new SimpleDateFormat("d. M. yyyy, HH:mm:ss");
+	@Deprecated
+	public static final DateFormat DATE_FORMAT = new FormatterDateFormat();
 	
-	private final Date startDate;
-	private final long stoppedTime;
+	/**
+	 * the number of nanoseconds in a millisecond
+	 */
+	public static final long NANOS_PER_MILLI = 1_000_000;
+	
+	private final long startDateMillis;
+	/**
+	 * the total length of the TimeChunk, in nanoseconds
+	 */
+	private final long stoppedNanos;
 	private String comment;
 	
+	/**
+	 * the project this TimeChunk is a view on, or null if it stands on its own
+	 */
+	private final SimeTimerProject project;
+	/**
+	 * the index of this TimeChunk in its project
+	 */
+	private final int index;
+	
 	
 	
 	/**
@@ -52,9 +80,7 @@ public class TimeChunk {
 	 * @param comment the comment to be associated with the TimeChunk
 	 */
 	public TimeChunk(Date startDate, long stoppedTime, String comment) {
-		this.stoppedTime = stoppedTime;
-		this.startDate = startDate;
-		this.comment = comment;
+		this(startDate.getTime(), stoppedTime, comment);
 	}
 	/**
 	 * creates new TimeChunk from given arguments
@@ -63,30 +89,79 @@ public class TimeChunk {
 	 * @param comment the comment to be associated with the TimeChunk
 	 */
 	public TimeChunk(long startDateMillis, long stoppedTime, String comment) {
-		this(new Date(startDateMillis), stoppedTime, comment);
+		this(null, -1, startDateMillis, millisToNanos(stoppedTime), comment);
+	}
+	/**
+	 * creates a view on the TimeChunk stored at the given index of the given project
+	 * @param project the {@link SimeTimerProject} storing the TimeChunk
+	 * @param index the index of the TimeChunk in the project
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedNanos the total length of the TimeChunk, in nanoseconds
+	 */
+	TimeChunk(SimeTimerProject project, int index, long startDateMillis, long stoppedNanos) {
+		this(project, index, startDateMillis, stoppedNanos, null);
+	}
+	/**
+	 * creates new TimeChunk from given arguments
+	 * @param project the {@link SimeTimerProject} storing the TimeChunk, or null
+	 * @param index the index of the TimeChunk in the project, or -1
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedNanos the total length of the TimeChunk, in nanoseconds
+	 * @param comment the comment to be associated with the TimeChunk, if it has no project
+	 */
+	private TimeChunk(SimeTimerProject project, int index, long startDateMillis, long stoppedNanos, String comment) {
+		this.startDateMillis = startDateMillis;
+		this.stoppedNanos = stoppedNanos;
+		this.comment = comment;
+		this.project = project;
+		this.index = index;
+	}
+	/**
+	 * creates new TimeChunk with a stopped time of nanosecond resolution
+	 * @param startDateMillis the start date represented in milliseconds
+	 * @param stoppedNanos the total length of the TimeChunk, in nanoseconds
+	 * @param comment the comment to be associated with the TimeChunk
+	 * @return a new TimeChunk
+	 */
+	public static TimeChunk ofNanos(long startDateMillis, long stoppedNanos, String comment) {
+		return new TimeChunk(null, -1, startDateMillis, stoppedNanos, comment);
 	}
 	
 	
 	/**
-	 * get the {@link Date} instance from the start of the measurement
-	 * @return the {@link Date} instance from the start of the measurement
+	 * get a {@link Date} instance from the start of the measurement
+	 * @return a new {@link Date} instance from the start of the measurement
 	 */
 	public Date getStartDate() {
-		return startDate;
+		return new Date(startDateMillis);
+	}
+	/**
+	 * get the start of the measurement without creating a {@link Date} instance
+	 * @return the start date represented in milliseconds
+	 */
+	public long getStartDateMillis() {
+		return startDateMillis;
 	}
 	/**
 	 * get the total length of the TimeChunk
 	 * @return the total length of the TimeChunk, in milliseconds
 	 */
 	public long getStoppedTime() {
-		return stoppedTime;
+		return stoppedNanos / NANOS_PER_MILLI;
+	}
+	/**
+	 * get the total length of the TimeChunk at full resolution
+	 * @return the total length of the TimeChunk, in nanoseconds
+	 */
+	public long getStoppedNanos() {
+		return stoppedNanos;
 	}
 	/**
 	 * get the comment associated with this TimeChunk
 	 * @return the associated comment as a String
 	 */
 	public String getComment() {
-		return comment;
+		return project != null ? project.getComment(index) : comment;
 	}
 	
 	/**
@@ -97,60 +172,88 @@ public class TimeChunk {
 		if (comment == null) {
 			throw new IllegalArgumentException("argument comment must not be null");
 		}
-		this.comment = comment;
+		if (project != null) {
+			project.setComment(index, comment);
+		} else {
+			this.comment = comment;
+		}
 	}
 	
 	/**
-	 * compares two TimeChunks by their start time firstly and
-	 * their length secondly. If both are equal, returns 0.
+	 * compares two TimeChunks by their start time. TimeChunks starting in the same
+	 * millisecond are equal, so a stable sort keeps them in the order they were
+	 * recorded in, like {@link SimeTimerProject#sortTimes()} does.
 	 * @param otherTimeChunk the TimeChunk to compare this one too
 	 * @return -1 if this TimeChunk is earlier than the other one,
 	 * 				 1 if it is later than the other one and
-	 * 				 0 if they are equal
+	 * 				 0 if they start at the same time
 	 */
 	public int compareTo(TimeChunk otherTimeChunk) {
-		if (this.startDate.before(otherTimeChunk.startDate)) {
-			return -1;
-		} else if (this.startDate.after(otherTimeChunk.startDate)) {
-			return 1;
-		} else if (this.stoppedTime < otherTimeChunk.stoppedTime) {
-			return -1;
-		} else if (this.stoppedTime > otherTimeChunk.stoppedTime) {
-			return 1;
+		return Long.compare(this.startDateMillis, otherTimeChunk.startDateMillis);
+	}
+	
+	/**
+	 * converts a time in milliseconds to nanoseconds
+	 * @param millis the time in milliseconds
+	 * @return the time in nanoseconds
+	 * @throws IllegalArgumentException when the time can't be represented in nanoseconds
+	 */
+	public static long millisToNanos(long millis) {
+		if (millis > Long.MAX_VALUE / NANOS_PER_MILLI || millis < Long.MIN_VALUE / NANOS_PER_MILLI) {
+			throw new IllegalArgumentException("Time " + millis + " ms out of range");
 		}
-		return 0;
+		return millis * NANOS_PER_MILLI;
 	}
 	
 	/**
 	 * generates a String for the table from a given {@link Date}
 	 * @param date the {@link Date} to be displayed
 	 * @return a {@link String} representing the {@link Date} in a readable format
+	 * @see TimeFormatter#dateToString(long)
 	 */
 	public static String dateToString(Date date) {
-		return DATE_FORMAT.format(date);
+		return TimeFormatter.dateToString(date.getTime());
 	}
 	
 	/**
 	 * generates a String for the table from a given time in milliseconds
 	 * @param time the stopped time to be displayed, in milliseconds
 	 * @return a {@link String} representing the stopped time in a readable format
+	 * @see TimeFormatter#timeToString(long)
 	 */
 	public static String timeToString(long time) {
-		int millis = (int) (time % 1000);
-		time -= millis;
-		time /= 1000;
-		int seconds = (int) (time % 60);
-		time -= seconds;
-		time /= 60;
-		int minutes = (int) (time % 60);
-		time -= minutes;
-		time /= 60;
-		int hours = (int) time;
-		return hours +
-				":" + (Integer.toString(minutes).length() == 2 ? minutes : "0" + minutes) +
-				":" + (Integer.toString(seconds).length() == 2 ? seconds : "0" + seconds) +
-				"." + (Integer.toString(millis).length() == 3 ? millis :
-						Integer.toString(millis).length() == 2 ? "0" + millis : "00" + millis);
+		return TimeFormatter.timeToString(time);
+	}
+	
+	
+	
+	/**
+	 * the {@link DateFormat} behind {@link TimeChunk#DATE_FORMAT}, delegating to the {@link TimeFormatter}
+	 */
+	private static class FormatterDateFormat extends DateFormat {
+		private static final long serialVersionUID = 1L;
+		
+		FormatterDateFormat() {
+			// the fields are used by equals, hashCode and clone of DateFormat
+			calendar = Calendar.getInstance();
+			numberFormat = NumberFormat.getIntegerInstance();
+		}
+		
+		@Override
+		public StringBuffer format(Date date, StringBuffer toAppendTo, FieldPosition fieldPosition) {
+			return toAppendTo.append(TimeFormatter.dateToString(date.getTime()));
+		}
+		
+		@Override
+		public Date parse(String source, ParsePosition position) {
+			try {
+				LocalDateTime date = LocalDateTime.from(TimeFormatter.DATE_FORMATTER.parse(source, position));
+				return Date.from(date.atZone(ZoneId.systemDefault()).toInstant());
+			} catch (DateTimeParseException e) {
+				position.setErrorIndex(e.getErrorIndex());
+				return null;
+			}
+		}
 	}
 	
 }
\ No newline at end of file
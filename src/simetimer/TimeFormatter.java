@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+
+
+/**
+ * Formats start dates and stopped times for the table and the time labels.
+ * Can be used from any thread: every thread writes into its own reusable
+ * buffer, and dates are formatted with an immutable {@link DateTimeFormatter}.
+ * Since dates are only displayed down to the second, the last formatted date
+ * is cached along with its second and reused for all dates within that second.
+ *
+ * @author Simon Vetter
+ */
+public final class TimeFormatter {
+	
+	/**
+	 * specifies the format used by {@link #dateToString(long)}
+	 */
+	public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("d. M. yyyy, HH:mm:ss");
+	
+	/**
+	 * longest possible output of {@link #timeToString(long)}:
+	 * sign, 16 digits of hours, minutes, seconds and milliseconds
+	 */
+	private static final int MAX_TIME_LENGTH = 1 + 16 + 3 + 3 + 4;
+	
+	/**
+	 * one reusable buffer per thread for formatting times
+	 */
+	private static final ThreadLocal<char[]> TIME_BUFFER = ThreadLocal.withInitial(() -> new char[MAX_TIME_LENGTH]);
+	/**
+	 * one reusable buffer per thread for formatting dates
+	 */
+	private static final ThreadLocal<StringBuilder> DATE_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(32));
+	
+	/**
+	 * the last formatted date, replaced as a whole so it can be read without locking
+	 */
+	private static volatile CachedDate lastDate = new CachedDate(Long.MIN_VALUE, null, "");
+	
+	
+	
+	/**
+	 * not to be instantiated
+	 */
+	private TimeFormatter() {}
+	
+	
+	
+	// DATES
+	
+	/**
+	 * generates a String from a given date in milliseconds, in the system's time zone
+	 * @param dateMillis the date to be displayed, in milliseconds
+	 * @return a {@link String} representing the date in a readable format
+	 */
+	public static String dateToString(long dateMillis) {
+		long second = Math.floorDiv(dateMillis, 1000);
+		ZoneId zone = ZoneId.systemDefault();
+		CachedDate cached = lastDate;
+		if (cached.second == second && zone.equals(cached.zone)) {
+			return cached.text;
+		}
+		StringBuilder buffer = DATE_BUFFER.get();
+		buffer.setLength(0);
+		DATE_FORMATTER.formatTo(Instant.ofEpochSecond(second).atZone(zone), buffer);
+		String result = buffer.toString();
+		lastDate = new CachedDate(second, zone, result);
+		return result;
+	}
+	
+	/**
+	 * a formatted date together with the second and time zone it belongs to
+	 */
+	private static class CachedDate {
+		final long second;
+		final ZoneId zone;
+		final String text;
+		
+		CachedDate(long second, ZoneId zone, String text) {
+			this.second = second;
+			this.zone = zone;
+			this.text = text;
+		}
+	}
+	
+	
+	
+	// TIMES
+	
+	/**
+	 * generates a String from a given time in milliseconds,
+	 * formatted as hours:minutes:seconds.milliseconds
+	 * @param time the stopped time to be displayed, in milliseconds
+	 * @return a {@link String} representing the stopped time in a readable format
+	 */
+	public static String timeToString(long time) {
+		char[] buffer = TIME_BUFFER.get();
+		int position = buffer.length;
+		boolean negative = time < 0;
+		// negative values are formatted digit by digit, so Long.MIN_VALUE needs no special case
+		long remaining = negative ? time : -time;
+		position = putDigits(buffer, position, (int) -(remaining % 1000), 3);
+		remaining /= 1000;
+		buffer[--position] = '.';
+		position = putDigits(buffer, position, (int) -(remaining % 60), 2);
+		remaining /= 60;
+		buffer[--position] = ':';
+		position = putDigits(buffer, position, (int) -(remaining % 60), 2);
+		remaining /= 60;
+		buffer[--position] = ':';
+		do {
+			buffer[--position] = (char) ('0' - remaining % 10);
+			remaining /= 10;
+		} while (remaining != 0);
+		if (negative) {
+			buffer[--position] = '-';
+		}
+		return new String(buffer, position, buffer.length - position);
+	}
+	
+	/**
+	 * writes a zero padded number into the buffer, right to left
+	 * @param buffer the buffer to write into
+	 * @param end the index after the last digit
+	 * @param value the non-negative number to write
+	 * @param digits the number of digits to write
+	 * @return the index of the first digit
+	 */
+	private static int putDigits(char[] buffer, int end, int value, int digits) {
+		for (int i = 0; i < digits; i++) {
+			buffer[--end] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+	
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+
+
+/**
+ * The clock the {@link SimeTimer} measures {@link TimeChunk}s with.
+ * Durations are the difference of two readings in nanoseconds, start dates
+ * are derived from a reading with {@link #toEpochMillis(long)}.
+ * {@link MonotonicClock} is used by default, {@link ManualClock} can be
+ * plugged in wherever time has to be controlled.
+ *
+ * @author Simon Vetter
+ */
+public interface TimerClock {
+	
+	/**
+	 * returns the current reading of the clock. Only the difference between
+	 * two readings is meaningful.
+	 * @return the current reading in nanoseconds
+	 */
+	long nanoTime();
+	
+	/**
+	 * converts a reading of this clock to a wall clock date
+	 * @param nanoTime a reading returned by {@link #nanoTime()}
+	 * @return the date of the reading in milliseconds since the epoch
+	 */
+	long toEpochMillis(long nanoTime);
+	
+	/**
+	 * aligns the dates derived by {@link #toEpochMillis(long)} with the wall clock again,
+	 * after it may have been stepped or the system was suspended. Called when the timer
+	 * is started, not on cuts, so the {@link TimeChunk}s of one run follow each other
+	 * without gaps or overlaps. Does nothing by default.
+	 */
+	default void anchor() {}
+	
+}
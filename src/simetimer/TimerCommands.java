@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+
+
+/**
+ * The text commands understood by the {@link HeadlessTimer} and the {@link ControlServer},
+ * one per line:
+ * <ul>
+ * <li>{@code start}: starts the timer</li>
+ * <li>{@code cut [comment]}: ends the running {@link TimeChunk} and starts the next one</li>
+ * <li>{@code stop [comment]}: ends the running {@link TimeChunk} and stops the timer</li>
+ * <li>{@code comment <comment>}: sets the comment of the last {@link TimeChunk}</li>
+ * <li>{@code total}: queries the project's total time, including the running {@link TimeChunk}</li>
+ * <li>{@code total <day|week|month> [yyyy-mm-dd]}: queries the time stored in the day, ISO week
+ * or month containing the given date, today if there is none, see {@link CalendarRollup}</li>
+ * <li>{@code find <query>}: queries the number and the total time of the {@link TimeChunk}s
+ * whose comments match the query, see {@link CommentIndex}</li>
+ * <li>{@code save}: saves the whole project</li>
+ * </ul>
+ * Every command is answered with a single line: {@code ok}, {@code ok <index>} for commands
+ * which stored a {@link TimeChunk}, {@code total <milliseconds>}, {@code found <count> <milliseconds>}
+ * or {@code error <message>}.
+ * Empty lines and lines starting with '#' are ignored and not answered.
+ *
+ * @author Simon Vetter
+ */
+public final class TimerCommands {
+	
+	public static final String REPLY_OK		= "ok";
+	public static final String REPLY_TOTAL	= "total";
+	public static final String REPLY_FOUND	= "found";
+	public static final String REPLY_ERROR	= "error";
+	
+	/**
+	 * not to be instantiated
+	 */
+	private TimerCommands() {}
+	
+	/**
+	 * executes a single command on the owner thread of the given engine
+	 * @param engine the {@link TimerEngine} to execute the command on
+	 * @param line the command line
+	 * @param callNanos the clock reading at which the command was received
+	 * @return the reply, or null if the line is ignored
+	 */
+	public static String execute(TimerEngine engine, String line, long callNanos) {
+		if (line.isEmpty() || line.charAt(0) == '#') {
+			return null;
+		}
+		int space = line.indexOf(' ');
+		String command = space < 0 ? line : line.substring(0, space);
+		String argument = space < 0 ? "" : line.substring(space + 1);
+		switch (command) {
+			case "start":
+				if (engine.isRunning()) {
+					return error("timer is already running");
+				}
+				engine.start(callNanos);
+				return REPLY_OK;
+			case "cut":
+				return stored(engine.cut(callNanos, argument));
+			case "stop":
+				return stored(engine.stop(callNanos, argument));
+			case "comment":
+				int last = engine.getProject().size() - 1;
+				if (last < 0) {
+					return error("no time chunk to comment on");
+				}
+				engine.setComment(last, argument);
+				return REPLY_OK + " " + last;
+			case "total":
+				if (!argument.isEmpty()) {
+					return periodTotal(engine.getCalendarRollup(), argument);
+				}
+				return REPLY_TOTAL + " " + SaveManager.formatPlainTime(
+						engine.getProject().getProjectNanos() + engine.getRunningNanos());
+			case "find":
+				if (argument.isBlank()) {
+					return error("query expected");
+				}
+				SimeTimerProject project = engine.getProject();
+				int[] matches = engine.getCommentIndex().find(argument);
+				long nanos = 0;
+				for (int index : matches) {
+					nanos += project.getStoppedNanos(index);
+				}
+				return REPLY_FOUND + " " + matches.length + " " + SaveManager.formatPlainTime(nanos);
+			case "save":
+				if (engine.getSaveFile() == null) {
+					return error("no save file");
+				}
+				engine.save();
+				return REPLY_OK;
+			default:
+				return error("unknown command: " + command);
+		}
+	}
+	
+	/**
+	 * checks whether a reply reports an error
+	 * @param reply a reply returned by {@link #execute(TimerEngine, String, long)}
+	 * @return true if the reply is an error
+	 */
+	public static boolean isError(String reply) {
+		return reply != null && reply.startsWith(REPLY_ERROR);
+	}
+	
+	/**
+	 * @param rollup the {@link CalendarRollup} of the project
+	 * @param argument the period, optionally followed by a date
+	 * @return the reply for a {@code total} command with a period
+	 */
+	private static String periodTotal(CalendarRollup rollup, String argument) {
+		String[] words = argument.trim().split("\\s+");
+		CalendarRollup.Period period;
+		try {
+			period = CalendarRollup.Period.valueOf(words[0].toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			return error("unknown period: " + words[0]);
+		}
+		LocalDate date;
+		try {
+			date = words.length > 1 ? LocalDate.parse(words[1]) : LocalDate.now(rollup.getZone());
+		} catch (DateTimeParseException e) {
+			return error("invalid date: " + words[1]);
+		}
+		return REPLY_TOTAL + " " + SaveManager.formatPlainTime(rollup.getTotalNanos(date, period));
+	}
+	
+	/**
+	 * @param index the index returned by the {@link TimerEngine}
+	 * @return the reply for a command which should have stored a {@link TimeChunk}
+	 */
+	private static String stored(int index) {
+		return index < 0 ? error("timer is not running") : REPLY_OK + " " + index;
+	}
+	
+	private static String error(String message) {
+		return REPLY_ERROR + " " + message;
+	}
+	
+}
@@ -0,0 +1,583 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import java.io.File;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * The recording logic of the SimeTimer, independent of any user interface.
+ * Owns the current {@link SimeTimerProject}, measures {@link TimeChunk}s with
+ * a {@link TimerClock} and decides how changes are saved: through the journal
+ * where possible, else in full, both via a {@link SaveService}.
+ * The engine keeps a {@link CalendarRollup} and a {@link CommentIndex} of the current
+ * project up to date, which follow it like any other {@link Listener}.
+ * A TimerEngine is not thread-safe, it has to be used from the thread
+ * its {@link SaveService} reports failures on. Only {@link #nanoTime()},
+ * {@link #getClock()}, {@link #getProject()}, {@link #getCalendarRollup()}
+ * and {@link #getCommentIndex()} may be called from any thread.
+ *
+ * @author Simon Vetter
+ */
+public class TimerEngine {
+	
+	/**
+	 * where and how the project is saved, read again on every change
+	 */
+	public interface SaveSettings {
+		/**
+		 * @return the file the project is saved in, or null if there is none
+		 */
+		File getSaveFile();
+		/**
+		 * @return an int constant to represent the file format to use
+		 */
+		int getFileFormat();
+		/**
+		 * @return true if every change should be saved right away
+		 */
+		boolean isAutosave();
+		/**
+		 * @return true if autosave may append changes to the journal instead of saving in full
+		 */
+		boolean isJournalAutosave();
+	}
+	
+	/**
+	 * is told about changes made through the engine, on the engine's thread,
+	 * so a user interface can follow changes requested from elsewhere
+	 */
+	public interface Listener {
+		/**
+		 * @param running true if the timer has been started, false if it has been stopped
+		 */
+		void runningChanged(boolean running);
+		/**
+		 * @param fromIndex the index the first new {@link TimeChunk} has been stored at
+		 * @param toIndex fromIndex plus the number of new {@link TimeChunk}s. If some of them
+		 * 				  have been inserted in between, all rows from fromIndex on have changed.
+		 */
+		void chunksAdded(int fromIndex, int toIndex);
+		/**
+		 * not called for {@link #commentChanged(int)}, whose caller changed the comment itself
+		 * @param index the index of the {@link TimeChunk} whose comment has been set
+		 */
+		void commentChanged(int index);
+		/**
+		 * called when the current project has been replaced as a whole: loaded,
+		 * reset or left with the chunks recorded during a cancelled load
+		 * @param project the new current {@link SimeTimerProject}
+		 */
+		default void projectReplaced(SimeTimerProject project) {}
+	}
+	
+	private final TimerClock clock;
+	private final SaveSettings settings;
+	private final SaveService saveService;
+	private final List<Listener> listeners;
+	private final CalendarRollup calendarRollup;
+	private final CommentIndex commentIndex;
+	
+	/**
+	 * replaced on load and reset, volatile so other threads can read the current one
+	 */
+	private volatile SimeTimerProject project;
+	private boolean running;
+	/**
+	 * the clock reading at which the running {@link TimeChunk} started
+	 */
+	private long currentStartNanos;
+	/**
+	 * counts the changes made to the project, every save request is tagged with it
+	 */
+	private long changeVersion;
+	/**
+	 * the version at which the project was last loaded or reset
+	 */
+	private long cleanVersion;
+	/**
+	 * the {@link TimeChunk}s recorded while a project is loaded in the background, sorted by start date,
+	 * or null if no project is being loaded
+	 */
+	private SimeTimerProject recordedWhileLoading;
+	
+	
+	
+	/**
+	 * constructor. Starts with an empty project.
+	 * @param clock the {@link TimerClock} to measure {@link TimeChunk}s with
+	 * @param settings the {@link SaveSettings} to follow
+	 * @param saveService the {@link SaveService} to save with
+	 */
+	public TimerEngine(TimerClock clock, SaveSettings settings, SaveService saveService) {
+		this.clock = clock;
+		this.settings = settings;
+		this.saveService = saveService;
+		project = new SimeTimerProject();
+		running = false;
+		changeVersion = 0;
+		cleanVersion = 0;
+		listeners = new ArrayList<>();
+		calendarRollup = new CalendarRollup(ZoneId.systemDefault());
+		calendarRollup.follow(this);
+		commentIndex = new CommentIndex();
+		commentIndex.follow(this);
+	}
+	
+	
+	
+	/**
+	 * adds a listener to tell about changes, after the ones added before
+	 * @param listener the {@link Listener}
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * removes a listener added with {@link #addListener(Listener)}
+	 * @param listener the {@link Listener}
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	
+	
+	// RECORDING
+	
+	/**
+	 * returns the clock the engine measures with. May be used from any thread.
+	 * @return the {@link TimerClock}
+	 */
+	public TimerClock getClock() {
+		return clock;
+	}
+	
+	/**
+	 * returns the current reading of the engine's clock, to be passed to
+	 * {@link #cut(long, String)} or {@link #stop(long, String)} later.
+	 * May be called from any thread.
+	 * @return the current reading in nanoseconds
+	 */
+	public long nanoTime() {
+		return clock.nanoTime();
+	}
+	
+	/**
+	 * returns whether a {@link TimeChunk} is being measured
+	 * @return true if the timer is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * starts measuring a new {@link TimeChunk} now. Does nothing if the timer is running already.
+	 */
+	public void start() {
+		start(clock.nanoTime());
+	}
+	
+	/**
+	 * starts measuring a new {@link TimeChunk} at the given time.
+	 * Does nothing if the timer is running already.
+	 * @param startNanos the clock reading at which the start was requested
+	 */
+	public void start(long startNanos) {
+		if (running) {
+			return;
+		}
+		clock.anchor();
+		currentStartNanos = startNanos;
+		running = true;
+		for (Listener listener : listeners) {
+			listener.runningChanged(true);
+		}
+	}
+	
+	/**
+	 * ends the running {@link TimeChunk} now and starts the next one
+	 * @param comment the comment for the ended {@link TimeChunk}
+	 * @return the index the ended {@link TimeChunk} has been stored at,
+	 * 				 or -1 if the timer isn't running
+	 */
+	public int cut(String comment) {
+		return cut(clock.nanoTime(), comment);
+	}
+	
+	/**
+	 * ends the running {@link TimeChunk} at the given time and starts the next one
+	 * @param callNanos the clock reading at which the cut was requested
+	 * @param comment the comment for the ended {@link TimeChunk}
+	 * @return the index the ended {@link TimeChunk} has been stored at,
+	 * 				 or -1 if the timer isn't running
+	 */
+	public int cut(long callNanos, String comment) {
+		if (!running) {
+			return -1;
+		}
+		int index = record(callNanos, comment);
+		// not anchored again, the next chunk starts where this one ended
+		currentStartNanos = Math.max(callNanos, currentStartNanos);
+		return index;
+	}
+	
+	/**
+	 * ends the running {@link TimeChunk} now and stops the timer
+	 * @param comment the comment for the ended {@link TimeChunk}
+	 * @return the index the ended {@link TimeChunk} has been stored at,
+	 * 				 or -1 if the timer isn't running
+	 */
+	public int stop(String comment) {
+		return stop(clock.nanoTime(), comment);
+	}
+	
+	/**
+	 * ends the running {@link TimeChunk} at the given time and stops the timer
+	 * @param stopNanos the clock reading at which the stop was requested
+	 * @param comment the comment for the ended {@link TimeChunk}
+	 * @return the index the ended {@link TimeChunk} has been stored at,
+	 * 				 or -1 if the timer isn't running
+	 */
+	public int stop(long stopNanos, String comment) {
+		if (!running) {
+			return -1;
+		}
+		running = false;
+		int index = record(stopNanos, comment);
+		for (Listener listener : listeners) {
+			listener.runningChanged(false);
+		}
+		return index;
+	}
+	
+	/**
+	 * returns the length of the running {@link TimeChunk} so far
+	 * @return the running time in nanoseconds, 0 if the timer isn't running
+	 */
+	public long getRunningNanos() {
+		return running ? clock.nanoTime() - currentStartNanos : 0;
+	}
+	
+	/**
+	 * adds the running {@link TimeChunk} up to the given time to the project and saves it.
+	 * An end before the start, as requested before a later start was taken, counts as zero length.
+	 * @param endNanos the clock reading at which the {@link TimeChunk} ended
+	 * @param comment the comment for the {@link TimeChunk}
+	 * @return the index the {@link TimeChunk} has been stored at
+	 */
+	private int record(long endNanos, String comment) {
+		long startNanos = System.nanoTime();
+		TimeChunk timeChunk = TimeChunk.ofNanos(clock.toEpochMillis(currentStartNanos),
+				Math.max(endNanos - currentStartNanos, 0), comment);
+		int index = project.addTimeChunk(timeChunk);
+		if (recordedWhileLoading != null) {
+			recordedWhileLoading.addTimeChunk(timeChunk);
+		}
+		changeVersion++;
+		if (journalUsable()) {
+			saveService.journalChunkAdded(project.snapshot(), timeChunk, changeVersion);
+		} else {
+			autosave();
+		}
+		SimeTimerMetrics.METRICS.cut(System.nanoTime() - startNanos);
+		for (Listener listener : listeners) {
+			listener.chunksAdded(index, index + 1);
+		}
+		return index;
+	}
+	
+	/**
+	 * adds a batch of {@link TimeChunk}s measured elsewhere to the project
+	 * and saves them together, see {@link ChunkRecorder}
+	 * @param chunks the {@link TimeChunk}s to add, sorted by start date.
+	 * 				 They must not be changed afterwards, as they are saved from another thread.
+	 */
+	public void addTimeChunks(SimeTimerProject chunks) {
+		if (chunks.size() == 0) {
+			return;
+		}
+		int fromIndex = project.addTimeChunks(chunks);
+		if (recordedWhileLoading != null) {
+			recordedWhileLoading.addTimeChunks(chunks);
+		}
+		changeVersion++;
+		if (journalUsable()) {
+			saveService.journalChunksAdded(project.snapshot(), chunks, changeVersion);
+		} else {
+			autosave();
+		}
+		for (Listener listener : listeners) {
+			listener.chunksAdded(fromIndex, fromIndex + chunks.size());
+		}
+	}
+	
+	
+	
+	// PROJECT
+	
+	/**
+	 * returns the current project. May be called from any thread, the project
+	 * can be read concurrently to the engine changing it.
+	 * @return the current {@link SimeTimerProject}
+	 */
+	public SimeTimerProject getProject() {
+		return project;
+	}
+	
+	/**
+	 * returns the daily, weekly and monthly totals of the current project, in the system's
+	 * time zone. May be called from any thread.
+	 * @return the {@link CalendarRollup}
+	 */
+	public CalendarRollup getCalendarRollup() {
+		return calendarRollup;
+	}
+	
+	/**
+	 * returns the index over the comments of the current project. May be called from any thread.
+	 * @return the {@link CommentIndex}
+	 */
+	public CommentIndex getCommentIndex() {
+		return commentIndex;
+	}
+	
+	/**
+	 * replaces the current project with one that has just been loaded from
+	 * the save file, so further changes can be appended to its journal
+	 * @param project the loaded {@link SimeTimerProject}
+	 */
+	public void projectLoaded(SimeTimerProject project) {
+		this.project = project;
+		markClean();
+		if (settings.getSaveFile() != null) {
+			saveService.openJournal(settings.getSaveFile(), settings.getFileFormat());
+		}
+		projectReplaced();
+	}
+	
+	/**
+	 * starts loading a project in the background, see {@link ProjectLoader}. The timer stays usable,
+	 * the loaded {@link TimeChunk}s are shown as they come in with {@link #addLoadedChunks(SimeTimerProject)}
+	 * and the {@link TimeChunk}s recorded meanwhile are merged into the project once it is loaded.
+	 * Nothing must be saved to the loaded file until then, so its {@link SaveSettings} mustn't name it yet.
+	 * To be called on a new, empty project.
+	 */
+	public void loadStarted() {
+		recordedWhileLoading = new SimeTimerProject();
+	}
+	
+	/**
+	 * returns whether a project is being loaded in the background
+	 * @return true between {@link #loadStarted()} and {@link #loadFinished(SimeTimerProject)} or {@link #loadCancelled()}
+	 */
+	public boolean isLoading() {
+		return recordedWhileLoading != null;
+	}
+	
+	/**
+	 * shows a batch of {@link TimeChunk}s of the project being loaded. They are not saved,
+	 * as they come from the save file, and are replaced by the loaded project once it is complete.
+	 * @param chunks the loaded {@link TimeChunk}s, sorted by start date. Must not be changed anymore.
+	 */
+	public void addLoadedChunks(SimeTimerProject chunks) {
+		if (recordedWhileLoading == null || chunks.size() == 0) {
+			return;
+		}
+		int fromIndex = project.addTimeChunks(chunks);
+		for (Listener listener : listeners) {
+			listener.chunksAdded(fromIndex, fromIndex + chunks.size());
+		}
+	}
+	
+	/**
+	 * replaces the current project with the project loaded in the background, together with
+	 * the {@link TimeChunk}s recorded while loading. The {@link SaveSettings} have to name the
+	 * loaded file by now. The recorded {@link TimeChunk}s are saved like a batch added with
+	 * {@link #addTimeChunks(SimeTimerProject)}, the rest of the project counts as saved.
+	 * The listeners are told about the replaced project first, then about the recorded
+	 * {@link TimeChunk}s as added ones.
+	 * @param loaded the loaded {@link SimeTimerProject}, including its journaled changes
+	 */
+	public void loadFinished(SimeTimerProject loaded) {
+		SimeTimerProject recorded = recordedWhileLoading;
+		recordedWhileLoading = null;
+		projectLoaded(loaded);
+		if (recorded != null) {
+			addTimeChunks(recorded);
+		}
+	}
+	
+	/**
+	 * drops the {@link TimeChunk}s loaded so far, keeping only those recorded while loading,
+	 * for a cancelled or failed load
+	 */
+	public void loadCancelled() {
+		if (recordedWhileLoading == null) {
+			return;
+		}
+		project = recordedWhileLoading;
+		recordedWhileLoading = null;
+		projectReplaced();
+	}
+	
+	/**
+	 * replaces the current project with an empty one
+	 */
+	public void reset() {
+		// the save file doesn't match the project anymore
+		saveService.closeJournal();
+		project = new SimeTimerProject();
+		markClean();
+		projectReplaced();
+	}
+	
+	/**
+	 * sets the comment of the {@link TimeChunk} at the given index and saves it
+	 * @param index the index of the {@link TimeChunk}
+	 * @param comment the new comment
+	 */
+	public void setComment(int index, String comment) {
+		project.setComment(index, comment);
+		commentChanged(index);
+		for (Listener listener : listeners) {
+			listener.commentChanged(index);
+		}
+	}
+	
+	
+	
+	/**
+	 * tells the listeners about the replaced project
+	 */
+	private void projectReplaced() {
+		for (Listener listener : listeners) {
+			listener.projectReplaced(project);
+		}
+	}
+	
+	/**
+	 * copies a comment changed while loading to the recorded {@link TimeChunk} it belongs to, if any,
+	 * so it survives the loaded project replacing the current one
+	 * @param index the index of the {@link TimeChunk} in the current project
+	 */
+	private void recordedCommentChanged(int index) {
+		long startDateMillis = project.getStartDateMillis(index);
+		long stoppedNanos = project.getStoppedNanos(index);
+		// the recorded chunks are few, the latest ones are the likeliest
+		for (int i = recordedWhileLoading.size() - 1; i >= 0; i--) {
+			if (recordedWhileLoading.getStartDateMillis(i) == startDateMillis
+					&& recordedWhileLoading.getStoppedNanos(i) == stoppedNanos) {
+				recordedWhileLoading.setComment(i, project.getComment(index));
+				return;
+			}
+		}
+	}
+	
+	
+	
+	// SAVING
+	
+	/**
+	 * returns the file the project is saved in
+	 * @return the save file, or null if there is none
+	 */
+	public File getSaveFile() {
+		return settings.getSaveFile();
+	}
+	
+	/**
+	 * requests a full save of the current project to the save file
+	 */
+	public void save() {
+		saveService.saveProject(project.snapshot(), settings.getSaveFile(), settings.getFileFormat(), changeVersion);
+	}
+	
+	/**
+	 * waits until all save requests made so far have been written
+	 */
+	public void flush() {
+		saveService.flush();
+	}
+	
+	/**
+	 * checks whether the current project contains changes which are not saved yet.
+	 * Saves still being written by the {@link SaveService} count as unsaved.
+	 * @return true if there is unsaved data, else false
+	 */
+	public boolean unsavedData() {
+		return Math.max(cleanVersion, saveService.getSavedVersion()) < changeVersion;
+	}
+	
+	/**
+	 * marks the current project as matching its save file or as new,
+	 * so it doesn't count as unsaved
+	 */
+	private void markClean() {
+		cleanVersion = changeVersion;
+	}
+	
+	/**
+	 * requests a full save of the current project to the save file
+	 * if autosave is enabled. If it isn't, the journal is closed as it
+	 * can't follow the project anymore.
+	 */
+	private void autosave() {
+		if (settings.isAutosave() && settings.getSaveFile() != null) {
+			save();
+		} else {
+			saveService.closeJournal();
+		}
+	}
+	
+	/**
+	 * autosaves the changed comment of the {@link TimeChunk} at the given index.
+	 * Appends it to the journal if possible, else saves the whole project.
+	 * To be called after the comment has been changed in the project directly.
+	 * @param index the index of the {@link TimeChunk} whose comment was changed
+	 */
+	public void commentChanged(int index) {
+		if (recordedWhileLoading != null) {
+			recordedCommentChanged(index);
+		}
+		changeVersion++;
+		if (journalUsable()) {
+			saveService.journalCommentChanged(project.snapshot(), index, changeVersion);
+		} else {
+			autosave();
+		}
+	}
+	
+	/**
+	 * checks whether autosave can append to the journal. That is only the case if
+	 * journaling is enabled and the journal is open for the save file in the
+	 * current file format, which it is after every successful save or load.
+	 * @return true if changes can be appended to the journal, else false
+	 */
+	private boolean journalUsable() {
+		return settings.isAutosave()
+				&& settings.isJournalAutosave()
+				&& saveService.isJournalOpen(settings.getSaveFile(), settings.getFileFormat());
+	}
+	
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the {@link BlockProjectFile}: its blocks, reading date ranges and the latest chunks.
+ *
+ * @author Simon Vetter
+ */
+class BlockProjectFileTest {
+	
+	/**
+	 * three full blocks and a short one
+	 */
+	private static final int SIZE = 3 * BlockProjectFile.BLOCK_SIZE + 5;
+	
+	@TempDir
+	File directory;
+	
+	private File file;
+	
+	/**
+	 * writes a project whose chunk i starts at i seconds and lasts half a second and i nanoseconds
+	 */
+	@BeforeEach
+	void writeProject() throws IOException {
+		SimeTimerProject project = new SimeTimerProject();
+		for (int i = 0; i < SIZE; i++) {
+			project.appendTimeChunk(1_000L * i, 500_000_000L + i, "comment " + i % 7);
+		}
+		file = new File(directory, "project.stp");
+		BlockProjectFile.write(project, file);
+	}
+	
+	private static void assertChunks(SimeTimerProject project, int fromIndex, int toIndex) {
+		assertEquals(toIndex - fromIndex, project.size());
+		for (int i = fromIndex; i < toIndex; i++) {
+			assertEquals(1_000L * i, project.getStartDateMillis(i - fromIndex));
+			assertEquals(500_000_000L + i, project.getStoppedNanos(i - fromIndex));
+			assertEquals("comment " + i % 7, project.getComment(i - fromIndex));
+		}
+	}
+	
+	@Test
+	void roundTripsAllBlocks() throws IOException {
+		try (BlockProjectFile input = new BlockProjectFile(file)) {
+			assertEquals(SIZE, input.size());
+			assertEquals(4, input.getBlockCount());
+			assertChunks(input.toProject(), 0, SIZE);
+		}
+		assertChunks(SaveManager.readProject(file, SaveManager.FILE_FORMAT_BLOCK), 0, SIZE);
+	}
+	
+	@Test
+	void readsRangesUpToTheirBoundaries() throws IOException {
+		int first = BlockProjectFile.BLOCK_SIZE;
+		try (BlockProjectFile input = new BlockProjectFile(file)) {
+			// the end is exclusive
+			assertChunks(input.readRange(0, 1_000), 0, 1);
+			assertChunks(input.readRange(1_000L * first, 1_000L * first + 1_000), first, first + 1);
+			// the chunk before the block boundary still runs at the start of the range
+			assertChunks(input.readRange(1_000L * first - 600, 1_000L * first + 1), first - 1, first + 1);
+			// and has ended at its end
+			assertChunks(input.readRange(1_000L * first - 400, 1_000L * first + 1), first, first + 1);
+			assertChunks(input.readRange(Long.MIN_VALUE, Long.MAX_VALUE), 0, SIZE);
+			assertEquals(0, input.readRange(1_000L * SIZE, Long.MAX_VALUE).size());
+		}
+	}
+	
+	@Test
+	void readsTheTailSkippingTheChunksBeforeIt() throws IOException {
+		try (BlockProjectFile input = new BlockProjectFile(file)) {
+			assertEquals(0, input.readTail(0).size());
+			assertChunks(input.readTail(1), SIZE - 1, SIZE);
+			assertChunks(input.readTail(5), SIZE - 5, SIZE);
+			// the last block and part of the one before it
+			assertChunks(input.readTail(6), SIZE - 6, SIZE);
+			assertChunks(input.readTail(BlockProjectFile.BLOCK_SIZE + 10), SIZE - BlockProjectFile.BLOCK_SIZE - 10, SIZE);
+			assertChunks(input.readTail(SIZE + 1), 0, SIZE);
+		}
+	}
+	
+	@Test
+	void refusesBlockLengthsBeyondTheirData() throws IOException {
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			output.seek(output.length() - Long.BYTES - 2 * Integer.BYTES);
+			long indexOffset = output.readLong();
+			// the uncompressed length of the first block, after three longs and the compressed length
+			output.seek(indexOffset + 3 * Long.BYTES + Integer.BYTES);
+			output.writeInt(Integer.MAX_VALUE - 8);
+		}
+		try (BlockProjectFile input = new BlockProjectFile(file)) {
+			assertThrows(IllegalArgumentException.class, () -> input.readTail(SIZE));
+		}
+	}
+	
+}
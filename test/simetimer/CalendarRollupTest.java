@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the {@link CalendarRollup}, counting new projects in the background.
+ *
+ * @author Simon Vetter
+ */
+class CalendarRollupTest {
+	
+	private static final long HOUR_NANOS = 3_600_000_000_000L;
+	private static final LocalDate DAY = LocalDate.of(2024, 3, 14);
+	
+	private static long hour(int hour) {
+		return DAY.atTime(hour, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+	
+	@Test
+	void addsChunksAddedWhileCounting() throws InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			CalendarRollup rollup = new CalendarRollup(ZoneOffset.UTC, pool);
+			SimeTimerProject project = new SimeTimerProject();
+			project.addTimeChunkNanos(hour(9), HOUR_NANOS, "first");
+			project.addTimeChunkNanos(hour(12), HOUR_NANOS, "third");
+			// keep the pool busy, so the count waits
+			CountDownLatch busy = new CountDownLatch(1);
+			pool.execute(() -> {
+				try {
+					busy.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			rollup.setProject(project);
+			assertEquals(0, rollup.getTotalNanos(DAY, CalendarRollup.Period.DAY));
+			project.addTimeChunkNanos(hour(23), 2 * HOUR_NANOS, "over midnight");
+			rollup.chunksAdded(project, 2, 3);
+			project.addTimeChunkNanos(hour(10), HOUR_NANOS, "inserted");
+			rollup.chunksAdded(project, 1, 2);
+			busy.countDown();
+			rollup.awaitCount();
+			assertEquals(4 * HOUR_NANOS, rollup.getTotalNanos(DAY, CalendarRollup.Period.DAY));
+			assertEquals(HOUR_NANOS, rollup.getTotalNanos(DAY.plusDays(1), CalendarRollup.Period.DAY));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the {@link ChunkRing}, filled from several threads at once.
+ *
+ * @author Simon Vetter
+ */
+class ChunkRingTest {
+	
+	private static final int PRODUCERS = 4;
+	private static final int CHUNKS_PER_PRODUCER = 50_000;
+	
+	@Test
+	void refusesChunksWhenFull() {
+		ChunkRing ring = new ChunkRing(3);
+		assertEquals(4, ring.capacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.offer(0, i, null));
+		}
+		assertFalse(ring.offer(0, 4, null));
+		SimeTimerProject project = new SimeTimerProject();
+		assertEquals(2, ring.drainTo(project, new ManualClock(0), 2));
+		assertTrue(ring.offer(0, 4, null));
+		assertEquals(3, ring.drainTo(project, new ManualClock(0), Integer.MAX_VALUE));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, project.getStoppedNanos(i));
+		}
+	}
+	
+	@Test
+	void takesEveryChunkOfConcurrentProducersInTheirOrder() throws InterruptedException {
+		// small enough to wrap around many times and to be full now and then
+		ChunkRing ring = new ChunkRing(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			int producer = p;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				String comment = "producer " + producer;
+				for (int i = 0; i < CHUNKS_PER_PRODUCER; i++) {
+					// the stopped time tells the producer and the chunk's position in its sequence
+					while (!ring.offer(0, (long) producer * CHUNKS_PER_PRODUCER + i, comment)) {
+						Thread.yield();
+					}
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+		SimeTimerProject project = new SimeTimerProject();
+		ManualClock clock = new ManualClock(0);
+		start.countDown();
+		long deadline = System.nanoTime() + 60_000_000_000L;
+		while (project.size() < PRODUCERS * CHUNKS_PER_PRODUCER && System.nanoTime() < deadline) {
+			if (ring.drainTo(project, clock, 1_000) == 0) {
+				Thread.yield();
+			}
+		}
+		for (Thread thread : producers) {
+			thread.join();
+		}
+		assertEquals(0, ring.drainTo(project, clock, Integer.MAX_VALUE));
+		assertEquals(PRODUCERS * CHUNKS_PER_PRODUCER, project.size());
+		int[] next = new int[PRODUCERS];
+		for (int i = 0; i < project.size(); i++) {
+			long nanos = project.getStoppedNanos(i);
+			int producer = (int) (nanos / CHUNKS_PER_PRODUCER);
+			// no chunk lost, duplicated or overtaken by a later one of the same producer
+			assertEquals(next[producer]++, nanos % CHUNKS_PER_PRODUCER);
+			assertEquals("producer " + producer, project.getComment(i));
+		}
+		assertEquals(0, ring.size());
+	}
+	
+}
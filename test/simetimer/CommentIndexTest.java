@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the {@link CommentIndex}, indexing new projects in the background.
+ *
+ * @author Simon Vetter
+ */
+class CommentIndexTest {
+	
+	@Test
+	void followsChangesWhileIndexing() throws InterruptedException {
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			CommentIndex index = new CommentIndex(pool);
+			SimeTimerProject project = new SimeTimerProject();
+			project.addTimeChunkNanos(1_000, 10, "ABC-1 review");
+			project.addTimeChunkNanos(3_000, 30, "meeting");
+			project.addTimeChunkNanos(4_000, 40, "lunch");
+			// keep the pool busy, so the indexing waits
+			CountDownLatch busy = new CountDownLatch(1);
+			pool.execute(() -> {
+				try {
+					busy.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			index.setProject(project);
+			assertArrayEquals(new int[0], index.find("meeting"));
+			project.setComment(0, "ABC-1 planning");
+			project.addTimeChunkNanos(5_000, 50, "review");
+			index.chunksAdded(project, 3, 4);
+			project.addTimeChunkNanos(2_000, 20, "inserted review");
+			index.chunksAdded(project, 1, 2);
+			project.setComment(3, "meeting again");
+			busy.countDown();
+			index.awaitIndex();
+			assertArrayEquals(new int[] {0}, index.find("planning"));
+			assertArrayEquals(new int[] {1, 4}, index.find("review"));
+			assertArrayEquals(new int[] {2, 3}, index.find("meeting"));
+			assertArrayEquals(new int[0], index.find("lunch"));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+}
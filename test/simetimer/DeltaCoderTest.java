@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the {@link DeltaCoder}: its varints, the comment dictionary and corrupted streams.
+ *
+ * @author Simon Vetter
+ */
+class DeltaCoderTest {
+	
+	private static byte[] encode(long[][] chunks, String[] comments) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DeltaCoder.Encoder encoder = new DeltaCoder.Encoder(bytes)) {
+			for (int i = 0; i < chunks.length; i++) {
+				encoder.write(chunks[i][0], chunks[i][1], comments[i]);
+			}
+		}
+		return bytes.toByteArray();
+	}
+	
+	@Test
+	void zigZagsTheExtremes() {
+		for (long value : new long[] {0, -1, 1, Long.MIN_VALUE, Long.MAX_VALUE}) {
+			assertEquals(value, DeltaCoder.unZigZag(DeltaCoder.zigZag(value)));
+		}
+		assertEquals(1, DeltaCoder.zigZag(-1));
+		assertEquals(-1, DeltaCoder.zigZag(Long.MIN_VALUE));
+	}
+	
+	@Test
+	void decodesTenByteVarints() throws IOException {
+		// the first delta is Long.MIN_VALUE and the last one Long.MIN_VALUE + 1, which take ten bytes,
+		// the second one wraps around to -1, which takes one, all stopped times are negative and take ten
+		long[][] chunks = {{Long.MIN_VALUE, -1}, {Long.MAX_VALUE, Long.MIN_VALUE}, {0, -5}};
+		byte[] bytes = encode(chunks, new String[] {"", "", ""});
+		assertEquals(Integer.BYTES + 1 + (10 + 10 + 1) + (1 + 10 + 1) + (10 + 10 + 1), bytes.length);
+		try (DeltaCoder.Decoder decoder = new DeltaCoder.Decoder(new ByteArrayInputStream(bytes))) {
+			for (long[] chunk : chunks) {
+				assertTrue(decoder.next());
+				assertEquals(chunk[0], decoder.getStartDateMillis());
+				assertEquals(chunk[1], decoder.getStoppedNanos());
+			}
+			assertFalse(decoder.next());
+		}
+	}
+	
+	@Test
+	void roundTripsTheCommentDictionary() throws IOException {
+		String longComment = "long ".repeat(100_000);
+		String[] comments = {"first", null, "first", longComment, "second", longComment, ""};
+		long[][] chunks = new long[comments.length][];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = new long[] {1_000L * i, 10L * i};
+		}
+		byte[] bytes = encode(chunks, comments);
+		String[] decoded = new String[comments.length];
+		try (DeltaCoder.Decoder decoder = new DeltaCoder.Decoder(new ByteArrayInputStream(bytes))) {
+			for (int i = 0; i < chunks.length; i++) {
+				assertTrue(decoder.next());
+				assertEquals(chunks[i][0], decoder.getStartDateMillis());
+				assertEquals(chunks[i][1], decoder.getStoppedNanos());
+				decoded[i] = decoder.getComment();
+			}
+			assertFalse(decoder.next());
+		}
+		assertEquals("first", decoded[0]);
+		assertEquals("", decoded[1]);
+		assertEquals("second", decoded[4]);
+		assertEquals(longComment, decoded[3]);
+		// repeated comments are coded once and decoded into the same instance
+		assertSame(decoded[0], decoded[2]);
+		assertSame(decoded[3], decoded[5]);
+		assertSame(decoded[1], decoded[6]);
+	}
+	
+	@Test
+	void failsOnCommentLengthsBeyondTheStream() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DeltaCoder.Encoder encoder = new DeltaCoder.Encoder(bytes)) {
+			encoder.flush();
+		}
+		// a chunk whose new comment claims almost 2 GiB, followed by a few bytes of it
+		bytes.write(new byte[] {0, 0, 0, (byte) 0xF7, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a', 'b', 'c'});
+		try (DeltaCoder.Decoder decoder = new DeltaCoder.Decoder(new ByteArrayInputStream(bytes.toByteArray()))) {
+			assertThrows(EOFException.class, decoder::next);
+		}
+	}
+	
+}
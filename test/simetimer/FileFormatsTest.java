@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the file formats of the {@link SaveManager}: round trips through every one of them
+ * and the handling of corrupted files.
+ *
+ * @author Simon Vetter
+ */
+class FileFormatsTest {
+	
+	@TempDir
+	File directory;
+	
+	/**
+	 * a sorted project with repeated, empty and distinct comments
+	 * @param nanos the part of the stopped times below a millisecond
+	 * @param text the start of the distinct comments
+	 */
+	private static SimeTimerProject project(long nanos, String text) {
+		SimeTimerProject project = new SimeTimerProject();
+		for (int i = 0; i < 1_000; i++) {
+			String comment = i % 3 == 0 ? "" : i % 3 == 1 ? "repeated" : text + i;
+			project.appendTimeChunk(1_700_000_000_000L + 60_000L * i, 1_000_000L * i + nanos, comment);
+		}
+		return project;
+	}
+	
+	private void assertRoundTrip(SimeTimerProject project, int fileFormat) throws IOException {
+		File file = new File(directory, "project" + fileFormat + ".stp");
+		SaveManager.writeProject(project, file, fileFormat);
+		SimeTimerProject loaded = SaveManager.readProject(file, fileFormat);
+		String name = Integer.toHexString(fileFormat);
+		assertEquals(project.size(), loaded.size(), name);
+		for (int i = 0; i < project.size(); i++) {
+			assertEquals(project.getStartDateMillis(i), loaded.getStartDateMillis(i), name);
+			assertEquals(project.getStoppedNanos(i), loaded.getStoppedNanos(i), name);
+			assertEquals(project.getComment(i), loaded.getComment(i), name);
+		}
+		assertEquals(project.getProjectNanos(), loaded.getProjectNanos(), name);
+	}
+	
+	@Test
+	void roundTripsEveryFormat() throws IOException {
+		for (int fileFormat : SaveManager.FILE_FORMATS) {
+			assertRoundTrip(project(0, "comment "), fileFormat);
+			assertRoundTrip(new SimeTimerProject(), fileFormat);
+		}
+	}
+	
+	@Test
+	void roundTripsNanosecondsInTheFormatsStoringThem() throws IOException {
+		// PLAIN and BYTE store whole milliseconds, and PLAIN uses the platform's charset
+		for (int fileFormat : new int[] {SaveManager.FILE_FORMAT_MAPPED, SaveManager.FILE_FORMAT_DICTIONARY,
+				SaveManager.FILE_FORMAT_DELTA, SaveManager.FILE_FORMAT_BLOCK}) {
+			assertRoundTrip(project(123_456, "Größe "), fileFormat);
+		}
+	}
+	
+	@Test
+	void refusesDictionaryCountsTheFileCannotHold() throws IOException {
+		File file = new File(directory, "project.stp");
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+			output.writeInt(SaveManager.FILE_FORMAT_DICTIONARY);
+			output.writeInt(SaveManager.DICTIONARY_VERSION);
+			output.writeInt(0);
+			output.writeInt(Integer.MAX_VALUE);
+		}
+		assertThrows(IllegalArgumentException.class,
+				() -> SaveManager.readProject(file, SaveManager.FILE_FORMAT_DICTIONARY));
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+			output.writeInt(SaveManager.FILE_FORMAT_DICTIONARY);
+			output.writeInt(SaveManager.DICTIONARY_VERSION);
+			output.writeInt(Integer.MAX_VALUE);
+			output.writeInt(0);
+		}
+		assertThrows(IllegalArgumentException.class,
+				() -> SaveManager.readProject(file, SaveManager.FILE_FORMAT_DICTIONARY));
+	}
+	
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of {@link MappedProjectFile}, mostly its handling of corrupted files.
+ *
+ * @author Simon Vetter
+ */
+class MappedProjectFileTest {
+	
+	@TempDir
+	File directory;
+	
+	private SimeTimerProject project() {
+		SimeTimerProject project = new SimeTimerProject();
+		project.addTimeChunkNanos(1_000, 1_500_000, "first");
+		project.addTimeChunkNanos(2_000, 7, null);
+		project.addTimeChunkNanos(3_000, 42_000_000_001L, "dritter ✓");
+		return project;
+	}
+	
+	@Test
+	void writesMissingCommentsAsEmptyOnes() throws IOException {
+		File file = new File(directory, "project.stp");
+		MappedProjectFile.write(project(), file);
+		try (MappedProjectFile input = new MappedProjectFile(file)) {
+			assertEquals(3, input.size());
+			assertEquals("first", input.getComment(0));
+			assertEquals("", input.getComment(1));
+			assertEquals("dritter ✓", input.getComment(2));
+			assertEquals(42_000_000_001L, input.getStoppedNanos(2));
+			assertEquals(3_000, input.getStartDateMillis(2));
+		}
+	}
+	
+	@Test
+	void rejectsCommentOffsetsOutsideTheHeap() throws IOException {
+		File file = new File(directory, "project.stp");
+		MappedProjectFile.write(project(), file);
+		long commentOffsets = MappedProjectFile.HEADER_SIZE + 2L * 3 * Long.BYTES;
+		for (long offset : new long[] {-1, file.length(), Long.MAX_VALUE}) {
+			try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+				raw.seek(commentOffsets);
+				raw.writeLong(offset);
+			}
+			try (MappedProjectFile input = new MappedProjectFile(file)) {
+				assertThrows(IllegalArgumentException.class, () -> input.getComment(0));
+				assertEquals("", input.getComment(1));
+			}
+		}
+	}
+	
+	@Test
+	void rejectsCommentLengthsOutsideTheHeap() throws IOException {
+		File file = new File(directory, "project.stp");
+		MappedProjectFile.write(project(), file);
+		long commentHeap = MappedProjectFile.HEADER_SIZE + 3L * 3 * Long.BYTES;
+		for (int length : new int[] {-1, (int) file.length(), Integer.MAX_VALUE}) {
+			try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+				raw.seek(commentHeap);
+				raw.writeInt(length);
+			}
+			assertThrows(IllegalArgumentException.class, () -> SaveManager.loadProjectFromMappedFile(file));
+		}
+	}
+	
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the {@link MonotonicClock}, anchored to a wall clock which is stepped.
+ *
+ * @author Simon Vetter
+ */
+class MonotonicClockTest {
+	
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+	
+	private long nanos = 5 * NANOS_PER_SECOND;
+	private long wallMillis = 1_700_000_000_000L;
+	
+	private MonotonicClock clock() {
+		return new MonotonicClock(() -> nanos, () -> wallMillis);
+	}
+	
+	@Test
+	void ignoresStepsBelowTheThreshold() {
+		MonotonicClock clock = clock();
+		nanos += 10 * NANOS_PER_SECOND;
+		// corrected backwards by less than the threshold
+		wallMillis += 10_000 - (MonotonicClock.STEP_THRESHOLD_MILLIS - 1);
+		long before = clock.toEpochMillis(nanos);
+		clock.anchor();
+		assertEquals(before, clock.toEpochMillis(nanos));
+		assertEquals(1_700_000_010_000L, clock.toEpochMillis(nanos));
+	}
+	
+	@Test
+	void followsStepsFromTheThresholdOn() {
+		MonotonicClock clock = clock();
+		nanos += 10 * NANOS_PER_SECOND;
+		// a suspend, the monotonic readings stood still
+		wallMillis += 60_000;
+		assertEquals(1_700_000_010_000L, clock.toEpochMillis(nanos));
+		clock.anchor();
+		assertEquals(1_700_000_060_000L, clock.toEpochMillis(nanos));
+		wallMillis -= MonotonicClock.STEP_THRESHOLD_MILLIS;
+		clock.anchor();
+		assertEquals(1_700_000_060_000L - MonotonicClock.STEP_THRESHOLD_MILLIS, clock.toEpochMillis(nanos));
+	}
+	
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of the parsers of the PLAIN file format, mostly their handling of corrupted files.
+ *
+ * @author Simon Vetter
+ */
+class PlainFormatTest {
+	
+	@TempDir
+	File directory;
+	
+	private File file(String content) throws IOException {
+		File file = new File(directory, "project.stp");
+		Files.writeString(file.toPath(), content);
+		return file;
+	}
+	
+	@Test
+	void readsValidLines() throws IOException {
+		SimeTimerProject project = SaveManager.readProject(file("0\t1000\t1500\tfirst\n1\t2000\t7\t\n"),
+				SaveManager.FILE_FORMAT_PLAIN);
+		assertEquals(2, project.size());
+		assertEquals(1_500_000_000L, project.getStoppedNanos(0));
+		assertEquals("first", project.getComment(0));
+		assertEquals(2000, project.getStartDateMillis(1));
+	}
+	
+	@Test
+	void writesWholeMilliseconds() throws IOException {
+		SimeTimerProject project = new SimeTimerProject();
+		project.addTimeChunkNanos(1000, 1_500_000_999L, "first");
+		File file = new File(directory, "project.stp");
+		SaveManager.writeProject(project, file, SaveManager.FILE_FORMAT_PLAIN);
+		assertEquals("0\t1000\t1500\tfirst", Files.readAllLines(file.toPath()).get(0));
+		assertEquals(1_500_000_000L, SaveManager.readProject(file, SaveManager.FILE_FORMAT_PLAIN).getStoppedNanos(0));
+	}
+	
+	@Test
+	void readsSubMillisecondParts() throws IOException {
+		SimeTimerProject project = SaveManager.readProject(file("0\t1000\t1500.000999\tfirst\n"),
+				SaveManager.FILE_FORMAT_PLAIN);
+		assertEquals(1_500_000_999L, project.getStoppedNanos(0));
+		assertEquals(1_500_000_999L, SaveManager.loadProjectFromPlainFile(file("0\t1000\t1500.000999\tfirst\n"))
+				.getStoppedNanos(0));
+	}
+	
+	@Test
+	void rejectsStartDatesTooLargeForALong() throws IOException {
+		File file = file("0\t123456789012345678901234567890\t1500\tfirst\n");
+		assertThrows(IllegalArgumentException.class, () -> SaveManager.readProject(file, SaveManager.FILE_FORMAT_PLAIN));
+		assertThrows(IllegalArgumentException.class, () -> SaveManager.loadProjectFromPlainFile(file));
+	}
+	
+	@Test
+	void rejectsStoppedTimesTooLargeForNanoseconds() throws IOException {
+		File file = file("0\t1000\t" + Long.MAX_VALUE / 10 + "\tfirst\n");
+		assertThrows(IllegalArgumentException.class, () -> SaveManager.readProject(file, SaveManager.FILE_FORMAT_PLAIN));
+		assertThrows(IllegalArgumentException.class, () -> SaveManager.loadProjectFromPlainFile(file));
+	}
+	
+}
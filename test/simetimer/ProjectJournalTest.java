@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of {@link ProjectJournal}: replaying journals onto their save file,
+ * also after crashes during a compaction or a full save.
+ *
+ * @author Simon Vetter
+ */
+class ProjectJournalTest {
+	
+	private static final int FORMAT = SaveManager.FILE_FORMAT_DELTA;
+	
+	@TempDir
+	File directory;
+	
+	private File saveFile;
+	private SimeTimerProject project;
+	
+	
+	
+	@BeforeEach
+	void saveBase() throws IOException {
+		saveFile = new File(directory, "project.stp");
+		project = new SimeTimerProject();
+		project.addTimeChunkNanos(1_000, 10, "first");
+		project.addTimeChunkNanos(3_000, 30, "third");
+		SaveManager.writeProject(project, saveFile, FORMAT);
+	}
+	
+	/**
+	 * changes the comment of the third chunk, then inserts a chunk before it
+	 * and appends another one, journaling every change like the {@link SaveService}
+	 */
+	private void journalChanges(ProjectJournal journal) throws IOException {
+		project.setComment(1, "changed");
+		journal.appendCommentChanged(1, "changed");
+		add(journal, 2_000, 20, "second");
+		add(journal, 4_000, 40, "fourth");
+	}
+	
+	private void add(ProjectJournal journal, long startDateMillis, long stoppedNanos, String comment) throws IOException {
+		int sizeBefore = project.size();
+		project.addTimeChunkNanos(startDateMillis, stoppedNanos, comment);
+		journal.appendChunkAdded(sizeBefore, TimeChunk.ofNanos(startDateMillis, stoppedNanos, comment));
+	}
+	
+	private SimeTimerProject load() throws IOException {
+		SimeTimerProject loaded = SaveManager.readProject(saveFile, FORMAT);
+		ProjectJournal.replay(saveFile, loaded);
+		return loaded;
+	}
+	
+	private static void assertProjectEquals(SimeTimerProject expected, SimeTimerProject actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getStartDateMillis(i), actual.getStartDateMillis(i), "start date of chunk " + i);
+			assertEquals(expected.getStoppedNanos(i), actual.getStoppedNanos(i), "stopped time of chunk " + i);
+			assertEquals(expected.getComment(i), actual.getComment(i), "comment of chunk " + i);
+		}
+	}
+	
+	private File compactingFile() {
+		return ProjectJournal.compactingFileOf(saveFile);
+	}
+	
+	private File journalFile() {
+		return ProjectJournal.journalFileOf(saveFile);
+	}
+	
+	
+	
+	@Test
+	void journalsNullAndLongComments() throws IOException {
+		// longer than the 64 KB writeUTF can store
+		String longComment = "Größe ".repeat(20_000);
+		ProjectJournal journal = new ProjectJournal(saveFile, FORMAT);
+		journal.appendChunkAdded(2, TimeChunk.ofNanos(4_000, 40, null));
+		journal.appendChunkAdded(3, TimeChunk.ofNanos(5_000, 50, longComment));
+		journal.appendCommentChanged(0, longComment);
+		journal.appendCommentChanged(1, null);
+		journal.close();
+		SimeTimerProject loaded = load();
+		assertEquals(4, loaded.size());
+		assertEquals("", loaded.getComment(2));
+		assertEquals(longComment, loaded.getComment(3));
+		assertEquals(longComment, loaded.getComment(0));
+		assertEquals("", loaded.getComment(1));
+	}
+	
+	@Test
+	void replaysJournalsOfOlderVersions() throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(journalFile()))) {
+			output.writeByte('N');
+			output.writeInt(2);
+			output.writeLong(4_000);
+			output.writeLong(40);
+			output.writeUTF("fourth");
+			output.writeByte('C');
+			output.writeInt(0);
+			output.writeUTF("changed");
+		}
+		SimeTimerProject loaded = load();
+		assertEquals(3, loaded.size());
+		assertEquals("fourth", loaded.getComment(2));
+		assertEquals(40, loaded.getStoppedNanos(2));
+		assertEquals("changed", loaded.getComment(0));
+	}
+	
+	@Test
+	void replaysChangesInOrder() throws IOException {
+		ProjectJournal journal = new ProjectJournal(saveFile, FORMAT);
+		journalChanges(journal);
+		journal.close();
+		SimeTimerProject loaded = load();
+		assertProjectEquals(project, loaded);
+		assertEquals("changed", loaded.getComment(2));
+		assertTrue(journalFile().isFile());
+	}
+	
+	@Test
+	void ignoresAnIncompleteLastRecord() throws IOException {
+		ProjectJournal journal = new ProjectJournal(saveFile, FORMAT);
+		journalChanges(journal);
+		journal.close();
+		byte[] records = Files.readAllBytes(journalFile().toPath());
+		Files.write(journalFile().toPath(), Arrays.copyOf(records, records.length - 3));
+		SimeTimerProject loaded = load();
+		assertEquals(3, loaded.size());
+		assertEquals("second", loaded.getComment(1));
+	}
+	
+	@Test
+	void replaysACompactionWhichCrashedBeforeReplacingTheSaveFile() throws IOException {
+		ProjectJournal journal = new ProjectJournal(saveFile, FORMAT);
+		journalChanges(journal);
+		journal.close();
+		// crash after the journal was handed over to the compaction
+		Files.move(journalFile().toPath(), compactingFile().toPath());
+		// the restarted timer journals into a fresh journal
+		journal = new ProjectJournal(saveFile, FORMAT);
+		add(journal, 5_000, 50, "fifth");
+		journal.close();
+		assertProjectEquals(project, load());
+	}
+	
+	@Test
+	void skipsACompactionWhichCrashedAfterReplacingTheSaveFile() throws IOException {
+		ProjectJournal journal = new ProjectJournal(saveFile, FORMAT);
+		journalChanges(journal);
+		for (int i = 0; i < ProjectJournal.COMPACTION_THRESHOLD; i++) {
+			add(journal, 10_000 + i, i, "chunk " + i);
+		}
+		File leftOver = new File(directory, "left over");
+		Files.copy(journalFile().toPath(), leftOver.toPath());
+		journal.compactIfNeeded(project.snapshot());
+		assertFalse(journalFile().exists());
+		assertFalse(compactingFile().exists());
+		// crash after the save file was replaced, before the compacting journal was deleted
+		Files.move(leftOver.toPath(), compactingFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+		add(journal, 5_000, 50, "fifth");
+		journal.close();
+		SimeTimerProject loaded = load();
+		assertProjectEquals(project, loaded);
+		assertFalse(compactingFile().exists());
+		// the fresh journal is kept, so the next load gives the same result
+		assertProjectEquals(project, load());
+	}
+	
+	@Test
+	void skipsJournalsWhichCrashedAfterAFullSave() throws IOException {
+		ProjectJournal journal = new ProjectJournal(saveFile, FORMAT);
+		journalChanges(journal);
+		journal.close();
+		Files.move(journalFile().toPath(), compactingFile().toPath());
+		journal = new ProjectJournal(saveFile, FORMAT);
+		add(journal, 5_000, 50, "fifth");
+		journal.close();
+		// crash after the full save was written, before the journals were discarded
+		SaveManager.writeProject(project, saveFile, FORMAT);
+		assertProjectEquals(project, load());
+		assertFalse(compactingFile().exists());
+		assertFalse(journalFile().exists());
+	}
+	
+}
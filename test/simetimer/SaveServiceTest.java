@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of {@link SaveService}: reporting failed saves.
+ *
+ * @author Simon Vetter
+ */
+class SaveServiceTest {
+	
+	@TempDir
+	File directory;
+	
+	private List<IOException> failures;
+	private SaveService saveService;
+	private SimeTimerProject project;
+	
+	
+	
+	@BeforeEach
+	void createService() {
+		failures = new ArrayList<>();
+		saveService = new SaveService(failures::add, Runnable::run);
+		project = new SimeTimerProject();
+		project.addTimeChunk(1_000_000L, 5_000L, "first");
+	}
+	
+	
+	
+	@Test
+	void reportsAFailureOnce() {
+		File missing = new File(new File(directory, "missing"), "project.stp");
+		saveService.saveProject(project.snapshot(), missing, SaveManager.FILE_FORMAT_BYTE, 1);
+		saveService.flush();
+		assertEquals(1, failures.size());
+		assertFalse(saveService.isJournalOpen(missing, SaveManager.FILE_FORMAT_BYTE));
+		
+		// writes queued behind the failure fail along with it
+		saveService.journalCommentChanged(project.snapshot(), 0, 2);
+		project.addTimeChunk(2_000_000L, 5_000L, "second");
+		saveService.journalChunkAdded(project.snapshot(), project.getTimeChunk(1), 3);
+		saveService.saveProject(project.snapshot(), missing, SaveManager.FILE_FORMAT_BYTE, 4);
+		saveService.flush();
+		assertEquals(1, failures.size());
+		assertEquals(0, saveService.getSavedVersion());
+	}
+	
+	@Test
+	void reportsAgainAfterASuccessfulSave() {
+		File missing = new File(new File(directory, "missing"), "project.stp");
+		saveService.saveProject(project.snapshot(), missing, SaveManager.FILE_FORMAT_BYTE, 1);
+		saveService.saveProject(project.snapshot(), new File(directory, "project.stp"), SaveManager.FILE_FORMAT_BYTE, 2);
+		saveService.saveProject(project.snapshot(), missing, SaveManager.FILE_FORMAT_BYTE, 3);
+		saveService.flush();
+		assertEquals(2, failures.size());
+		assertEquals(2, saveService.getSavedVersion());
+	}
+	
+}
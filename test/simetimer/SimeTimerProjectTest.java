@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of {@link SimeTimerProject}: sorting, inserting and what snapshots see of it.
+ *
+ * @author Simon Vetter
+ */
+class SimeTimerProjectTest {
+	
+	private static SimeTimerProject unsorted() {
+		SimeTimerProject project = new SimeTimerProject();
+		project.appendTimeChunk(3_000, 30, "third");
+		project.appendTimeChunk(1_000, 10, "first");
+		project.appendTimeChunk(2_000, 20, "second");
+		return project;
+	}
+	
+	@Test
+	void snapshotsTellWhetherTheyAreSorted() {
+		SimeTimerProject project = unsorted();
+		SimeTimerProject before = project.snapshot();
+		assertFalse(before.isSorted());
+		assertThrows(IllegalStateException.class, () -> before.getRangeNanos(0, 5_000));
+		project.sortTimes();
+		SimeTimerProject after = project.snapshot();
+		assertTrue(after.isSorted());
+		assertEquals(60, after.getRangeNanos(0, 5_000));
+		assertFalse(before.isSorted());
+		assertTrue(project.copy().isSorted());
+	}
+	
+	@Test
+	void sortsStablyByStartDate() {
+		SimeTimerProject project = unsorted();
+		project.appendTimeChunk(1_000, 11, "first again");
+		project.sortTimes();
+		assertEquals("first", project.getComment(0));
+		assertEquals("first again", project.getComment(1));
+		assertEquals("second", project.getComment(2));
+		assertEquals("third", project.getComment(3));
+		assertEquals(71, project.getProjectNanos());
+	}
+	
+	@Test
+	void sortsLikeTheChunksCompare() {
+		SimeTimerProject project = unsorted();
+		project.appendTimeChunk(1_000, 5, "first, shorter");
+		List<TimeChunk> chunks = new ArrayList<>();
+		for (int i = 0; i < project.size(); i++) {
+			chunks.add(TimeChunk.ofNanos(project.getStartDateMillis(i), project.getStoppedNanos(i), project.getComment(i)));
+		}
+		Collections.sort(chunks, TimeChunk::compareTo);
+		project.sortTimes();
+		for (int i = 0; i < project.size(); i++) {
+			assertEquals(chunks.get(i).getStoppedNanos(), project.getStoppedNanos(i));
+			assertEquals(chunks.get(i).getComment(), project.getComment(i));
+		}
+	}
+	
+	@Test
+	void insertsOutOfOrderChunksAtTheirSortedPosition() {
+		SimeTimerProject project = unsorted();
+		SimeTimerProject snapshot = project.snapshot();
+		assertEquals(1, project.addTimeChunkNanos(1_500, 15, "inserted"));
+		assertTrue(project.isSorted());
+		assertEquals("inserted", project.getComment(1));
+		assertEquals(25, project.getRangeNanos(1_000, 2_000));
+		// the snapshot keeps its chunks
+		assertEquals(3, snapshot.size());
+		assertEquals("third", snapshot.getComment(0));
+	}
+	
+	@Test
+	void insertsIntoFullSmallProjects() {
+		SimeTimerProject project = new SimeTimerProject(1);
+		project.appendTimeChunk(2_000, 20, "second");
+		assertEquals(0, project.addTimeChunkNanos(1_000, 10, "first"));
+		assertEquals(30, project.getProjectNanos());
+		SimeTimerProject copy = project.copy();
+		assertEquals(1, copy.addTimeChunkNanos(1_500, 15, "inserted"));
+		assertEquals("second", copy.getComment(2));
+		SimeTimerProject empty = new SimeTimerProject(0);
+		assertEquals(0, empty.addTimeChunkNanos(1_000, 10, "first"));
+		assertEquals(0, empty.addTimeChunkNanos(500, 5, "earlier"));
+	}
+	
+	@Test
+	void prunesReplacedCommentsFromTheDictionary() {
+		SimeTimerProject project = new SimeTimerProject();
+		project.addTimeChunkNanos(1_000, 10, "kept");
+		project.addTimeChunkNanos(2_000, 20, "replaced");
+		long before = project.estimateHeapBytes();
+		for (int i = 0; i < 100; i++) {
+			project.setComment(1, "replaced " + i);
+		}
+		project.setComment(1, "replaced");
+		project.sortTimes();
+		assertEquals(before, project.estimateHeapBytes());
+		assertEquals("replaced", project.getComment(1));
+		// equal comments still share their instance
+		project.addTimeChunkNanos(3_000, 30, new String("kept"));
+		assertSame(project.getComment(0), project.getComment(2));
+	}
+	
+}
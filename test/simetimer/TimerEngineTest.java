@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015, 2020, 2023 Simon Vetter
+ *
+ * This file is part of SimeTimer.
+ *
+ * SimeTimer is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU General Public License as published by the Free Software Foundation,
+ * either version 3 of the License, or (at your option) any later version.
+ *
+ * SimeTimer is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with SimeTimer.
+ * If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simetimer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+
+/**
+ * Tests of {@link TimerEngine}: its listeners, the {@link CalendarRollup} and
+ * the {@link CommentIndex} it keeps up to date and the {@link TimerCommands}.
+ *
+ * @author Simon Vetter
+ */
+class TimerEngineTest {
+	
+	private static final long HOUR_NANOS = 3_600_000_000_000L;
+	
+	private ManualClock clock;
+	/**
+	 * the number of times the engine anchored its clock
+	 */
+	private int anchors;
+	private TimerEngine engine;
+	private LocalDate today;
+	
+	
+	
+	@BeforeEach
+	void createEngine() {
+		today = LocalDate.of(2024, 3, 14);
+		long startDateMillis = today.atTime(9, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		anchors = 0;
+		clock = new ManualClock(startDateMillis) {
+			@Override
+			public void anchor() {
+				anchors++;
+			}
+		};
+		engine = new TimerEngine(clock, new TimerEngine.SaveSettings() {
+			@Override
+			public File getSaveFile() {
+				return null;
+			}
+			@Override
+			public int getFileFormat() {
+				return ConfigManager.DEFAULT_FILE_FORMAT;
+			}
+			@Override
+			public boolean isAutosave() {
+				return false;
+			}
+			@Override
+			public boolean isJournalAutosave() {
+				return false;
+			}
+		}, new SaveService(e -> fail(e), Runnable::run));
+	}
+	
+	/**
+	 * records a {@link TimeChunk} of the given length
+	 */
+	private void record(long nanos, String comment) {
+		engine.start();
+		clock.advance(nanos);
+		engine.stop(comment);
+	}
+	
+	/**
+	 * waits for the {@link CalendarRollup} to count a replaced project in the background
+	 */
+	private void awaitRollup() throws InterruptedException {
+		engine.getCalendarRollup().awaitCount();
+	}
+	
+	/**
+	 * waits for the {@link CommentIndex} to index a replaced project in the background
+	 */
+	private void awaitIndex() throws InterruptedException {
+		engine.getCommentIndex().awaitIndex();
+	}
+	
+	/**
+	 * a listener writing down the events it is told about
+	 */
+	private static class EventLog implements TimerEngine.Listener {
+		final List<String> events = new ArrayList<>();
+		
+		@Override
+		public void runningChanged(boolean running) {
+			events.add("running " + running);
+		}
+		@Override
+		public void chunksAdded(int fromIndex, int toIndex) {
+			events.add("added " + fromIndex + " " + toIndex);
+		}
+		@Override
+		public void commentChanged(int index) {
+			events.add("comment " + index);
+		}
+		@Override
+		public void projectReplaced(SimeTimerProject project) {
+			events.add("replaced " + project.size());
+		}
+	}
+	
+	
+	
+	@Test
+	void tellsEveryListener() {
+		EventLog first = new EventLog();
+		EventLog second = new EventLog();
+		engine.addListener(first);
+		engine.addListener(second);
+		record(HOUR_NANOS, "first");
+		engine.setComment(0, "changed");
+		engine.reset();
+		List<String> expected = List.of("running true", "added 0 1", "running false", "comment 0", "replaced 0");
+		assertEquals(expected, first.events);
+		assertEquals(expected, second.events);
+		engine.removeListener(first);
+		record(HOUR_NANOS, "second");
+		assertEquals(expected, first.events);
+		assertEquals(8, second.events.size());
+	}
+	
+	@Test
+	void anchorsTheClockOnlyOnStart() {
+		engine.start();
+		clock.advance(HOUR_NANOS);
+		engine.cut("first");
+		clock.advance(HOUR_NANOS);
+		engine.cut("second");
+		engine.stop("third");
+		assertEquals(1, anchors);
+		// the chunks of one run follow each other
+		SimeTimerProject project = engine.getProject();
+		assertEquals(project.getStartDateMillis(0) + HOUR_NANOS / TimeChunk.NANOS_PER_MILLI, project.getStartDateMillis(1));
+		assertEquals(project.getStartDateMillis(1) + HOUR_NANOS / TimeChunk.NANOS_PER_MILLI, project.getStartDateMillis(2));
+		record(HOUR_NANOS, "fourth");
+		assertEquals(2, anchors);
+	}
+	
+	@Test
+	void keepsTheCalendarRollupUpToDate() throws InterruptedException {
+		CalendarRollup rollup = engine.getCalendarRollup();
+		record(HOUR_NANOS, "first");
+		clock.advance(HOUR_NANOS);
+		record(2 * HOUR_NANOS, "second");
+		awaitRollup();
+		assertEquals(3 * HOUR_NANOS, rollup.getTotalNanos(today, CalendarRollup.Period.DAY));
+		assertEquals(3 * HOUR_NANOS, rollup.getTotalNanos(today.plusDays(1), CalendarRollup.Period.WEEK));
+		assertEquals(0, rollup.getTotalNanos(today.plusDays(1), CalendarRollup.Period.DAY));
+		
+		SimeTimerProject loaded = new SimeTimerProject();
+		loaded.addTimeChunkNanos(clock.toEpochMillis(0), HOUR_NANOS, "loaded");
+		engine.projectLoaded(loaded);
+		awaitRollup();
+		assertEquals(HOUR_NANOS, rollup.getTotalNanos(today, CalendarRollup.Period.DAY));
+		
+		engine.reset();
+		awaitRollup();
+		assertEquals(0, rollup.getTotalNanos(today, CalendarRollup.Period.MONTH));
+	}
+	
+	@Test
+	void keepsTheCommentIndexUpToDate() throws InterruptedException {
+		CommentIndex index = engine.getCommentIndex();
+		record(HOUR_NANOS, "ABC-1 review");
+		record(HOUR_NANOS, "meeting");
+		awaitIndex();
+		assertArrayEquals(new int[] {0}, index.find("review"));
+		engine.setComment(1, "review of ABC-2");
+		assertArrayEquals(new int[] {0, 1}, index.find("review"));
+		assertArrayEquals(new int[] {0, 1}, index.find("abc*"));
+		assertArrayEquals(new int[0], index.find("meeting"));
+		
+		SimeTimerProject loaded = new SimeTimerProject();
+		loaded.addTimeChunkNanos(clock.toEpochMillis(0), HOUR_NANOS, "meeting");
+		engine.projectLoaded(loaded);
+		awaitIndex();
+		assertArrayEquals(new int[] {0}, index.find("meeting"));
+		assertArrayEquals(new int[0], index.find("review"));
+	}
+	
+	@Test
+	void keepsTheCommentIndexOfAProjectLoadedInTheBackground() throws InterruptedException {
+		CommentIndex index = engine.getCommentIndex();
+		SimeTimerProject loaded = new SimeTimerProject();
+		loaded.addTimeChunkNanos(clock.toEpochMillis(0) - 2 * HOUR_NANOS / TimeChunk.NANOS_PER_MILLI, HOUR_NANOS, "loaded early");
+		loaded.addTimeChunkNanos(clock.toEpochMillis(0) + 2 * HOUR_NANOS / TimeChunk.NANOS_PER_MILLI, HOUR_NANOS, "loaded late");
+		engine.loadStarted();
+		engine.addLoadedChunks(loaded.copy());
+		record(HOUR_NANOS, "recorded");
+		engine.loadFinished(loaded);
+		assertEquals(3, engine.getProject().size());
+		awaitIndex();
+		assertArrayEquals(new int[] {0, 2}, index.find("loaded"));
+		assertArrayEquals(new int[] {1}, index.find("recorded"));
+		awaitRollup();
+		assertEquals(3 * HOUR_NANOS, engine.getCalendarRollup().getTotalNanos(today, CalendarRollup.Period.DAY));
+	}
+	
+	@Test
+	void answersQueries() throws InterruptedException {
+		record(HOUR_NANOS, "ABC-1 review");
+		record(2 * HOUR_NANOS, "ABC-2 review");
+		record(HOUR_NANOS, "meeting");
+		awaitIndex();
+		assertEquals("found 2 10800000", TimerCommands.execute(engine, "find review", clock.nanoTime()));
+		assertEquals("found 2 7200000", TimerCommands.execute(engine, "find abc-1 OR meeting", clock.nanoTime()));
+		assertEquals("found 0 0", TimerCommands.execute(engine, "find lunch", clock.nanoTime()));
+		assertTrue(TimerCommands.isError(TimerCommands.execute(engine, "find ", clock.nanoTime())));
+	}
+	
+	@Test
+	void answersPeriodTotals() throws InterruptedException {
+		record(HOUR_NANOS, "first");
+		awaitRollup();
+		assertEquals("total 3600000", TimerCommands.execute(engine, "total day " + today, clock.nanoTime()));
+		assertEquals("total 3600000", TimerCommands.execute(engine, "total month " + today.plusDays(3), clock.nanoTime()));
+		assertEquals("total 0", TimerCommands.execute(engine, "total week " + today.plusWeeks(1), clock.nanoTime()));
+		assertTrue(TimerCommands.isError(TimerCommands.execute(engine, "total year", clock.nanoTime())));
+		assertTrue(TimerCommands.isError(TimerCommands.execute(engine, "total day 14.3.2024", clock.nanoTime())));
+	}
+	
+}